@@ -0,0 +1,90 @@
+package net.xuset.smoothLife.main;
+
+import net.xuset.smoothLife.world.TickEngine;
+import net.xuset.smoothLife.world.World;
+import net.xuset.smoothLife.world.WorldFactory;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Checks that the simulation is reproducible. Two worlds are created from the
+ * same seed, one is updated by a tick engine with few threads and the other
+ * by a tick engine with many threads. The state hashes of the worlds are
+ * compared every few ticks. If they ever differ, the program exits with a
+ * non-zero status.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see World#computeStateHash()
+ */
+public class DeterminismCheck {
+	private static final String helpOutput =
+			"Compares runs of the same seed on different thread counts. (without braces)\n" +
+					"   java -cp programName.jar net.xuset.smoothLife.main.DeterminismCheck " +
+					"[seed] [ticks] [threadsA] [threadsB]\n";
+
+	private static final int compareInterval = 1000;
+	private static final int[] neuronLayout = { 8, 20, 20, 4 };
+	private static final int blobsPerSpecie = 40;
+
+	/**
+	 * Entry point into the program.
+	 * 
+	 * @param args the seed, the amount of ticks to run, and the thread counts
+	 * 		of the two worlds
+	 */
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			System.err.println(helpOutput);
+			System.exit(2);
+		}
+
+		long seed;
+		long ticks;
+		int threadsA, threadsB;
+		try {
+			seed = Long.parseLong(args[0]);
+			ticks = Long.parseLong(args[1]);
+			threadsA = Integer.parseInt(args[2]);
+			threadsB = Integer.parseInt(args[3]);
+		} catch (NumberFormatException ex) {
+			System.err.println(helpOutput);
+			System.exit(2);
+			return;
+		}
+
+		World worldA = createWorld(seed, threadsA);
+		World worldB = createWorld(seed, threadsB);
+
+		for (long i = 1; i <= ticks; i++) {
+			worldA.updateBlobs();
+			worldB.updateBlobs();
+
+			if (i % compareInterval == 0 || i == ticks) {
+				long hashA = worldA.computeStateHash();
+				long hashB = worldB.computeStateHash();
+				if (hashA != hashB) {
+					System.err.println("Worlds differ at tick " + i + ": " +
+							Long.toHexString(hashA) + " != " + Long.toHexString(hashB));
+					System.exit(1);
+				}
+				System.out.println("Tick " + i + ": " + Long.toHexString(hashA));
+			}
+		}
+
+		System.out.println("Worlds are identical");
+		System.exit(0);
+	}
+
+	private static World createWorld(long seed, int threads) {
+		SpecieInfo[] speciesInfo = {
+				new SpecieInfo(true, 0L, neuronLayout, blobsPerSpecie),
+				new SpecieInfo(false, 1L, neuronLayout, blobsPerSpecie)
+		};
+
+		World world = new WorldFactory().createNewWorld(
+				new WorldInfo(speciesInfo, 800, 600, seed));
+		world.setTickEngine(new TickEngine(threads));
+		return world;
+	}
+}
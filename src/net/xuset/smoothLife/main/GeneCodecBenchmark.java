@@ -0,0 +1,93 @@
+package net.xuset.smoothLife.main;
+
+import net.xuset.smoothLife.world.BinaryWorldSerializer;
+import net.xuset.smoothLife.world.World;
+import net.xuset.smoothLife.world.WorldFactory;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Compares binary snapshots with raw genes to snapshots whose genes are
+ * packed with GeneCodec. A seeded world is evolved for the given amount of
+ * ticks and then serialized both ways a number of times. The size of both
+ * snapshots and the speed of writing and reading them are printed. Both
+ * snapshots must restore a world with the same state, which is checked as
+ * well.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see net.xuset.smoothLife.nnetwork.GeneCodec
+ * @see BinaryWorldSerializer
+ */
+public class GeneCodecBenchmark {
+	private static final String helpOutput =
+			"Benchmarks packed genes. (without braces)\n" +
+					"   java -cp programName.jar net.xuset.smoothLife.main.GeneCodecBenchmark " +
+					"[blobsPerSpecie] [ticks]\n";
+
+	private static final int[] neuronLayout = { 8, 20, 20, 4 };
+	private static final long seed = 7L;
+	private static final int worldSize = 1200;
+	private static final int rounds = 20;
+
+	/**
+	 * Entry point into the program.
+	 * 
+	 * @param args the blobs per species and the amount of ticks to evolve the
+	 * 		world before it is serialized
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println(helpOutput);
+			System.exit(2);
+		}
+
+		int blobs, ticks;
+		try {
+			blobs = Integer.parseInt(args[0]);
+			ticks = Integer.parseInt(args[1]);
+		} catch (NumberFormatException ex) {
+			System.err.println(helpOutput);
+			System.exit(2);
+			return;
+		}
+
+		SpecieInfo[] speciesInfo = {
+				new SpecieInfo(true, 0, neuronLayout, blobs, blobs),
+				new SpecieInfo(false, 1, neuronLayout, blobs, blobs)
+		};
+		World world = new WorldFactory().createNewWorld(
+				new WorldInfo(speciesInfo, worldSize, worldSize, seed));
+		world.setGridFinder(true);
+		for (int i = 0; i < ticks; i++)
+			world.updateBlobs();
+
+		long hash = world.computeStateHash();
+		long rawHash = run("raw genes   ", world, false);
+		long packedHash = run("packed genes", world, true);
+
+		if (rawHash != hash || packedHash != hash) {
+			System.err.println("A snapshot did not restore the same world");
+			System.exit(1);
+		}
+	}
+
+	private static long run(String name, World world, boolean packGenes) {
+		byte[] snapshot = null;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			snapshot = BinaryWorldSerializer.serializeWorld(world, packGenes);
+		double writeSeconds = (System.nanoTime() - startTime) / 1e9 / rounds;
+
+		World restored = null;
+		startTime = System.nanoTime();
+		for (int i = 0; i < rounds; i++)
+			restored = BinaryWorldSerializer.createWorld(snapshot);
+		double readSeconds = (System.nanoTime() - startTime) / 1e9 / rounds;
+
+		System.out.println(name + ": " + snapshot.length + " bytes, write " +
+				(long) (1000 * writeSeconds) + " ms, read " +
+				(long) (1000 * readSeconds) + " ms");
+		return restored.computeStateHash();
+	}
+}
@@ -0,0 +1,472 @@
+package net.xuset.smoothLife.main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+
+import net.xuset.smoothLife.nnetwork.OffspringBreeder;
+import net.xuset.smoothLife.world.BrainInterface;
+import net.xuset.smoothLife.world.CheckpointService;
+import net.xuset.smoothLife.world.DeltaSnapshotWriter;
+import net.xuset.smoothLife.world.EnsembleRunner;
+import net.xuset.smoothLife.world.RunJournalWriter;
+import net.xuset.smoothLife.world.Specie;
+import net.xuset.smoothLife.world.TickEngine;
+import net.xuset.smoothLife.world.World;
+import net.xuset.smoothLife.world.WorldFactory;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Runs a world without a GUI or network connection as fast as the hardware
+ * allows. The world is created from a seed and a few options, updated for a
+ * given amount of ticks, and periodically reports the tick rate and the
+ * fitness of every species. Checkpoints of the world can be written to disk
+ * at a fixed interval on a background thread, and the history of the world
+ * can be recorded as delta frames. This is meant for long evolution runs.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see World
+ */
+public class HeadlessRunner {
+	private static final String helpOutput =
+			"Runs a world without drawing it. (without braces)\n" +
+					"   java -cp programName.jar net.xuset.smoothLife.main.HeadlessRunner " +
+					"[seed] [ticks] [reportInterval] [checkpointInterval] [option=value]...\n" +
+					"A checkpointInterval of 0 disables checkpoints. Options for every run:\n" +
+					"   width=800 height=600    the size of the world\n" +
+					"   species=2 blobs=20      the species count and blobs per species\n" +
+					"   spawnBudget=0.02        the blobs respawned per tick per species\n" +
+					"   threads=0               tick engine threads, 0 for the classic update\n" +
+					"   coarse=1                longest coarse step of isolated blobs, needs threads\n" +
+					"   breeder=0               background breeder queue size, 0 to disable. Not\n" +
+					"                           reproducible and not allowed with journal\n" +
+					"   checkpointDir=.         the directory to write checkpoints to\n" +
+					"   replicates=1            worlds to run with the seeds seed, seed+1, ...\n" +
+					"Options for a single world only, not allowed with replicates > 1:\n" +
+					"   retain=0                checkpoints to keep, 0 to keep all\n" +
+					"   compress=false          gzip the checkpoints\n" +
+					"   packGenes=false         pack the genes of the checkpoints\n" +
+					"   history=0               ticks between history frames, 0 to disable\n" +
+					"   keyframes=64            history frames from one keyframe to the next\n" +
+					"   journal=0               ticks between run journal keyframes, 0 to disable\n" +
+					"Options for replicates > 1 only:\n" +
+					"   workers=1               threads that update the replicates\n";
+
+	private static final int[] neuronLayout =
+		{ BrainInterface.EXPECTED_INPUT, 20, 20, BrainInterface.EXPECTED_OUTPUT };
+
+	private static final long ensembleSliceMillis = 50;
+	private static final long ensembleReportMillis = 5000;
+
+	private final World world;
+	private final long reportInterval;
+	private final long checkpointInterval;
+	private final File checkpointDir;
+	private int retainCount = 0;
+	private boolean compress = false;
+	private boolean packGenes = false;
+	private long historyInterval = 0;
+	private int keyframeInterval = 64;
+	private long journalInterval = 0;
+
+	private volatile boolean exitLoop = false;
+
+	/**
+	 * Entry point into the program. The arguments are parsed, the world is
+	 * created, and the world is run for the requested amount of ticks.
+	 * 
+	 * @param args the seed, tick count, report interval, checkpoint interval,
+	 * 		and any options
+	 * @throws IOException if a checkpoint could not be written
+	 * @throws ExecutionException if a world of an ensemble failed
+	 */
+	public static void main(String[] args) throws IOException, ExecutionException {
+		if (args.length < 4) {
+			System.err.println(helpOutput);
+			return;
+		}
+
+		long seed, ticks, reportInterval, checkpointInterval;
+		int width = 800, height = 600, speciesCount = 2, blobs = 20;
+		int threads = 0, coarse = 1, breederSize = 0, replicates = 1, workers = 1;
+		int keyframes = 64, retain = 0;
+		boolean compress = false, packGenes = false;
+		long history = 0, journal = 0;
+		double spawnBudget = 1.0 / 50;
+		File checkpointDir = new File(".");
+		String singleWorldOption = null;
+
+		try {
+			seed = Long.parseLong(args[0]);
+			ticks = Long.parseLong(args[1]);
+			reportInterval = Long.parseLong(args[2]);
+			checkpointInterval = Long.parseLong(args[3]);
+
+			for (int i = 4; i < args.length; i++) {
+				int split = args[i].indexOf('=');
+				if (split < 0)
+					throw new IllegalArgumentException("Expected option=value: " + args[i]);
+
+				String key = args[i].substring(0, split);
+				String value = args[i].substring(split + 1);
+				if (isSingleWorldOption(key))
+					singleWorldOption = key;
+
+				if (key.equals("width"))
+					width = Integer.parseInt(value);
+				else if (key.equals("height"))
+					height = Integer.parseInt(value);
+				else if (key.equals("species"))
+					speciesCount = Integer.parseInt(value);
+				else if (key.equals("blobs"))
+					blobs = Integer.parseInt(value);
+				else if (key.equals("spawnBudget"))
+					spawnBudget = Double.parseDouble(value);
+				else if (key.equals("threads"))
+					threads = Integer.parseInt(value);
+				else if (key.equals("coarse"))
+					coarse = Integer.parseInt(value);
+				else if (key.equals("breeder"))
+					breederSize = Integer.parseInt(value);
+				else if (key.equals("replicates"))
+					replicates = Integer.parseInt(value);
+				else if (key.equals("workers"))
+					workers = Integer.parseInt(value);
+				else if (key.equals("retain"))
+					retain = Integer.parseInt(value);
+				else if (key.equals("compress"))
+					compress = Boolean.parseBoolean(value);
+				else if (key.equals("packGenes"))
+					packGenes = Boolean.parseBoolean(value);
+				else if (key.equals("history"))
+					history = Long.parseLong(value);
+				else if (key.equals("keyframes"))
+					keyframes = Integer.parseInt(value);
+				else if (key.equals("journal"))
+					journal = Long.parseLong(value);
+				else if (key.equals("checkpointDir"))
+					checkpointDir = new File(value);
+				else
+					throw new IllegalArgumentException("Unknown option: " + key);
+			}
+
+			if (breederSize > 0 && journal > 0)
+				throw new IllegalArgumentException("breeder cannot be used with journal");
+			if (replicates > 1 && singleWorldOption != null)
+				throw new IllegalArgumentException(
+						singleWorldOption + " cannot be used with replicates > 1");
+		} catch (IllegalArgumentException ex) {
+			System.err.println(ex.getMessage());
+			System.err.println(helpOutput);
+			return;
+		}
+
+		SpecieInfo[] speciesInfo = new SpecieInfo[speciesCount];
+		for (int i = 0; i < speciesInfo.length; i++) {
+			speciesInfo[i] = new SpecieInfo(i % 2 == 0, (long) i, neuronLayout,
+					blobs, spawnBudget);
+		}
+
+		if (breederSize > 0 && checkpointInterval > 0) {
+			System.err.println("Warning: background breeding depends on thread timing, so " +
+					"a run continued from a checkpoint will not match the original run");
+		}
+
+		World[] worlds = new World[replicates];
+		for (int i = 0; i < worlds.length; i++) {
+			worlds[i] = new WorldFactory().createNewWorld(
+					new WorldInfo(speciesInfo, width, height, seed + i));
+			if (threads > 0) {
+				TickEngine engine = new TickEngine(threads);
+				engine.setMaxCoarseStep(coarse);
+				worlds[i].setTickEngine(engine);
+			}
+			if (breederSize > 0)
+				worlds[i].enableBackgroundBreeding(breederSize);
+		}
+
+		if (replicates == 1) {
+			HeadlessRunner runner = new HeadlessRunner(worlds[0], reportInterval,
+					checkpointInterval, checkpointDir);
+			runner.setCheckpointOptions(retain, compress, packGenes);
+			runner.setHistory(history, keyframes);
+			runner.setJournal(journal);
+			runner.run(ticks);
+		} else {
+			runEnsemble(worlds, ticks, workers, checkpointInterval, checkpointDir);
+		}
+	}
+
+	private static boolean isSingleWorldOption(String key) {
+		return key.equals("retain") || key.equals("compress") || key.equals("packGenes") ||
+				key.equals("history") || key.equals("keyframes") || key.equals("journal");
+	}
+
+	private static void runEnsemble(World[] worlds, long ticks, int workers,
+			long checkpointInterval, File checkpointDir) throws ExecutionException {
+
+		final EnsembleRunner ensemble = new EnsembleRunner(workers, ensembleSliceMillis);
+		ensemble.setCheckpoints(checkpointInterval, checkpointDir);
+		for (World w : worlds)
+			ensemble.addWorld(w, ticks);
+
+		final long startTime = System.nanoTime();
+		Runnable reporter = new Runnable() {
+			private long lastTime = startTime, lastTicks = 0;
+
+			@Override
+			public void run() {
+				long now = System.nanoTime();
+				long completed = ensemble.getCompletedTicks();
+				reportEnsemble(ensemble, completed - lastTicks, now - lastTime);
+				lastTime = now;
+				lastTicks = completed;
+			}
+		};
+
+		try {
+			ensemble.run(ensembleReportMillis, reporter);
+		} catch (InterruptedException ex) {
+			ex.printStackTrace();
+			return;
+		}
+
+		reportEnsemble(ensemble, ensemble.getCompletedTicks(), System.nanoTime() - startTime);
+		if (ensemble.getFailedCheckpointCount() != 0) {
+			System.out.println("Failed checkpoints = " + ensemble.getFailedCheckpointCount() +
+					", last failure = " + ensemble.getLastCheckpointFailure());
+		}
+
+		for (int i = 0; i < worlds.length; i++) {
+			System.out.println("World " + i + " (seed " + worlds[i].getSeed() + ")");
+			printFitness(worlds[i]);
+		}
+	}
+
+	private static void reportEnsemble(EnsembleRunner ensemble, long ticks, long nanos) {
+		double ticksPerSecond = nanos == 0 ? 0.0 : ticks * 1e9 / nanos;
+		System.out.println("Ensemble ticks = " + ensemble.getCompletedTicks() + "/" +
+				ensemble.getTotalTickBudget() + ", worlds done = " +
+				ensemble.getFinishedWorldCount() + "/" + ensemble.getWorldCount() +
+				", ticks per second = " + (long) ticksPerSecond);
+	}
+
+	/**
+	 * Creates a new runner for the given world.
+	 * 
+	 * @param world the world to run
+	 * @param reportInterval the amount of ticks between reports. Must be > 0.
+	 * @param checkpointInterval the amount of ticks between checkpoints, or 0
+	 * 		to not write checkpoints
+	 * @param checkpointDir the directory to write checkpoints to
+	 * @throws IllegalArgumentException if reportInterval is less than 1 or
+	 * 		checkpointInterval is negative
+	 */
+	public HeadlessRunner(World world, long reportInterval, long checkpointInterval,
+			File checkpointDir) {
+
+		if (reportInterval < 1 || checkpointInterval < 0)
+			throw new IllegalArgumentException("Invalid report or checkpoint interval");
+
+		this.world = world;
+		this.reportInterval = reportInterval;
+		this.checkpointInterval = checkpointInterval;
+		this.checkpointDir = checkpointDir;
+	}
+
+	/**
+	 * Sets how checkpoints are stored.
+	 * 
+	 * @param retainCount the amount of checkpoints to keep, or 0 to keep all
+	 * @param compress true to compress the checkpoints with gzip
+	 * @param packGenes true to pack the genes of the checkpoints with
+	 * 		GeneCodec
+	 * @throws IllegalArgumentException if retainCount is negative
+	 */
+	public void setCheckpointOptions(int retainCount, boolean compress, boolean packGenes) {
+		if (retainCount < 0)
+			throw new IllegalArgumentException("retainCount must not be negative");
+
+		this.retainCount = retainCount;
+		this.compress = compress;
+		this.packGenes = packGenes;
+	}
+
+	/**
+	 * Sets how often the history of the world is recorded. The history is
+	 * written to history-&lt;tick&gt;.sld in the checkpoint directory, where
+	 * tick is the tick the run started at.
+	 * 
+	 * @param interval the amount of ticks between history frames, or 0 to not
+	 * 		record the history
+	 * @param keyframeInterval the amount of frames from one keyframe to the
+	 * 		next
+	 * @throws IllegalArgumentException if interval is negative or
+	 * 		keyframeInterval is less than 1
+	 */
+	public void setHistory(long interval, int keyframeInterval) {
+		if (interval < 0 || keyframeInterval < 1)
+			throw new IllegalArgumentException("Invalid history or keyframe interval");
+
+		historyInterval = interval;
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Sets how often keyframes are written to the run journal. The journal is
+	 * written to journal-&lt;tick&gt;.slj in the checkpoint directory, where
+	 * tick is the tick the run started at, and lets RunJournalReader
+	 * reproduce any tick of the run.
+	 * 
+	 * @param interval the amount of ticks between keyframes, or 0 to not
+	 * 		record a journal
+	 * @throws IllegalArgumentException if interval is negative
+	 * @see net.xuset.smoothLife.world.RunJournalWriter
+	 */
+	public void setJournal(long interval) {
+		if (interval < 0)
+			throw new IllegalArgumentException("interval must not be negative");
+
+		journalInterval = interval;
+	}
+
+	/**
+	 * Updates the world the given amount of ticks or until exitLoop is called.
+	 * 
+	 * @param ticks the amount of ticks to update the world
+	 * @throws IOException if a checkpoint or the history could not be written
+	 */
+	public void run(long ticks) throws IOException {
+		CheckpointService checkpoints = null;
+		if (checkpointInterval > 0) {
+			checkpoints = new CheckpointService(checkpointDir, checkpointInterval,
+					retainCount, compress);
+			checkpoints.setPackGenes(packGenes);
+		}
+
+		RunJournalWriter journal = null;
+		if (journalInterval > 0) {
+			File file = new File(checkpointDir, "journal-" + world.getTicks() + ".slj");
+			journal = new RunJournalWriter(file, journalInterval);
+			world.setRunJournal(journal);
+		}
+
+		try {
+			run(ticks, checkpoints);
+		} finally {
+			if (checkpoints != null)
+				closeCheckpoints(checkpoints);
+			if (journal != null)
+				closeJournal(journal);
+		}
+	}
+
+	private void run(long ticks, CheckpointService checkpoints) throws IOException {
+		if (historyInterval == 0) {
+			runTicks(ticks, checkpoints, null);
+			return;
+		}
+
+		File file = new File(checkpointDir, "history-" + world.getTicks() + ".sld");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			DeltaSnapshotWriter history = new DeltaSnapshotWriter(out, keyframeInterval);
+			runTicks(ticks, checkpoints, history);
+			System.out.println("History: keyframes = " + history.getKeyframeBytes() +
+					" bytes, deltas = " + history.getDeltaBytes() + " bytes");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void runTicks(long ticks, CheckpointService checkpoints,
+			DeltaSnapshotWriter history) throws IOException {
+
+		exitLoop = false;
+		long startTime = System.nanoTime();
+		long lastReportTime = startTime;
+		long lastReportTick = world.getTicks();
+		long endTick = world.getTicks() + ticks;
+
+		while (world.getTicks() < endTick && !exitLoop) {
+			world.updateBlobs();
+			long tick = world.getTicks();
+
+			if (checkpoints != null)
+				checkpoints.onTick(world);
+
+			if (history != null && tick % historyInterval == 0)
+				history.writeFrame(world);
+
+			if (tick % reportInterval == 0 || tick == endTick) {
+				long now = System.nanoTime();
+				report(tick - lastReportTick, now - lastReportTime);
+				lastReportTime = now;
+				lastReportTick = tick;
+			}
+		}
+
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.println("Finished " + ticks + " ticks in " + seconds + " s");
+	}
+
+	/**
+	 * Stops the run after the current tick.
+	 */
+	public void exitLoop() {
+		exitLoop = true;
+	}
+
+	private void report(long ticks, long nanos) {
+		double ticksPerSecond = nanos == 0 ? 0.0 : ticks * 1e9 / nanos;
+		System.out.println("Ticks=" + world.getTicks() +
+				", ticks per second = " + (long) ticksPerSecond);
+		printFitness(world);
+	}
+
+	private static void printFitness(World world) {
+		for (int i = 0; i < world.getSpeciesCount(); i++) {
+			Specie sp = world.getSpecie(i);
+			double total = sp.getSummedFitness();
+			double average = total / sp.getTotalBlobCount();
+			System.out.println("    Specie " + i + " (" +
+					(sp.isPrey() ? "prey" : "predator") + "). Alive = " +
+					sp.getBlobCount() + "/" + sp.getTotalBlobCount() +
+					", total fitness = " + total + ", average fitness = " + average);
+
+			OffspringBreeder breeder = sp.getBreeder();
+			if (breeder != null)
+				System.out.println("        Bred offspring taken = " +
+						breeder.getTakenCount() + ", misses = " + breeder.getMissCount() +
+						", average staleness = " + breeder.getAverageStaleness() + " ticks");
+		}
+	}
+
+	private void closeJournal(RunJournalWriter journal) throws IOException {
+		world.setRunJournal(null);
+		journal.close();
+		System.out.println("Journal written = " + journal.getWrittenBytes() + " bytes" +
+				", keyframes = " + journal.getKeyframeCount() +
+				", skipped keyframes = " + journal.getSkippedKeyframeCount());
+	}
+
+	private static void closeCheckpoints(CheckpointService checkpoints) {
+		try {
+			checkpoints.close();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		System.out.println("Checkpoints written = " + checkpoints.getWrittenCount() +
+				", skipped = " + checkpoints.getSkippedCount() +
+				", failed = " + checkpoints.getFailedCount() +
+				", average pause = " + checkpoints.getAveragePauseNanos() / 1000 + " us" +
+				", max pause = " + checkpoints.getMaxPauseNanos() / 1000 + " us");
+		if (checkpoints.getFailedCount() != 0)
+			System.out.println("Last checkpoint failure = " + checkpoints.getLastFailure());
+	}
+}
@@ -0,0 +1,82 @@
+package net.xuset.smoothLife.main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.xuset.smoothLife.world.BinaryWorldSerializer;
+import net.xuset.smoothLife.world.RunJournalReader;
+import net.xuset.smoothLife.world.TickEngine;
+import net.xuset.smoothLife.world.World;
+
+/**
+ * Reproduces a tick of a run from its journal and writes the world at that
+ * tick as a binary snapshot. The snapshot can then be viewed, inspected or
+ * run further like any checkpoint. Runs that were updated by a tick engine
+ * need the threads argument. The longest coarse step of the engine is taken
+ * from the journal.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see RunJournalReader
+ */
+public class JournalReplay {
+	private static final String helpOutput =
+			"Reproduces a tick of a journaled run. (without braces)\n" +
+					"   java -cp programName.jar net.xuset.smoothLife.main.JournalReplay " +
+					"[journalFile] [tick] [snapshotFile] [threads]\n" +
+					"The threads are optional and only needed if the run used a tick engine.\n";
+
+	/**
+	 * Entry point into the program.
+	 * 
+	 * @param args the journal file, the tick to reproduce, the snapshot file
+	 * 		to write and optionally the amount of tick engine threads
+	 * @throws IOException if the journal could not be read or the snapshot
+	 * 		could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println(helpOutput);
+			System.exit(2);
+		}
+
+		long tick;
+		int threads = 0;
+		try {
+			tick = Long.parseLong(args[1]);
+			if (args.length > 3)
+				threads = Integer.parseInt(args[3]);
+		} catch (NumberFormatException ex) {
+			System.err.println(helpOutput);
+			System.exit(2);
+			return;
+		}
+
+		RunJournalReader journal = new RunJournalReader(new File(args[0]));
+		World world;
+		try {
+			System.out.println("Journal covers ticks " + journal.getFirstTick() + " to " +
+					journal.getLastTick() + " with " + journal.getKeyframeCount() + " keyframes");
+			if (threads > 0)
+				journal.setTickEngine(new TickEngine(threads));
+
+			long startTime = System.nanoTime();
+			world = journal.readWorld(tick);
+			double seconds = (System.nanoTime() - startTime) / 1e9;
+			long keyframeTick = journal.getKeyframeTick(journal.findKeyframe(tick));
+			System.out.println("Replayed " + (tick - keyframeTick) + " ticks from the keyframe at " +
+					keyframeTick + " in " + seconds + " s");
+		} finally {
+			journal.close();
+		}
+
+		FileOutputStream out = new FileOutputStream(args[2]);
+		try {
+			BinaryWorldSerializer.writeWorld(world, out);
+		} finally {
+			out.close();
+		}
+		System.out.println("State hash = " + Long.toHexString(world.computeStateHash()));
+	}
+}
@@ -0,0 +1,101 @@
+package net.xuset.smoothLife.main;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.xuset.smoothLife.world.BlobView;
+import net.xuset.smoothLife.world.SnapshotFile;
+
+/**
+ * Prints parts of a snapshot file without loading the whole world. Given
+ * only a file, the header and species of the snapshot are listed, along
+ * with how many chromosomes of each species share one stored gene array.
+ * Given a species index, every blob of that species is listed. Given a
+ * species index and a blob id, the state and genes of that blob are
+ * printed.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see SnapshotFile
+ */
+public class SnapshotInspector {
+	private static final String helpOutput =
+			"Prints parts of a snapshot. (without braces)\n" +
+					"   java -cp programName.jar net.xuset.smoothLife.main.SnapshotInspector " +
+					"[file] [specie] [blobId]\n" +
+					"The specie and blobId are optional.\n";
+
+	/**
+	 * Entry point into the program.
+	 * 
+	 * @param args the snapshot file, and optionally the species index and the
+	 * 		blob id
+	 * @throws IOException if the snapshot could not be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println(helpOutput);
+			System.exit(2);
+		}
+
+		int specie = -1, blobId = -1;
+		try {
+			if (args.length > 1)
+				specie = Integer.parseInt(args[1]);
+			if (args.length > 2)
+				blobId = Integer.parseInt(args[2]);
+		} catch (NumberFormatException ex) {
+			System.err.println(helpOutput);
+			System.exit(2);
+			return;
+		}
+
+		SnapshotFile snapshot = new SnapshotFile(new File(args[0]));
+		try {
+			if (specie < 0)
+				printSummary(snapshot);
+			else if (blobId < 0)
+				printSpecie(snapshot, specie);
+			else
+				printBlob(snapshot.getBlob(specie, blobId));
+		} finally {
+			snapshot.close();
+		}
+	}
+
+	private static void printSummary(SnapshotFile snapshot) {
+		System.out.println("World " + snapshot.getWidth() + "x" + snapshot.getHeight() +
+				", seed = " + snapshot.getSeed() + ", ticks = " + snapshot.getTicks());
+		for (int i = 0; i < snapshot.getSpeciesCount(); i++) {
+			System.out.println("    Specie " + i + " (id " + snapshot.getSpecieId(i) + ", " +
+					(snapshot.isPrey(i) ? "prey" : "predator") + "). Blobs = " +
+					snapshot.getBlobCount(i) + ", spawn budget = " + snapshot.getSpawnBudget(i));
+			System.out.println("        Chromosomes = " + snapshot.getChromosomeCount(i) +
+					", stored = " + snapshot.getStoredChromosomeCount(i) +
+					", sharing ratio = " + String.format("%.2f", snapshot.getSharingRatio(i)));
+		}
+	}
+
+	private static void printSpecie(SnapshotFile snapshot, int specie) throws IOException {
+		for (int i = 0; i < snapshot.getBlobCount(specie); i++) {
+			BlobView b = snapshot.getBlob(specie, i);
+			System.out.println("Blob " + i + ": x = " + b.getX() + ", y = " + b.getY() +
+					", energy = " + b.getEnergy() + ", age = " + b.getAge() +
+					", fitness = " + b.getFitness());
+		}
+	}
+
+	private static void printBlob(BlobView b) {
+		System.out.println("Blob " + b.getBlobId() + " of specie " + b.getSpecie());
+		System.out.println("    x = " + b.getX() + ", y = " + b.getY() +
+				", angle = " + b.getAngle());
+		System.out.println("    energy = " + b.getEnergy() + ", age = " + b.getAge());
+		System.out.println("    fitness = " + b.getFitness() +
+				", previous fitness = " + b.getOldFitness());
+
+		StringBuilder genes = new StringBuilder("    genes =");
+		for (int i = 0; i < b.getGeneCount(); i++)
+			genes.append(' ').append(b.getGene(i));
+		System.out.println(genes);
+	}
+}
@@ -0,0 +1,198 @@
+package net.xuset.smoothLife.main;
+
+/**
+ * Decides when the world should be updated and when it should be drawn. The
+ * world is updated at a fixed target tick rate, or as fast as possible if the
+ * rate is unbounded, and drawn at most at the maximum frame rate. Several
+ * ticks can run between two frames, so the simulation speed does not depend
+ * on how long drawing takes.
+ * 
+ * <p>
+ * If the world falls too far behind the target tick rate, the missed ticks
+ * are dropped instead of being caught up all at once.
+ * </p>
+ * 
+ * <p>
+ * The scheduler also measures the actual tick and frame rates over windows
+ * of about one second.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+public class TickScheduler {
+	/** The tick rate used to update the world as fast as possible. */
+	public static final double UNBOUNDED = 0.0;
+
+	private static final long nanosPerSecond = 1000000000L;
+	private static final long maxLagNanos = nanosPerSecond / 4;
+
+	private final long frameNanos;
+
+	private double tickRate;
+	private long tickNanos;
+	private long nextTickTime;
+	private long nextFrameTime;
+
+	private long windowStart;
+	private int windowTicks = 0;
+	private int windowFrames = 0;
+	private double measuredTickRate = 0.0;
+	private double measuredFrameRate = 0.0;
+
+	/**
+	 * Creates a new scheduler.
+	 * 
+	 * @param tickRate the target amount of ticks per second, or UNBOUNDED
+	 * @param maxFrameRate the maximum amount of frames drawn per second.
+	 * 		Must be > 0.
+	 * @throws IllegalArgumentException if maxFrameRate is not greater than 0
+	 */
+	public TickScheduler(double tickRate, double maxFrameRate) {
+		if (maxFrameRate <= 0.0)
+			throw new IllegalArgumentException("maxFrameRate must be greater than 0");
+
+		long now = System.nanoTime();
+		frameNanos = (long) (nanosPerSecond / maxFrameRate);
+		nextFrameTime = now;
+		windowStart = now;
+		applyTickRate(tickRate <= 0.0 ? UNBOUNDED : tickRate);
+	}
+
+	/**
+	 * Sets the target tick rate. Nothing is changed if the rate is the same as
+	 * the current rate.
+	 * 
+	 * @param tickRate the target amount of ticks per second, or UNBOUNDED. Any
+	 * 		value <= 0 is treated as UNBOUNDED.
+	 */
+	public void setTickRate(double tickRate) {
+		if (tickRate <= 0.0)
+			tickRate = UNBOUNDED;
+		if (tickRate != this.tickRate)
+			applyTickRate(tickRate);
+	}
+
+	/**
+	 * Gets the target tick rate.
+	 * 
+	 * @return the target ticks per second, or UNBOUNDED
+	 */
+	public double getTickRate() {
+		return tickRate;
+	}
+
+	/**
+	 * Indicates if the world should be updated.
+	 * 
+	 * @param now the current time from System.nanoTime()
+	 * @return true if a tick is due
+	 */
+	public boolean isTickDue(long now) {
+		return tickNanos == 0L || now - nextTickTime >= 0;
+	}
+
+	/**
+	 * Called after the world was updated once.
+	 * 
+	 * @param now the current time from System.nanoTime()
+	 */
+	public void onTick(long now) {
+		windowTicks++;
+		if (tickNanos == 0L)
+			return;
+
+		nextTickTime += tickNanos;
+		if (now - nextTickTime > maxLagNanos)
+			nextTickTime = now;
+	}
+
+	/**
+	 * Indicates if a frame is due. Ticks should stop running once a frame is
+	 * due, even if the frame is not drawn, so the caller regularly gets a
+	 * chance to react to input.
+	 * 
+	 * @param now the current time from System.nanoTime()
+	 * @return true if a frame is due
+	 */
+	public boolean isFrameDue(long now) {
+		return now - nextFrameTime >= 0;
+	}
+
+	/**
+	 * Called when a frame was due.
+	 * 
+	 * @param now the current time from System.nanoTime()
+	 * @param drawn true if the world was drawn for this frame
+	 */
+	public void onFrame(long now, boolean drawn) {
+		if (drawn)
+			windowFrames++;
+
+		//if drawing took too long, still leave a whole frame for ticks
+		nextFrameTime += frameNanos;
+		if (now - nextFrameTime > 0)
+			nextFrameTime = now + frameNanos;
+	}
+
+	private void applyTickRate(double tickRate) {
+		this.tickRate = tickRate;
+		tickNanos = tickRate == UNBOUNDED ? 0L : Math.max(1L, (long) (nanosPerSecond / tickRate));
+		nextTickTime = System.nanoTime();
+	}
+
+	/**
+	 * Sleeps until the next tick or frame is due. This returns right away if
+	 * the tick rate is unbounded.
+	 */
+	public void sleepUntilNextEvent() {
+		if (tickNanos == 0L)
+			return;
+
+		long wakeTime = nextTickTime - nextFrameTime < 0 ? nextTickTime : nextFrameTime;
+		long pause = wakeTime - System.nanoTime();
+		if (pause <= 0)
+			return;
+
+		try {
+			Thread.sleep(pause / 1000000L, (int) (pause % 1000000L));
+		} catch (InterruptedException ex) { }
+	}
+
+	/**
+	 * Updates the measured rates if the current measuring window is over.
+	 * 
+	 * @param now the current time from System.nanoTime()
+	 * @return true if the measured rates were updated
+	 */
+	public boolean updateRates(long now) {
+		long elapsed = now - windowStart;
+		if (elapsed < nanosPerSecond)
+			return false;
+
+		measuredTickRate = windowTicks * (double) nanosPerSecond / elapsed;
+		measuredFrameRate = windowFrames * (double) nanosPerSecond / elapsed;
+		windowTicks = 0;
+		windowFrames = 0;
+		windowStart = now;
+		return true;
+	}
+
+	/**
+	 * Gets the tick rate measured over the last window.
+	 * 
+	 * @return the measured ticks per second
+	 */
+	public double getMeasuredTickRate() {
+		return measuredTickRate;
+	}
+
+	/**
+	 * Gets the frame rate measured over the last window.
+	 * 
+	 * @return the measured frames per second
+	 */
+	public double getMeasuredFrameRate() {
+		return measuredFrameRate;
+	}
+}
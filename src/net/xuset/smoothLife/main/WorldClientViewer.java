@@ -1,12 +1,25 @@
 package net.xuset.smoothLife.main;
 
+import java.awt.BorderLayout;
+import java.awt.Canvas;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.JFrame;
 
 import net.xuset.objectIO.connections.sockets.InetCon;
 import net.xuset.objectIO.connections.sockets.tcp.TcpCon;
 import net.xuset.objectIO.markupMsg.MarkupMsg;
 import net.xuset.smoothLife.main.WorldViewer.UiController;
+import net.xuset.smoothLife.world.BinaryWorldSerializer;
+import net.xuset.smoothLife.world.SnapshotFile;
 import net.xuset.smoothLife.world.World;
 import net.xuset.smoothLife.world.WorldFactory;
 
@@ -19,6 +32,11 @@ import net.xuset.smoothLife.world.WorldFactory;
  * part of simulating the world on a different machine. It is also good if you
  * plan on running the simulation for a long time.
  * 
+ * The viewer can also open a binary snapshot file instead. The blobs of the
+ * snapshot are drawn right away from their locations, while the world with
+ * all its genes is restored in the background. Once it is restored, the
+ * world is simulated like a world received from a server.
+ * 
  * @author xuset
  * @since 1.0
  * @see WorldServer
@@ -28,7 +46,12 @@ public class WorldClientViewer {
 
 	private static final String helpOutput =
 			"To connect to running server use the ip and port args. (withougt braces)\n" +
-					"     java -jar programName.jar [ip] [port]\n";
+					"     java -jar programName.jar [ip] [port]\n" +
+					"To view a binary snapshot file use the file arg.\n" +
+					"     java -jar programName.jar [snapshotFile]\n";
+
+	private static final long previewMemoryBudget = 64L * 1024 * 1024;
+	private static final long previewFrameMillis = 100;
 
 
 	private static InetCon createConnectionFromArgs(String[] args) throws IOException {
@@ -58,10 +81,15 @@ public class WorldClientViewer {
 	 * method returns without doing anything.
 	 * 
 	 * @param args the command line arguments. The array should contain an IP
-	 * 		address then a port number
+	 * 		address then a port number, or the path of a snapshot file
 	 * @throws IOException If there is an error connecting to the server
 	 */
 	public static void main(String[] args) throws IOException {
+		if (args.length == 1) {
+			viewSnapshot(new File(args[0]));
+			return;
+		}
+
 		InetCon con = createConnectionFromArgs(args);
 		if (con == null)
 			return;
@@ -84,9 +112,70 @@ public class WorldClientViewer {
 		con.close();
 
 		World world = new WorldFactory().createNewWorld(worldMsg);
+		simulate(world);
+	}
+
+	private static void simulate(World world) {
 		UiController controller = new WorldViewer.UiController();
 		WorldViewer viewer = new WorldViewer(world, controller);
 		WorldViewer.createAndPackWindow(world, viewer);
 		viewer.loop();
 	}
+
+	/*
+	 * Draws the blob locations of the snapshot until the world is restored
+	 * by a background thread, then simulates the restored world.
+	 */
+	private static void viewSnapshot(final File path) throws IOException {
+		FutureTask<World> restore = new FutureTask<World>(new Callable<World>() {
+			@Override
+			public World call() throws IOException {
+				FileInputStream in = new FileInputStream(path);
+				try {
+					return BinaryWorldSerializer.readWorld(in);
+				} finally {
+					in.close();
+				}
+			}
+		});
+		Thread loader = new Thread(restore, "SmoothLife-snapshot-loader");
+		loader.setDaemon(true);
+
+		SnapshotFile snapshot = new SnapshotFile(path, previewMemoryBudget);
+		JFrame frame = new JFrame("SmoothLife - loading " + path.getName());
+		Canvas canvas = new Canvas();
+		try {
+			loader.start();
+			frame.setPreferredSize(new Dimension(snapshot.getWidth(), snapshot.getHeight()));
+			frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+			frame.getContentPane().add(canvas, BorderLayout.CENTER);
+			frame.pack();
+			frame.setVisible(true);
+
+			while (!restore.isDone()) {
+				Graphics g = canvas.getGraphics();
+				if (g != null) {
+					WorldDrawer.drawSnapshot(g, snapshot, 1.0,
+							canvas.getWidth(), canvas.getHeight());
+					g.dispose();
+				}
+				try { Thread.sleep(previewFrameMillis); } catch (InterruptedException ex) { }
+			}
+		} finally {
+			snapshot.close();
+			frame.dispose();
+		}
+
+		World world;
+		try {
+			world = restore.get();
+		} catch (InterruptedException ex) {
+			return;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+			System.err.println("Could not restore the snapshot: " + cause.getMessage());
+			return;
+		}
+		simulate(world);
+	}
 }
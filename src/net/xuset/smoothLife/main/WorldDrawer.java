@@ -4,9 +4,11 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.io.IOException;
 
 import net.xuset.smoothLife.world.Blob;
 import net.xuset.smoothLife.world.BlobActions;
+import net.xuset.smoothLife.world.SnapshotFile;
 import net.xuset.smoothLife.world.Specie;
 import net.xuset.smoothLife.world.World;
 
@@ -22,6 +24,7 @@ public class WorldDrawer {
 
 	private static final Color foregroundColor = new Color(20, 40, 200);
 	private static final Color backgroundColor = Color.white;
+	private static final double previewRadius = 6.0;
 
 	/**
 	 * Draws the world by drawing every blob in every species.
@@ -53,6 +56,52 @@ public class WorldDrawer {
 		drawAllBlobs(g, scale, world);
 	}
 
+	/**
+	 * Draws the blobs of a snapshot file without restoring the world. Only
+	 * the locations and angles of the live blobs are read, so this can be
+	 * called while the genes are still being loaded. Prey is drawn in white
+	 * and predators in red.
+	 * 
+	 * @param g the graphics context
+	 * @param snapshot the snapshot to draw
+	 * @param scale the scale at which to draw the world. Must be greater than 0
+	 * @param width the width of the drawing window
+	 * @param height the height of the drawing window
+	 * @throws IOException if the snapshot cannot be read
+	 * @throws IllegalArgumentException if scale is less than or equal to 0
+	 */
+	public static void drawSnapshot(Graphics g, SnapshotFile snapshot, double scale,
+			int width, int height) throws IOException {
+
+		if (scale <= 0.0)
+			throw new IllegalArgumentException("scale must be greater than 0");
+
+		g.setColor(backgroundColor);
+		g.fillRect(0, 0, width, height);
+
+		g.setColor(foregroundColor);
+		g.fillRect(0, 0,
+				(int) (snapshot.getWidth() * scale),
+				(int) (snapshot.getHeight() * scale));
+
+		double r = previewRadius * scale;
+		for (int i = 0; i < snapshot.getSpeciesCount(); i++) {
+			g.setColor(snapshot.isPrey(i) ? Color.white : predatorInnerActiveColor);
+
+			for (int j = 0; j < snapshot.getBlobCount(i); j++) {
+				if (snapshot.getEnergy(i, j) <= 0.0)
+					continue;
+
+				double x = snapshot.getX(i, j) * scale;
+				double y = snapshot.getY(i, j) * scale;
+				double angle = snapshot.getAngle(i, j);
+				g.fillOval((int) (x - r), (int) (y - r), (int) (2 * r), (int) (2 * r));
+				g.drawLine((int) x, (int) y,
+						(int) (x + 2 * r * Math.cos(angle)), (int) (y - 2 * r * Math.sin(angle)));
+			}
+		}
+	}
+
 	/**
 	 * Draws stats about the world. This should be called after drawWorld or
 	 * not at all.
@@ -9,6 +9,7 @@ import net.xuset.objectIO.connections.sockets.InetHub;
 import net.xuset.objectIO.connections.sockets.ServerEventListener;
 import net.xuset.objectIO.connections.sockets.tcp.TcpServer;
 import net.xuset.objectIO.markupMsg.MarkupMsg;
+import net.xuset.smoothLife.nnetwork.OffspringBreeder;
 import net.xuset.smoothLife.world.Specie;
 import net.xuset.smoothLife.world.World;
 import net.xuset.smoothLife.world.WorldFactory;
@@ -129,6 +130,13 @@ public class WorldServer {
 			System.out.println("    Specie " + i + " (" +
 					(sp.isPrey() ? "prey" : "predator") + "). Average fitness = " +
 					average);
+
+			OffspringBreeder breeder = sp.getBreeder();
+			if (breeder != null)
+				System.out.println("        Bred offspring taken = " +
+						breeder.getTakenCount() + ", misses = " + breeder.getMissCount() +
+						", average staleness = " + breeder.getAverageStaleness() +
+						" ticks, max staleness = " + breeder.getMaxStaleness() + " ticks");
 		}
 	}
 
@@ -9,8 +9,11 @@ import java.awt.event.ActionListener;
 import java.awt.image.BufferStrategy;
 
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import net.xuset.smoothLife.world.World;
 import net.xuset.smoothLife.world.WorldFactory;
@@ -23,9 +26,12 @@ import net.xuset.smoothLife.world.WorldFactory;
  * @since 1.0
  */
 public class WorldViewer {
+	private static final double maxFrameRate = 60.0;
+
 	private final Canvas canvas = new Canvas();
 	private final World world;
 	private final UiController uiController;
+	private final TickScheduler scheduler;
 
 	private BufferStrategy drawStrategy = null;
 	private long ticks = 0L;
@@ -85,6 +91,7 @@ public class WorldViewer {
 	public WorldViewer(World world, UiController uiController) {
 		this.world = world;
 		this.uiController = uiController;
+		this.scheduler = new TickScheduler(uiController.getTickRate(), maxFrameRate);
 
 		canvas.setIgnoreRepaint(true);
 	}
@@ -140,22 +147,32 @@ public class WorldViewer {
 
 	/**
 	 * Called to handle the update.
-	 * The world is updated then if it is time to draw the world, the world is
-	 * drawn.
+	 * The world is updated as many times as the scheduler allows until the
+	 * next frame is due. The world is then drawn if drawing is turned on, and
+	 * the thread sleeps until the next tick or frame is due.
 	 */
 	protected void onUpdate() {
-		final long msPerUpdate = 10L;
-		long startTime = System.currentTimeMillis();
-
-		updateWorld();
+		scheduler.setTickRate(uiController.getTickRate());
+		long now = System.nanoTime();
 
-		if (uiController.shouldDraw()) {
-			drawWorld(1.0);
+		while (scheduler.isTickDue(now) && !scheduler.isFrameDue(now)) {
+			updateWorld();
+			now = System.nanoTime();
+			scheduler.onTick(now);
+		}
 
-			long pause = msPerUpdate - (System.currentTimeMillis() - startTime);
-			if (pause > 0)
-				try { Thread.sleep(pause); } catch (InterruptedException ex) { }
+		if (scheduler.isFrameDue(now)) {
+			boolean draw = uiController.shouldDraw();
+			if (draw)
+				drawWorld(1.0);
+			scheduler.onFrame(System.nanoTime(), draw);
 		}
+
+		if (scheduler.updateRates(now))
+			uiController.showRates(scheduler.getMeasuredTickRate(),
+					scheduler.getMeasuredFrameRate());
+
+		scheduler.sleepUntilNextEvent();
 	}
 
 	private void createDrawStrategy() {
@@ -170,7 +187,8 @@ public class WorldViewer {
 
 	/**
 	 * UiController is used to provide a GUI controller for the world.
-	 * Mainly it is used to turn drawing the world on and off.
+	 * Mainly it is used to turn drawing the world on and off and to pick the
+	 * target tick rate. It also shows the measured tick and frame rates.
 	 * 
 	 * @author xuset
 	 * @since 1.0
@@ -179,9 +197,17 @@ public class WorldViewer {
 		private static final long serialVersionUID = 1L;
 		private static final String txtStartDraw = "Start drawing";
 		private static final String txtStopDraw = "Stop drawing";
+		private static final String[] tickRateNames =
+			{ "10 ticks/s", "100 ticks/s", "1000 ticks/s", "10000 ticks/s", "Unbounded" };
+		private static final double[] tickRates =
+			{ 10.0, 100.0, 1000.0, 10000.0, TickScheduler.UNBOUNDED };
+		private static final int defaultTickRate = 1;
 
 		private final JButton btnNoDraw;
-		private boolean shouldDraw = true;
+		private final JComboBox<String> cmbTickRate;
+		private final JLabel lblRates;
+		private volatile boolean shouldDraw = true;
+		private volatile double tickRate = tickRates[defaultTickRate];
 
 		/**
 		 * Create a new UiController instance that can be added to a GUI
@@ -192,6 +218,15 @@ public class WorldViewer {
 			btnNoDraw.addActionListener(new BtnNoDrawAction());
 			setNoDrawText();
 			add(btnNoDraw);
+
+			cmbTickRate = new JComboBox<String>(tickRateNames);
+			cmbTickRate.setSelectedIndex(defaultTickRate);
+			cmbTickRate.addActionListener(new CmbTickRateAction());
+			add(cmbTickRate);
+
+			lblRates = new JLabel();
+			showRates(0.0, 0.0);
+			add(lblRates);
 		}
 
 		private void setNoDrawText() {
@@ -207,6 +242,38 @@ public class WorldViewer {
 			return shouldDraw;
 		}
 
+		/**
+		 * Gets the tick rate selected by the user.
+		 * @return the target ticks per second or TickScheduler.UNBOUNDED
+		 */
+		public double getTickRate() {
+			return tickRate;
+		}
+
+		/**
+		 * Displays the measured rates. This can be called from any thread.
+		 * @param ticksPerSecond the measured tick rate
+		 * @param framesPerSecond the measured frame rate
+		 */
+		public void showRates(double ticksPerSecond, double framesPerSecond) {
+			final String text = "Ticks/s: " + Math.round(ticksPerSecond) +
+					"   Frames/s: " + Math.round(framesPerSecond);
+
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					lblRates.setText(text);
+				}
+			});
+		}
+
+		private class CmbTickRateAction implements ActionListener {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				tickRate = tickRates[cmbTickRate.getSelectedIndex()];
+			}
+		}
+
 		private class BtnNoDrawAction implements ActionListener {
 			@Override
 			public void actionPerformed(ActionEvent e) {
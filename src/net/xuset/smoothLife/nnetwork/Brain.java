@@ -25,6 +25,26 @@ public final class Brain {
 	 * 		if the one of the array values is less than 0
 	 */
 	public Brain(int neuronLayout[]) {
+		this(neuronLayout, true);
+	}
+
+	/**
+	 * Instantiate a new brain with the given neuron layout and weights. The
+	 * weights are not randomized first.
+	 * 
+	 * @param neuronLayout the amount of neurons per layer as an array
+	 * @param weights the weights of the brain
+	 * @throws IllegalArgumentException
+	 * 		If the supplied array length is less than two,
+	 * 		if the one of the array values is less than 0 or
+	 * 		if the weight count does not match the layout
+	 */
+	public Brain(int neuronLayout[], double weights[]) {
+		this(neuronLayout, false);
+		putWeights(weights);
+	}
+
+	private Brain(int neuronLayout[], boolean randomize) {
 
 		/*
 		 * make sure there is at least two layers.
@@ -44,7 +64,7 @@ public final class Brain {
 			if (neuronLayout[i] < 1 || neuronLayout[i + 1] < 1)
 				throw new IllegalArgumentException("Array values must be greater than 0");
 
-			layers[i] = new Layer(neuronLayout[i], neuronLayout[i+1]);
+			layers[i] = new Layer(neuronLayout[i], neuronLayout[i+1], false, randomize);
 
 			totalWeights += layers[i].weightCount;
 		}
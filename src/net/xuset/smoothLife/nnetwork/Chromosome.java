@@ -1,6 +1,7 @@
 package net.xuset.smoothLife.nnetwork;
 
 import java.util.Arrays;
+import java.util.Random;
 
 /**
  * The Chromosome is used by blobs to determine their size, color, and brains.
@@ -10,11 +11,20 @@ import java.util.Arrays;
  */
 public final class Chromosome implements Cloneable {
 	private static final int brainOffset = 4;
+	private static final ChromosomeIds defaultIds = new ChromosomeIds();
+	private static final long hashMultiplier = 0x9E3779B97F4A7C15L;
+
+	/** The id used when a chromosome has no parent. */
+	public static final long NO_PARENT = -1L;
 
 	/** The genes of the chromosome. */
 	final double[] genes;
 
+	private final long id;
+	private long parentIdA, parentIdB;
+	private int crossOverStart, crossOverEnd;
 	private double fitness = 1.0;
+	private volatile long geneHash = 0L;
 
 	/**
 	 * Create a new chromosome.
@@ -26,13 +36,45 @@ public final class Chromosome implements Cloneable {
 	 * @throws IllegalArgumentException if randRange is < 0
 	 */
 	public Chromosome(int brainWeightCount, double randRange) {
-		this(new double[brainOffset + brainWeightCount]);
+		this(brainWeightCount, randRange, new Random());
+	}
+
+	/**
+	 * Create a new chromosome with genes drawn from the given random number
+	 * generator.
+	 * 
+	 * @param brainWeightCount the amount of doubles reserved for the use by the
+	 * 		brain.
+	 * @param randRange the range to randomly set the initial values of the
+	 * 		chromosome to. Must be greater than or equal to zero.
+	 * @param random the random number generator to draw the genes from
+	 * @throws IllegalArgumentException if randRange is < 0
+	 */
+	public Chromosome(int brainWeightCount, double randRange, Random random) {
+		this(brainWeightCount, randRange, random, defaultIds);
+	}
+
+	/**
+	 * Create a new chromosome with genes drawn from the given random number
+	 * generator and an id taken from the given sequence.
+	 * 
+	 * @param brainWeightCount the amount of doubles reserved for the use by the
+	 * 		brain.
+	 * @param randRange the range to randomly set the initial values of the
+	 * 		chromosome to. Must be greater than or equal to zero.
+	 * @param random the random number generator to draw the genes from
+	 * @param ids the sequence to take the id of the chromosome from
+	 * @throws IllegalArgumentException if randRange is < 0
+	 */
+	public Chromosome(int brainWeightCount, double randRange, Random random,
+			ChromosomeIds ids) {
+		this(new double[brainOffset + brainWeightCount], ids.next());
 
 		if (randRange < 0)
 			throw new IllegalArgumentException("randRange must be greater than zero");
 
 		for (int i = 0; i < genes.length; i++) {
-			genes[i] = (Math.random() * randRange) - randRange / 2;
+			genes[i] = (random.nextDouble() * randRange) - randRange / 2;
 		}
 	}
 
@@ -45,11 +87,124 @@ public final class Chromosome implements Cloneable {
 	 * 		for the chromosome
 	 */
 	public Chromosome(double[] genes) {
+		this(genes, defaultIds.next());
+	}
+
+	/**
+	 * Create a new chromosome with the given genes and id. This is used to
+	 * restore a saved chromosome, or to give a chromosome an id from the
+	 * sequence of a world.
+	 * The given genes are NOT copied so use with care.
+	 * 
+	 * @param genes the genes the chromosome should use
+	 * @param id the id of the chromosome
+	 * @throws IllegalArgumentException if the supplied array is too small
+	 * 		for the chromosome
+	 */
+	public Chromosome(double[] genes, long id) {
+		this(genes, id, NO_PARENT, NO_PARENT, -1, -1);
+	}
+
+	/**
+	 * Create a new chromosome with the given genes, id and lineage. This is
+	 * used to restore a saved chromosome.
+	 * The given genes are NOT copied so use with care.
+	 * 
+	 * @param genes the genes the chromosome should use
+	 * @param id the id of the chromosome
+	 * @param parentIdA the id of the first parent or NO_PARENT
+	 * @param parentIdB the id of the second parent or NO_PARENT
+	 * @param crossOverStart the first gene copied from the second parent,
+	 * 		or -1 if there was no cross over
+	 * @param crossOverEnd the index after the last gene copied from the
+	 * 		second parent, or -1 if there was no cross over
+	 * @throws IllegalArgumentException if the supplied array is too small
+	 * 		for the chromosome
+	 */
+	public Chromosome(double[] genes, long id, long parentIdA, long parentIdB,
+			int crossOverStart, int crossOverEnd) {
 		if (genes.length <= brainOffset)
 			throw new IllegalArgumentException(
 					"Array length must be greater than " + brainOffset);
 
 		this.genes = genes;
+		this.id = id;
+		this.parentIdA = parentIdA;
+		this.parentIdB = parentIdB;
+		this.crossOverStart = crossOverStart;
+		this.crossOverEnd = crossOverEnd;
+	}
+
+	/**
+	 * Returns the id of the chromosome. The chromosomes of a world take
+	 * their ids from the world's own sequence, which is saved with the
+	 * world, so the ids stay unique within the world across a restore.
+	 * Chromosomes created without a sequence take their ids from one
+	 * sequence shared by the running program. Clones share the id of the
+	 * chromosome they were cloned from.
+	 * 
+	 * @return the id of the chromosome
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the id of the first parent the chromosome was bred from.
+	 * 
+	 * @return the id of the parent or NO_PARENT
+	 */
+	public long getParentIdA() {
+		return parentIdA;
+	}
+
+	/**
+	 * Returns the id of the second parent the chromosome was bred from.
+	 * 
+	 * @return the id of the parent or NO_PARENT
+	 */
+	public long getParentIdB() {
+		return parentIdB;
+	}
+
+	/**
+	 * Returns the index of the first gene that was copied from the second
+	 * parent. The genes from getCrossOverStart() up to but not including
+	 * getCrossOverEnd() came from the second parent and all other genes
+	 * came from the first.
+	 * 
+	 * @return the start of the copied genes or -1 if no cross over happened
+	 */
+	public int getCrossOverStart() {
+		return crossOverStart;
+	}
+
+	/**
+	 * Returns the index after the last gene that was copied from the second
+	 * parent.
+	 * 
+	 * @return the end of the copied genes or -1 if no cross over happened
+	 * @see #getCrossOverStart()
+	 */
+	public int getCrossOverEnd() {
+		return crossOverEnd;
+	}
+
+	/**
+	 * Records the parents the chromosome was bred from.
+	 * 
+	 * @param parentA the first parent. Its genes are the base of the chromosome.
+	 * @param parentB the second parent
+	 * @param start the first gene copied from parentB, or -1 if there was no
+	 * 		cross over
+	 * @param end the index after the last gene copied from parentB, or -1 if
+	 * 		there was no cross over
+	 */
+	void setParents(Chromosome parentA, Chromosome parentB, int start, int end) {
+		parentIdA = parentA.id;
+		parentIdB = parentB.id;
+		crossOverStart = start;
+		crossOverEnd = end;
 	}
 
 	/**
@@ -99,6 +254,47 @@ public final class Chromosome implements Cloneable {
 		return Arrays.copyOf(genes, genes.length);
 	}
 
+	/**
+	 * Return the total amount of genes.
+	 * 
+	 * @return the gene count of the chromosome
+	 */
+	public int getGeneCount() {
+		return genes.length;
+	}
+
+	/**
+	 * Return the gene at the specified index without copying the genes.
+	 * 
+	 * @param index the index of the gene. The index should be >= 0 and
+	 * 		< getGeneCount().
+	 * @return the value of the gene
+	 */
+	public double getGene(int index) {
+		return genes[index];
+	}
+
+	/**
+	 * Returns a 64 bit hash of the genes. Chromosomes with equal genes have
+	 * equal hashes. The genes never change, so the hash is computed the first
+	 * time it is requested and kept from then on. Clones compute their own.
+	 * 
+	 * @return the hash of the genes, which is never zero
+	 */
+	public long getGeneHash() {
+		long hash = geneHash;
+		if (hash == 0L) {
+			hash = genes.length;
+			for (int i = 0; i < genes.length; i++)
+				hash = Long.rotateLeft(hash, 29) ^ Double.doubleToLongBits(genes[i]) * hashMultiplier;
+			hash ^= hash >>> 32;
+			if (hash == 0L)
+				hash = 1L;
+			geneHash = hash;
+		}
+		return hash;
+	}
+
 	/**
 	 * Return the radius that is determined by a specific gene.
 	 * 
@@ -134,7 +330,8 @@ public final class Chromosome implements Cloneable {
 
 	@Override
 	public Chromosome clone() {
-		Chromosome chrm = new Chromosome(copyAllGenes());
+		Chromosome chrm = new Chromosome(copyAllGenes(), id,
+				parentIdA, parentIdB, crossOverStart, crossOverEnd);
 		chrm.fitness = fitness;
 		return chrm;
 	}
@@ -0,0 +1,60 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the ids of new chromosomes. Every world keeps its own sequence,
+ * so the ids of a world do not depend on what other worlds in the same
+ * program do, and the position of the sequence is saved with the world so
+ * a restored world continues where it left off. Ids are only unique within
+ * one sequence.
+ * 
+ * <p>
+ * This class is thread safe, so chromosomes can be bred on background
+ * threads.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see Chromosome#getId()
+ */
+public final class ChromosomeIds {
+	private final AtomicLong next;
+
+	/**
+	 * Creates a sequence that starts at zero.
+	 */
+	public ChromosomeIds() {
+		this(0L);
+	}
+
+	/**
+	 * Creates a sequence that continues at the given id.
+	 * 
+	 * @param nextId the id handed out next
+	 * @throws IllegalArgumentException if nextId is negative
+	 */
+	public ChromosomeIds(long nextId) {
+		if (nextId < 0)
+			throw new IllegalArgumentException("nextId must not be negative");
+		next = new AtomicLong(nextId);
+	}
+
+	/**
+	 * Takes the next id of the sequence.
+	 * 
+	 * @return a new id
+	 */
+	public long next() {
+		return next.getAndIncrement();
+	}
+
+	/**
+	 * Gets the id handed out next without taking it.
+	 * 
+	 * @return the next id
+	 */
+	public long getNext() {
+		return next.get();
+	}
+}
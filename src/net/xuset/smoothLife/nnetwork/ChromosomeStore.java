@@ -0,0 +1,153 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.util.Arrays;
+
+/**
+ * A table of chromosomes addressed by their genes. Every chromosome added
+ * to the store is looked up by the hash of its genes, and if a chromosome
+ * with equal genes was added before, the index of that entry is returned
+ * instead of adding a new one. A converged species holds many chromosomes
+ * with equal genes, like a blob's current chromosome and the clone of it in
+ * the gene pool, so a table of a species is often much smaller than the
+ * species' chromosomes.
+ * 
+ * <p>
+ * The hash of a chromosome is computed once and kept by the chromosome, so
+ * adding the same chromosomes to a new store every checkpoint only compares
+ * the genes of chromosomes that are actually equal. Only the genes take
+ * part in the lookup. The fitness of an entry is the fitness of the first
+ * chromosome added with its genes.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see Chromosome#getGeneHash()
+ */
+public final class ChromosomeStore {
+	private Chromosome[] entries;
+	private long[] hashes;
+	private int[] slots;
+	private int size = 0, references = 0;
+
+	/**
+	 * Creates an empty store.
+	 */
+	public ChromosomeStore() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty store with room for the given amount of entries.
+	 * 
+	 * @param capacity the amount of entries expected
+	 */
+	public ChromosomeStore(int capacity) {
+		capacity = Math.max(capacity, 4);
+		entries = new Chromosome[capacity];
+		hashes = new long[capacity];
+		slots = new int[Integer.highestOneBit(2 * capacity - 1) * 2];
+	}
+
+	/**
+	 * Adds a chromosome to the store if no entry has equal genes.
+	 * 
+	 * @param chromo the chromosome to add
+	 * @return the index of the entry holding the chromosome's genes
+	 */
+	public int add(Chromosome chromo) {
+		references++;
+		long hash = chromo.getGeneHash();
+		int mask = slots.length - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+		while (slots[slot] != 0) {
+			int index = slots[slot] - 1;
+			if (hashes[index] == hash) {
+				double[] genes = entries[index].genes;
+				if (genes == chromo.genes || Arrays.equals(genes, chromo.genes))
+					return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == entries.length) {
+			grow();
+			references--;
+			return add(chromo);
+		}
+
+		entries[size] = chromo;
+		hashes[size] = hash;
+		slots[slot] = ++size;
+		return size - 1;
+	}
+
+	private void grow() {
+		entries = Arrays.copyOf(entries, 2 * entries.length);
+		hashes = Arrays.copyOf(hashes, entries.length);
+		slots = new int[2 * slots.length];
+
+		int mask = slots.length - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = (int) (hashes[i] ^ (hashes[i] >>> 32)) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = i + 1;
+		}
+	}
+
+	/**
+	 * Gets the amount of entries, which is the amount of distinct genes
+	 * added.
+	 * 
+	 * @return the entry count
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets an entry of the store.
+	 * 
+	 * @param index the index of the entry
+	 * @return the first chromosome added with the entry's genes
+	 * @throws IndexOutOfBoundsException if the index is out of bounds
+	 */
+	public Chromosome get(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Entry index " + index);
+		return entries[index];
+	}
+
+	/**
+	 * Copies the entries of the store into a new array in index order.
+	 * 
+	 * @return the entries of the store
+	 */
+	public Chromosome[] toArray() {
+		return Arrays.copyOf(entries, size);
+	}
+
+	/**
+	 * Gets the amount of times add was called.
+	 * 
+	 * @return the amount of chromosomes added, equal or not
+	 */
+	public int getReferenceCount() {
+		return references;
+	}
+
+	/**
+	 * Gets the amount of chromosomes added per entry of the store. A store
+	 * that did not share any genes has a ratio of one.
+	 * 
+	 * @return the sharing ratio, or one if the store is empty
+	 */
+	public double getSharingRatio() {
+		return size == 0 ? 1.0 : (double) references / size;
+	}
+}
@@ -0,0 +1,105 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.util.Random;
+
+/**
+ * A counter based random number generator. The n-th random number of the
+ * stream is computed by hashing the stream's key together with n, so the
+ * numbers of a stream only depend on the key and on how many numbers were
+ * drawn before. Streams with different keys are independent of each other,
+ * which lets every blob and species have its own reproducible stream no matter
+ * which thread uses it.
+ * 
+ * <p>
+ * Unlike java.util.Random, this class is not thread safe. Each stream should
+ * only be used by one thread at a time.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+public final class CounterRandom extends Random {
+	private static final long serialVersionUID = 1L;
+	private static final long golden = 0x9E3779B97F4A7C15L;
+	private static final double doubleUnit = 0x1.0p-53;
+
+	private final long key;
+	private long counter = 0L;
+
+	/**
+	 * Instantiate a new stream with the given key.
+	 * 
+	 * @param key the key of the stream
+	 */
+	public CounterRandom(long key) {
+		super(0L);
+		this.key = key;
+	}
+
+	/**
+	 * Derives the key of a sub stream from a parent key and an id. Different
+	 * ids give independent keys.
+	 * 
+	 * @param parentKey the key or seed of the parent stream
+	 * @param id the id of the sub stream
+	 * @return the key of the sub stream
+	 */
+	public static long deriveKey(long parentKey, long id) {
+		return mix(parentKey ^ mix(id + golden));
+	}
+
+	/**
+	 * Gets the key of the stream.
+	 * 
+	 * @return the key of the stream
+	 */
+	public long getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the amount of 64 bit blocks drawn from the stream so far.
+	 * 
+	 * @return the counter of the stream
+	 */
+	public long getCounter() {
+		return counter;
+	}
+
+	/**
+	 * Sets the counter of the stream. The stream continues with the random
+	 * numbers it produced after drawing the given amount of blocks.
+	 * 
+	 * @param newCounter the new counter of the stream
+	 */
+	public void setCounter(long newCounter) {
+		counter = newCounter;
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int) (nextLong() >>> (64 - bits));
+	}
+
+	@Override
+	public long nextLong() {
+		return mix(key + golden * (counter++));
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * doubleUnit;
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	/* The finalizer of the SplitMix64 generator. */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
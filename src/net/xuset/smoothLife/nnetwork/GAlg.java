@@ -1,6 +1,7 @@
 package net.xuset.smoothLife.nnetwork;
 
 import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Creates chromsomes by utilizing the process of a genetic algorithm.
@@ -10,8 +11,43 @@ import java.util.Arrays;
  */
 public final class GAlg {
 	private final static double mutationRate = 0.1;
-	private final static double mutationStep = 0.1;
+	final static double mutationStep = 0.1;
 	private final static double crossOverRate = 0.7;
+	private final static double logNoMutation = Math.log(1.0 - mutationRate);
+
+	private final Random random;
+	private final ChromosomeIds ids;
+
+	/**
+	 * Creates a new genetic algorithm that uses its own random number
+	 * generator.
+	 */
+	public GAlg() {
+		this(new Random());
+	}
+
+	/**
+	 * Creates a new genetic algorithm that draws all of its random numbers
+	 * from the given generator.
+	 * 
+	 * @param random the random number generator to use
+	 */
+	public GAlg(Random random) {
+		this(random, new ChromosomeIds());
+	}
+
+	/**
+	 * Creates a new genetic algorithm that draws all of its random numbers
+	 * from the given generator and the ids of the chromosomes it creates from
+	 * the given sequence.
+	 * 
+	 * @param random the random number generator to use
+	 * @param ids the sequence to take the ids of new chromosomes from
+	 */
+	public GAlg(Random random, ChromosomeIds ids) {
+		this.random = random;
+		this.ids = ids;
+	}
 
 	/**
 	 * Creates a new chromosome while utilizing the given gene pool. The
@@ -25,41 +61,102 @@ public final class GAlg {
 		Chromosome chromoA = select(pool, totalFitness);
 		Chromosome chromoB = select(pool, totalFitness);
 
-		double[] result = crossOver(chromoA.genes, chromoB.genes);
-		mutate(result);
-		return new Chromosome(result);
+		return breed(chromoA, chromoB);
+	}
+
+	/**
+	 * Creates a new chromosome from a snapshot of a gene pool. The parents are
+	 * selected with the fitness values stored in the snapshot, so this method
+	 * can safely be called from a thread other than the one changing the gene
+	 * pool.
+	 * 
+	 * @param snapshot the gene pool snapshot to create the chromosome from
+	 * @return a new chromosome
+	 */
+	public Chromosome createNewChromo(GenePoolSnapshot snapshot) {
+		double totalFitness = snapshot.getSummedFitness();
+		Chromosome chromoA = select(snapshot, totalFitness);
+		Chromosome chromoB = select(snapshot, totalFitness);
+
+		return breed(chromoA, chromoB);
+	}
+
+	/**
+	 * Creates several new chromosomes at once while utilizing the given gene
+	 * pool. All parents are selected in a single pass over the fitness wheel
+	 * with stochastic universal sampling, which spreads the selections evenly
+	 * over the wheel instead of sampling every parent independently. The
+	 * selected parents are shuffled before they are paired up.
+	 * 
+	 * @param pool the genepool to create the chromosomes from
+	 * @param count the amount of chromosomes to create
+	 * @return an array of count new chromosomes
+	 */
+	public Chromosome[] createNewChromos(GenePool pool, int count) {
+		Chromosome[] parents = selectUniversal(pool, 2 * count);
+		shuffle(parents);
+
+		Chromosome[] children = new Chromosome[count];
+		for (int i = 0; i < count; i++)
+			children[i] = breed(parents[2 * i], parents[2 * i + 1]);
+
+		return children;
 	}
 
-	private double[] crossOver(double[] weightA, double[] weightB) {
-		validateParents(weightA, weightB);
+	private Chromosome breed(Chromosome chromoA, Chromosome chromoB) {
+		double[] result = Arrays.copyOf(chromoA.genes, chromoA.genes.length);
+		long segment = crossOver(result, chromoB.genes);
+		mutate(result);
 
-		double[] result = Arrays.copyOf(weightA, weightA.length);
+		Chromosome child = new Chromosome(result, ids.next());
+		child.setParents(chromoA, chromoB, (int) (segment >> 32), (int) segment);
+		return child;
+	}
 
-		if (Math.random() > crossOverRate)
-			return result;
+	/*
+	 * Copies part of weightB into result, which starts out as a copy of the
+	 * first parent. Returns the start of the copied genes in the upper 32
+	 * bits and the end in the lower 32 bits, or -1 for both if no cross over
+	 * happened.
+	 */
+	private long crossOver(double[] result, double[] weightB) {
+		validateParents(result, weightB);
 
-		int breakup = (int) (result.length * Math.random());
-		double half = Math.random();
+		if (random.nextDouble() > crossOverRate)
+			return -1L;
+
+		int breakup = (int) (result.length * random.nextDouble());
+		double half = random.nextDouble();
 		int start = half < 0.5 ? 0 : breakup;
 		int end = half < 0.5 ? breakup + 1 : result.length;
 
 		for (int i = start; i < end; i++)
 			result[i] = weightB[i];
 
-		return result;
+		return ((long) start << 32) | end;
 	}
 
+	/*
+	 * Each gene is mutated with a probability of mutationRate. Instead of
+	 * testing every gene, the gap to the next mutated gene is drawn from the
+	 * geometric distribution, which gives the same per gene probability while
+	 * only drawing random numbers for the genes that actually mutate.
+	 */
 	private void mutate(double[] weights) {
-		for (int i = 0; i < weights.length; i++) {
-			if (Math.random() < mutationRate) {
-				double randSign = Math.signum(Math.random() - Math.random());
-				weights[i] += randSign * mutationStep;
-			}
+		int i = nextMutationGap();
+		while (i < weights.length) {
+			weights[i] += random.nextBoolean() ? mutationStep : -mutationStep;
+			i += 1 + nextMutationGap();
 		}
 	}
 
+	private int nextMutationGap() {
+		double gap = Math.log(1.0 - random.nextDouble()) / logNoMutation;
+		return gap >= Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE / 2 : (int) gap;
+	}
+
 	private Chromosome select(GenePool pool, double totalFitness) {
-		double fitness = (Math.random() * totalFitness);
+		double fitness = (random.nextDouble() * totalFitness);
 		double summedFitness = 0.0;
 
 		for (int i = 0; i < pool.getChromosomeCount(); i++) {
@@ -72,6 +169,48 @@ public final class GAlg {
 
 	}
 
+	private Chromosome select(GenePoolSnapshot snapshot, double totalFitness) {
+		double fitness = (random.nextDouble() * totalFitness);
+		double summedFitness = 0.0;
+
+		for (int i = 0; i < snapshot.getChromosomeCount(); i++) {
+			summedFitness += snapshot.getFitness(i);
+			if (summedFitness >= fitness)
+				return snapshot.getChromosome(i);
+		}
+		return snapshot.getChromosome(snapshot.getChromosomeCount() - 1);
+	}
+
+	private Chromosome[] selectUniversal(GenePool pool, int count) {
+		Chromosome[] selected = new Chromosome[count];
+		if (count == 0)
+			return selected;
+
+		int last = pool.getChromosomeCount() - 1;
+		double spacing = pool.getSummedFitness() / count;
+		double pointer = random.nextDouble() * spacing;
+		int index = 0;
+		double summedFitness = pool.getChromosome(0).getFitness();
+
+		for (int i = 0; i < count; i++) {
+			while (summedFitness < pointer && index < last)
+				summedFitness += pool.getChromosome(++index).getFitness();
+
+			selected[i] = pool.getChromosome(index);
+			pointer += spacing;
+		}
+		return selected;
+	}
+
+	private void shuffle(Chromosome[] chromos) {
+		for (int i = chromos.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			Chromosome temp = chromos[i];
+			chromos[i] = chromos[j];
+			chromos[j] = temp;
+		}
+	}
+
 	private void validateParents(double[] w1, double[] w2) {
 		if (w1.length != w2.length)
 			throw new RuntimeException("Population has mixed neural weight counts!");
@@ -0,0 +1,311 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compresses the genes of a block of chromosomes without losing any bits.
+ * Chromosomes are bred by copying a parent, crossing over part of a second
+ * parent and moving a few genes by the mutation step, so most genes of a
+ * chromosome are exactly equal to a gene of a related chromosome or one
+ * mutation step away from it. The codec takes advantage of this by encoding
+ * every chromosome against a reference chromosome that was encoded before
+ * it in the same block.
+ * 
+ * <p>
+ * The reference is picked among the chromosome's parents, a chromosome
+ * with the same id, and the few chromosomes encoded right before it,
+ * whichever shares the most genes. Each gene is then written as one of
+ * three codes. A gene equal to the reference gene takes one bit, and a
+ * gene one mutation step above or below the reference gene takes three
+ * bits. Any other gene is written as the XOR of its bits with the reference
+ * gene, leaving out the leading and trailing zero bits like the Gorilla
+ * time series compression does. A chromosome without a good reference is
+ * encoded the same way against the previous gene of the chromosome itself.
+ * </p>
+ * 
+ * <p>
+ * Only the genes are encoded. Fitness values and ids are left to the
+ * format using the codec. Blocks must be decoded as a whole.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+public final class GeneCodec {
+	private static final int searchWindow = 8;
+	private static final int minMatchPercent = 10;
+
+	private GeneCodec() { }
+
+	/**
+	 * Encodes the genes of the given chromosomes.
+	 * 
+	 * @param chromos the chromosomes to encode
+	 * @return the encoded block
+	 */
+	public static byte[] encode(Chromosome[] chromos) {
+		BitWriter out = new BitWriter(64 + 2 * chromos.length);
+		HashMap<Long, Integer> lastIndexOfId = new HashMap<Long, Integer>();
+
+		out.writeVarInt(chromos.length);
+		for (int i = 0; i < chromos.length; i++) {
+			Chromosome c = chromos[i];
+			int reference = findReference(chromos, i, lastIndexOfId);
+			double[] refGenes = reference < 0 ? null : chromos[reference].genes;
+
+			out.writeVarInt(reference < 0 ? 0 : i - reference);
+			out.writeVarInt(c.genes.length);
+			encodeGenes(c.genes, refGenes, out);
+
+			lastIndexOfId.put(c.getId(), i);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a block that was encoded by encode.
+	 * 
+	 * @param block the encoded block
+	 * @return the genes of every chromosome in the order they were encoded
+	 * @throws IllegalArgumentException if the block is not valid
+	 */
+	public static double[][] decode(byte[] block) {
+		BitReader in = new BitReader(block);
+		int count = in.readVarInt();
+		if (count < 0 || count > 8L * block.length)
+			throw new IllegalArgumentException("Invalid chromosome count " + count);
+
+		double[][] genes = new double[count][];
+		for (int i = 0; i < count; i++) {
+			int distance = in.readVarInt();
+			int geneCount = in.readVarInt();
+			if (distance < 0 || distance > i || geneCount < 0 || geneCount > 8L * block.length)
+				throw new IllegalArgumentException("Invalid chromosome header");
+
+			double[] refGenes = distance == 0 ? null : genes[i - distance];
+			if (refGenes != null && refGenes.length != geneCount)
+				throw new IllegalArgumentException("Reference has a different gene count");
+
+			genes[i] = new double[geneCount];
+			decodeGenes(genes[i], refGenes, in);
+		}
+		return genes;
+	}
+
+	/*
+	 * Returns the index of the earlier chromosome that shares the most genes
+	 * with chromos[index], or -1 if none of them shares enough.
+	 */
+	private static int findReference(Chromosome[] chromos, int index,
+			HashMap<Long, Integer> lastIndexOfId) {
+
+		Chromosome c = chromos[index];
+		Integer same = lastIndexOfId.get(c.getId());
+		if (same != null && Arrays.equals(c.genes, chromos[same].genes))
+			return same;
+
+		int best = -1, bestScore = c.genes.length * minMatchPercent / 100;
+		Integer parentA = lastIndexOfId.get(c.getParentIdA());
+		Integer parentB = lastIndexOfId.get(c.getParentIdB());
+		if (parentA != null && scoreReference(c.genes, chromos[parentA].genes) > bestScore) {
+			best = parentA;
+			bestScore = scoreReference(c.genes, chromos[parentA].genes);
+		}
+		if (parentB != null && scoreReference(c.genes, chromos[parentB].genes) > bestScore) {
+			best = parentB;
+			bestScore = scoreReference(c.genes, chromos[parentB].genes);
+		}
+
+		for (int i = Math.max(0, index - searchWindow); i < index; i++) {
+			int score = scoreReference(c.genes, chromos[i].genes);
+			if (score > bestScore) {
+				best = i;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	private static int scoreReference(double[] genes, double[] refGenes) {
+		if (genes.length != refGenes.length)
+			return -1;
+
+		int score = 0;
+		for (int i = 0; i < genes.length; i++) {
+			double ref = refGenes[i];
+			double gene = genes[i];
+			if (gene == ref || gene == ref + GAlg.mutationStep || gene == ref - GAlg.mutationStep)
+				score++;
+		}
+		return score;
+	}
+
+	private static void encodeGenes(double[] genes, double[] refGenes, BitWriter out) {
+		XorState xor = new XorState();
+		double previous = 0.0;
+		for (int i = 0; i < genes.length; i++) {
+			double gene = genes[i];
+			double ref = refGenes == null ? previous : refGenes[i];
+			previous = gene;
+
+			long bits = Double.doubleToRawLongBits(gene);
+			if (bits == Double.doubleToRawLongBits(ref)) {
+				out.writeBits(0, 1);
+			} else if (bits == Double.doubleToRawLongBits(ref + GAlg.mutationStep)) {
+				out.writeBits(0x4, 3);
+			} else if (bits == Double.doubleToRawLongBits(ref - GAlg.mutationStep)) {
+				out.writeBits(0x5, 3);
+			} else {
+				out.writeBits(0x3, 2);
+				xor.write(bits ^ Double.doubleToRawLongBits(ref), out);
+			}
+		}
+	}
+
+	private static void decodeGenes(double[] genes, double[] refGenes, BitReader in) {
+		XorState xor = new XorState();
+		double previous = 0.0;
+		for (int i = 0; i < genes.length; i++) {
+			double ref = refGenes == null ? previous : refGenes[i];
+			double gene;
+
+			if (in.readBits(1) == 0) {
+				gene = ref;
+			} else if (in.readBits(1) == 0) {
+				gene = in.readBits(1) == 0 ? ref + GAlg.mutationStep : ref - GAlg.mutationStep;
+			} else {
+				gene = Double.longBitsToDouble(Double.doubleToRawLongBits(ref) ^ xor.read(in));
+			}
+
+			genes[i] = gene;
+			previous = gene;
+		}
+	}
+
+	/*
+	 * Writes non zero XOR values. A value whose meaningful bits fit into the
+	 * window of the last value written with a header only takes a control
+	 * bit and the bits of the window.
+	 */
+	private static final class XorState {
+		private int leading = -1, length = 0;
+
+		void write(long xor, BitWriter out) {
+			int lead = Long.numberOfLeadingZeros(xor);
+			int trail = Long.numberOfTrailingZeros(xor);
+
+			if (leading >= 0 && lead >= leading && trail >= 64 - leading - length) {
+				out.writeBits(0, 1);
+				out.writeBits(xor >>> (64 - leading - length), length);
+				return;
+			}
+
+			leading = lead;
+			length = 64 - lead - trail;
+			out.writeBits(1, 1);
+			out.writeBits(leading, 6);
+			out.writeBits(length - 1, 6);
+			out.writeBits(xor >>> trail, length);
+		}
+
+		long read(BitReader in) {
+			if (in.readBits(1) == 1) {
+				leading = (int) in.readBits(6);
+				length = (int) in.readBits(6) + 1;
+			} else if (leading < 0) {
+				throw new IllegalArgumentException("XOR window used before it was set");
+			}
+
+			return in.readBits(length) << (64 - leading - length);
+		}
+	}
+
+	private static final class BitWriter {
+		private byte[] bytes;
+		private int size = 0;
+		private long buffer = 0;
+		private int bufferBits = 0;
+
+		BitWriter(int capacity) {
+			bytes = new byte[Math.max(16, capacity)];
+		}
+
+		void writeBits(long value, int bits) {
+			if (bits == 0)
+				return;
+			if (bits > 32) {
+				writeBits(value >>> 32, bits - 32);
+				writeBits(value & 0xFFFFFFFFL, 32);
+				return;
+			}
+
+			buffer = (buffer << bits) | (value & ((1L << bits) - 1));
+			bufferBits += bits;
+			while (bufferBits >= 8) {
+				bufferBits -= 8;
+				put((byte) (buffer >>> bufferBits));
+			}
+		}
+
+		void writeVarInt(int value) {
+			while ((value & ~0x7F) != 0) {
+				writeBits((value & 0x7F) | 0x80, 8);
+				value >>>= 7;
+			}
+			writeBits(value, 8);
+		}
+
+		private void put(byte b) {
+			if (size == bytes.length)
+				bytes = Arrays.copyOf(bytes, 2 * size);
+			bytes[size++] = b;
+		}
+
+		byte[] toByteArray() {
+			if (bufferBits > 0)
+				writeBits(0, 8 - bufferBits);
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+
+	private static final class BitReader {
+		private final byte[] bytes;
+		private int position = 0;
+		private long buffer = 0;
+		private int bufferBits = 0;
+
+		BitReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		long readBits(int bits) {
+			if (bits == 0)
+				return 0;
+			if (bits > 32)
+				return (readBits(bits - 32) << 32) | readBits(32);
+
+			while (bufferBits < bits) {
+				if (position == bytes.length)
+					throw new IllegalArgumentException("Gene block is truncated");
+				buffer = (buffer << 8) | (bytes[position++] & 0xFF);
+				bufferBits += 8;
+			}
+
+			bufferBits -= bits;
+			return (buffer >>> bufferBits) & ((1L << bits) - 1);
+		}
+
+		int readVarInt() {
+			int value = 0;
+			for (int shift = 0; shift < 32; shift += 7) {
+				int b = (int) readBits(8);
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IllegalArgumentException("Invalid variable length number");
+		}
+	}
+}
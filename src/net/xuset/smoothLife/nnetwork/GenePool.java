@@ -1,6 +1,8 @@
 package net.xuset.smoothLife.nnetwork;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -118,6 +120,60 @@ public final class GenePool implements Cloneable{
 		return pool.size();
 	}
 
+	/**
+	 * Takes an immutable snapshot of the chromosomes and their fitness values.
+	 * The chromosomes themselves are shared with the gene pool, not cloned.
+	 * 
+	 * @param tick the current tick used to timestamp the snapshot
+	 * @return the snapshot of the gene pool
+	 */
+	public GenePoolSnapshot takeSnapshot(long tick) {
+		Chromosome[] chromosomes = new Chromosome[pool.size()];
+		double[] fitness = new double[pool.size()];
+		for (int i = 0; i < chromosomes.length; i++) {
+			chromosomes[i] = pool.get(i).chromosome;
+			fitness[i] = chromosomes[i].getFitness();
+		}
+		return new GenePoolSnapshot(chromosomes, fitness, tick);
+	}
+
+	/**
+	 * Returns clones of the fittest chromosomes in the gene pool, ordered from
+	 * the most fit to the least fit.
+	 * 
+	 * @param count the maximum amount of chromosomes to return
+	 * @return an array of cloned chromosomes. The length of the array is the
+	 * 		smaller of count and the chromosome count.
+	 */
+	public Chromosome[] cloneFittest(int count) {
+		List<PoolItem> sorted = sortByFitness();
+		Chromosome[] fittest = new Chromosome[Math.min(count, sorted.size())];
+		for (int i = 0; i < fittest.length; i++)
+			fittest[i] = sorted.get(sorted.size() - 1 - i).chromosome.clone();
+
+		return fittest;
+	}
+
+	/**
+	 * Replaces the least fit chromosomes of the gene pool with the given
+	 * chromosomes. The keys of the replaced chromosomes are associated with
+	 * the new chromosomes. The given chromosomes are not cloned.
+	 * 
+	 * @param chromos the chromosomes to place into the gene pool
+	 * @throws IllegalArgumentException if the brain weight count of one of the
+	 * 		chromosomes does not match the brain weight count of the gene pool
+	 */
+	public void replaceWeakest(Chromosome[] chromos) {
+		for (Chromosome c : chromos) {
+			if (c.getBrainWeightCount() != brainWeightCount)
+				throwCountMismatchException(c.getBrainWeightCount());
+		}
+
+		List<PoolItem> sorted = sortByFitness();
+		for (int i = 0; i < chromos.length && i < sorted.size(); i++)
+			sorted.get(i).chromosome = chromos[i];
+	}
+
 	@Override
 	public GenePool clone() {
 		GenePool cloned = new GenePool(brainWeightCount);
@@ -142,6 +198,21 @@ public final class GenePool implements Cloneable{
 		return pool.get(index).chromosome;
 	}
 
+	private List<PoolItem> sortByFitness() {
+		List<PoolItem> sorted = new ArrayList<PoolItem>(pool);
+		Collections.sort(sorted, fitnessComparator);
+		return sorted;
+	}
+
+	private static final Comparator<PoolItem> fitnessComparator =
+			new Comparator<PoolItem>() {
+
+		@Override
+		public int compare(PoolItem a, PoolItem b) {
+			return Double.compare(a.chromosome.getFitness(), b.chromosome.getFitness());
+		}
+	};
+
 	private PoolItem getPoolItem(PoolItemKey key) {
 		for (int i = 0; i < pool.size(); i++) {
 			if(pool.get(i).key == key)
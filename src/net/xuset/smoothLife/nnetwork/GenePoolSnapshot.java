@@ -0,0 +1,83 @@
+package net.xuset.smoothLife.nnetwork;
+
+/**
+ * An immutable copy of the chromosomes and fitness values of a gene pool at a
+ * given tick. The snapshot can be handed to other threads and used by the
+ * genetic algorithm while the gene pool it was taken from keeps changing.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see GenePool#takeSnapshot(long)
+ */
+public final class GenePoolSnapshot {
+	private final Chromosome[] chromosomes;
+	private final double[] fitness;
+	private final double summedFitness;
+	private final long tick;
+
+	/**
+	 * Instantiate a new snapshot. The given arrays are NOT copied.
+	 * 
+	 * @param chromosomes the chromosomes of the gene pool
+	 * @param fitness the fitness of each chromosome at the time of the snapshot
+	 * @param tick the tick the snapshot was taken at
+	 */
+	GenePoolSnapshot(Chromosome[] chromosomes, double[] fitness, long tick) {
+		this.chromosomes = chromosomes;
+		this.fitness = fitness;
+		this.tick = tick;
+
+		double total = 0;
+		for (int i = 0; i < fitness.length; i++)
+			total += fitness[i];
+		summedFitness = total;
+	}
+
+	/**
+	 * Gets the tick the snapshot was taken at.
+	 * 
+	 * @return the tick of the snapshot
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Gets the amount of chromosomes in the snapshot.
+	 * 
+	 * @return the chromosome count
+	 */
+	public int getChromosomeCount() {
+		return chromosomes.length;
+	}
+
+	/**
+	 * Gets the summed fitness of all the chromosomes in the snapshot.
+	 * 
+	 * @return the summed fitness
+	 */
+	public double getSummedFitness() {
+		return summedFitness;
+	}
+
+	/**
+	 * Gets the chromosome at the specified index.
+	 * 
+	 * @param index the index of the chromosome
+	 * @return the chromosome at the index
+	 */
+	Chromosome getChromosome(int index) {
+		return chromosomes[index];
+	}
+
+	/**
+	 * Gets the fitness the chromosome at the specified index had when the
+	 * snapshot was taken.
+	 * 
+	 * @param index the index of the chromosome
+	 * @return the fitness of the chromosome
+	 */
+	double getFitness(int index) {
+		return fitness[index];
+	}
+}
@@ -30,12 +30,25 @@ final class Layer {
 	 * @param sigmoid should the outputs be applied to the sigmoid function
 	 */
 	Layer(int inputs, int outputs, boolean sigmoid) {
+		this(inputs, outputs, sigmoid, true);
+	}
+
+	/**
+	 * Instantiate a new layer.
+	 * 
+	 * @param inputs the input count for the layer
+	 * @param outputs the output count (number of neurons) for the layer
+	 * @param sigmoid should the outputs be applied to the sigmoid function
+	 * @param randomize should the weights be randomized. If not, they start
+	 * 		out as zero.
+	 */
+	Layer(int inputs, int outputs, boolean sigmoid, boolean randomize) {
 		this.inputs = inputs;
 		this.outputs = outputs;
 		neurons = new Neuron[outputs];
 		int totalWeights = 0;
 		for (int i = 0; i < neurons.length; i++) {
-			neurons[i] = new Neuron(inputs, sigmoid);
+			neurons[i] = new Neuron(inputs, sigmoid, randomize);
 			totalWeights += neurons[i].weights.length;
 		}
 		weightCount = totalWeights;
@@ -0,0 +1,277 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the ancestry of chromosomes to an append-only binary log. Each
+ * record stores the id of a chromosome, the ids of its two parents, the
+ * genes copied from the second parent, the tick the record was made at, and
+ * the fitness the chromosome reached. Records are usually made when the blob
+ * using the chromosome dies.
+ * 
+ * <p>
+ * Recording only copies the record into a ring buffer of primitives. A
+ * background thread drains the ring buffer and streams the records to disk.
+ * The recorder supports a single recording thread, which should be the thread
+ * updating the world. If the ring buffer is full the recording thread waits
+ * for the background thread to catch up.
+ * </p>
+ * 
+ * <p>
+ * The log starts with a header of two little-endian ints: the magic number
+ * {@value #FILE_MAGIC} and the format version. It is followed by records of
+ * {@value #RECORD_SIZE} bytes: child id (long), parent A id (long), parent B
+ * id (long), cross over start (int), cross over end (int), tick (long) and
+ * fitness (double), all little-endian. The genes from the cross over start
+ * up to but not including the cross over end came from parent B, and both
+ * are -1 if there was no cross over. Version 1 logs held a single cross over
+ * point instead, which did not say on which side of it parent B's genes
+ * were.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see Chromosome#getId()
+ */
+public final class LineageRecorder implements Closeable {
+
+	/** The magic number at the start of every lineage log. */
+	public static final int FILE_MAGIC = 0x534C4C47;
+
+	/** The version of the log format. */
+	public static final int FILE_VERSION = 2;
+
+	/** The size of one record in the log in bytes. */
+	public static final int RECORD_SIZE = 8 + 8 + 8 + 4 + 4 + 8 + 8;
+
+	private static final int longsPerRecord = 6;
+	private static final int writeBufferSize = 64 * 1024;
+	private static final long idleParkNanos = 1000000L;
+
+	private final long[] ring;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong(0L);
+	private final AtomicLong tail = new AtomicLong(0L);
+	private final FileChannel channel;
+	private final Thread writerThread;
+
+	private volatile boolean closed = false;
+	private volatile IOException writeError = null;
+	private long stallCount = 0L;
+
+	/**
+	 * Creates a new recorder that appends to the given file. If the file is
+	 * empty the log header is written first. Otherwise the file must be a log
+	 * of the current version.
+	 * 
+	 * @param file the file to append the records to
+	 * @param capacity the minimum amount of records the ring buffer can hold.
+	 * 		The capacity is rounded up to a power of two.
+	 * @throws IOException if the file could not be opened or is a log of a
+	 * 		different version
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public LineageRecorder(File file, int capacity) throws IOException {
+		if (capacity < 1 || capacity > (1 << 24))
+			throw new IllegalArgumentException("capacity must be between 1 and 2^24");
+
+		int ringSize = Integer.highestOneBit(capacity);
+		if (ringSize < capacity)
+			ringSize <<= 1;
+
+		ring = new long[ringSize * longsPerRecord];
+		mask = ringSize - 1;
+
+		if (file.length() > 0)
+			checkHeader(file);
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		if (channel.size() == 0)
+			writeHeader();
+
+		writerThread = new Thread(new WriterTask(), "SmoothLife-lineage");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Records the ancestry and the current fitness of the given chromosome.
+	 * 
+	 * @param chromo the chromosome to record
+	 * @param tick the current tick of the world
+	 */
+	public void record(Chromosome chromo, long tick) {
+		record(chromo.getId(), chromo.getParentIdA(), chromo.getParentIdB(),
+				chromo.getCrossOverStart(), chromo.getCrossOverEnd(), tick, chromo.getFitness());
+	}
+
+	/**
+	 * Appends a record to the log.
+	 * 
+	 * @param childId the id of the chromosome
+	 * @param parentIdA the id of the first parent
+	 * @param parentIdB the id of the second parent
+	 * @param crossOverStart the first gene copied from the second parent, or
+	 * 		-1 if there was no cross over
+	 * @param crossOverEnd the index after the last gene copied from the
+	 * 		second parent, or -1 if there was no cross over
+	 * @param tick the current tick of the world
+	 * @param fitness the fitness the chromosome reached
+	 * @throws IllegalStateException if the recorder is closed or the
+	 * 		background thread failed to write to the file
+	 */
+	public void record(long childId, long parentIdA, long parentIdB,
+			int crossOverStart, int crossOverEnd, long tick, double fitness) {
+
+		long h = head.get();
+		if (h - tail.get() > mask) {
+			stallCount++;
+			while (h - tail.get() > mask) {
+				checkWritable();
+				Thread.yield();
+			}
+		}
+		checkWritable();
+
+		int base = (int) (h & mask) * longsPerRecord;
+		ring[base] = childId;
+		ring[base + 1] = parentIdA;
+		ring[base + 2] = parentIdB;
+		ring[base + 3] = ((long) crossOverStart << 32) | (crossOverEnd & 0xFFFFFFFFL);
+		ring[base + 4] = tick;
+		ring[base + 5] = Double.doubleToRawLongBits(fitness);
+
+		//the ordered store publishes the record to the writer thread
+		head.lazySet(h + 1);
+	}
+
+	/**
+	 * Gets the amount of records that were made.
+	 * 
+	 * @return the record count
+	 */
+	public long getRecordCount() {
+		return head.get();
+	}
+
+	/**
+	 * Gets the amount of times the recording thread had to wait because the
+	 * ring buffer was full.
+	 * 
+	 * @return the stall count
+	 */
+	public long getStallCount() {
+		return stallCount;
+	}
+
+	/**
+	 * Writes all remaining records to the file and closes it.
+	 * 
+	 * @throws IOException if the records could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		channel.close();
+		if (writeError != null)
+			throw writeError;
+	}
+
+	private void checkWritable() {
+		if (closed)
+			throw new IllegalStateException("The recorder is closed");
+		if (writeError != null)
+			throw new IllegalStateException("Failed to write lineage log", writeError);
+	}
+
+	private static void checkHeader(File file) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			while (header.hasRemaining()) {
+				if (in.read(header, header.position()) < 0)
+					throw new IOException("Lineage log header is truncated");
+			}
+		} finally {
+			in.close();
+		}
+		header.flip();
+		if (header.getInt() != FILE_MAGIC)
+			throw new IOException("Not a lineage log");
+		int version = header.getInt();
+		if (version != FILE_VERSION)
+			throw new IOException("Cannot append to a lineage log of version " + version);
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+		while (header.hasRemaining())
+			channel.write(header);
+	}
+
+	private final class WriterTask implements Runnable {
+		private final ByteBuffer buffer =
+				ByteBuffer.allocateDirect(writeBufferSize).order(ByteOrder.LITTLE_ENDIAN);
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					boolean finished = closed;
+					long t = tail.get();
+					long h = head.get();
+
+					if (t == h) {
+						if (finished)
+							break;
+						LockSupport.parkNanos(idleParkNanos);
+						continue;
+					}
+
+					for (; t < h; t++) {
+						if (buffer.remaining() < RECORD_SIZE)
+							flush();
+
+						int base = (int) (t & mask) * longsPerRecord;
+						buffer.putLong(ring[base]);
+						buffer.putLong(ring[base + 1]);
+						buffer.putLong(ring[base + 2]);
+						buffer.putInt((int) (ring[base + 3] >> 32));
+						buffer.putInt((int) ring[base + 3]);
+						buffer.putLong(ring[base + 4]);
+						buffer.putLong(ring[base + 5]);
+					}
+
+					tail.lazySet(h);
+					flush();
+				}
+			} catch (IOException ex) {
+				writeError = ex;
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+}
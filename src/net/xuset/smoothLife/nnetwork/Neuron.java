@@ -32,9 +32,23 @@ final class Neuron {
 	 * 		the sigmoid function
 	 */
 	Neuron(int inputs, boolean sigmoidOutput) {
+		this(inputs, sigmoidOutput, true);
+	}
+
+	/**
+	 * Instantiate a new neuron with the given amount of inputs.
+	 * 
+	 * @param inputs the input count for the neuron (weight count)
+	 * @param sigmoidOutput determines if the output should be applied to
+	 * 		the sigmoid function
+	 * @param randomize determines if the weights should be randomized. If
+	 * 		not, they start out as zero.
+	 */
+	Neuron(int inputs, boolean sigmoidOutput, boolean randomize) {
 		weights = new double[inputs + 1];
 		this.sigmoidOutput = sigmoidOutput;
-		randomizeWeights();
+		if (randomize)
+			randomizeWeights();
 	}
 
 	/**
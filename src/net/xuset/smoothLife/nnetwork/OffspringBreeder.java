@@ -0,0 +1,191 @@
+package net.xuset.smoothLife.nnetwork;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Breeds offspring chromosomes ahead of time on a background thread. The
+ * breeder keeps a small bounded queue of ready-made chromosomes that is
+ * refilled from the latest published snapshot of a gene pool. Taking a
+ * chromosome from the queue is cheap, so the simulation thread does not have
+ * to run the genetic algorithm itself.
+ * 
+ * <p>
+ * Because the offspring are bred from a snapshot, the fitness values used to
+ * select their parents may be a few ticks old. The breeder records how stale
+ * the parent fitness was for each offspring it hands out.
+ * </p>
+ * 
+ * <p>
+ * A breeder given a stream key always draws the same random numbers, but
+ * which snapshot each offspring is bred from, and in which order the
+ * offspring and the simulation thread take chromosome ids, still depends on
+ * the timing of the background thread.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see GenePoolSnapshot
+ */
+public final class OffspringBreeder {
+	private final BlockingQueue<Offspring> queue;
+	private final Executor executor;
+	private final GAlg gAlg;
+	private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+	private final Runnable refillTask = new RefillTask();
+
+	private volatile GenePoolSnapshot snapshot = null;
+
+	private long takenCount = 0L, missCount = 0L;
+	private long summedStaleness = 0L, maxStaleness = 0L;
+
+	/**
+	 * Instantiate a new breeder with an unseeded random number generator.
+	 * 
+	 * @param capacity the maximum amount of offspring to keep ready
+	 * @param executor the executor used to run the background breeding
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public OffspringBreeder(int capacity, Executor executor) {
+		this(capacity, executor, new ChromosomeIds(), new Random());
+	}
+
+	/**
+	 * Instantiate a new breeder that takes the ids of the offspring from the
+	 * given sequence and breeds them with the random number stream of the
+	 * given key.
+	 * 
+	 * @param capacity the maximum amount of offspring to keep ready
+	 * @param executor the executor used to run the background breeding
+	 * @param ids the sequence to take the ids of the offspring from
+	 * @param streamKey the key of the breeder's random number stream
+	 * @throws IllegalArgumentException if capacity is less than 1
+	 */
+	public OffspringBreeder(int capacity, Executor executor, ChromosomeIds ids,
+			long streamKey) {
+		this(capacity, executor, ids, new CounterRandom(streamKey));
+	}
+
+	private OffspringBreeder(int capacity, Executor executor, ChromosomeIds ids,
+			Random random) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be greater than 0");
+
+		queue = new ArrayBlockingQueue<Offspring>(capacity);
+		this.executor = executor;
+		gAlg = new GAlg(random, ids);
+	}
+
+	/**
+	 * Publishes a new snapshot of the gene pool. All offspring bred after this
+	 * call use the given snapshot. If the queue is not full, a refill is
+	 * scheduled on the executor.
+	 * 
+	 * @param newSnapshot the latest snapshot of the gene pool
+	 */
+	public void publish(GenePoolSnapshot newSnapshot) {
+		snapshot = newSnapshot;
+		scheduleRefill();
+	}
+
+	/**
+	 * Takes a ready-made offspring from the queue. This should only be called
+	 * by the simulation thread.
+	 * 
+	 * @param tick the current tick. Used to measure how stale the parent
+	 * 		fitness of the offspring is.
+	 * @return the offspring or null if the queue was empty
+	 */
+	public Chromosome poll(long tick) {
+		Offspring offspring = queue.poll();
+		if (offspring == null) {
+			missCount++;
+			return null;
+		}
+
+		long staleness = tick - offspring.snapshotTick;
+		takenCount++;
+		summedStaleness += staleness;
+		maxStaleness = Math.max(maxStaleness, staleness);
+
+		scheduleRefill();
+		return offspring.chromosome;
+	}
+
+	/**
+	 * Gets the amount of offspring that were taken from the queue.
+	 * 
+	 * @return the amount of offspring taken
+	 */
+	public long getTakenCount() {
+		return takenCount;
+	}
+
+	/**
+	 * Gets the amount of times poll was called while the queue was empty.
+	 * 
+	 * @return the amount of misses
+	 */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Gets the average amount of ticks between the snapshot the offspring
+	 * were bred from and the tick they were taken at.
+	 * 
+	 * @return the average staleness in ticks
+	 */
+	public double getAverageStaleness() {
+		return takenCount == 0 ? 0.0 : (double) summedStaleness / takenCount;
+	}
+
+	/**
+	 * Gets the largest amount of ticks between the snapshot an offspring was
+	 * bred from and the tick it was taken at.
+	 * 
+	 * @return the maximum staleness in ticks
+	 */
+	public long getMaxStaleness() {
+		return maxStaleness;
+	}
+
+	private void scheduleRefill() {
+		if (snapshot == null || queue.remainingCapacity() == 0)
+			return;
+
+		if (refillScheduled.compareAndSet(false, true))
+			executor.execute(refillTask);
+	}
+
+	private static final class Offspring {
+		private final Chromosome chromosome;
+		private final long snapshotTick;
+
+		Offspring(Chromosome chromosome, long snapshotTick) {
+			this.chromosome = chromosome;
+			this.snapshotTick = snapshotTick;
+		}
+	}
+
+	private final class RefillTask implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while (queue.remainingCapacity() > 0) {
+					GenePoolSnapshot current = snapshot;
+					Chromosome chromo = gAlg.createNewChromo(current);
+					queue.offer(new Offspring(chromo, current.getTick()));
+				}
+			} finally {
+				refillScheduled.set(false);
+			}
+
+			//an offspring may have been taken after the loop ended
+			scheduleRefill();
+		}
+	}
+}
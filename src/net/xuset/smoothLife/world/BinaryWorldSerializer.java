@@ -0,0 +1,931 @@
+package net.xuset.smoothLife.world;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.ChromosomeStore;
+import net.xuset.smoothLife.nnetwork.GeneCodec;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Serializes and deserializes worlds in a compact binary format. This holds
+ * the same state as the MarkupMsg format of WorldSerializer, but the genes
+ * are stored as raw doubles instead of text, so a snapshot is several times
+ * smaller and can be written and read at close to the speed of copying
+ * memory.
+ * 
+ * <p>
+ * All values are little-endian. A snapshot starts with a header of the magic
+ * number, the format version, the world size, the seed and the tick count.
+ * Then follow the species infos, each with the specie id, a prey flag, the
+ * blob count, the spawn budget and the neuron layout. Then follows an index
+ * with the file offset of every blob, species by species in id order. Then
+ * follow the blobs in the same order, each with its location, angle,
+ * energy, age and its current and previous chromosome. Before version 4 a
+ * chromosome is stored as its fitness, its gene count and its genes. The
+ * index lets SnapshotFile read single blobs without reading the rest of the
+ * snapshot. Version 1 snapshots, which have no index, can still be read.
+ * </p>
+ * 
+ * <p>
+ * Since version 3 the header also holds a set of flags. If the genes of a
+ * version 3 snapshot are packed, the genes of every species are encoded
+ * with GeneCodec into one block, which holds the current and previous
+ * chromosome of each blob in blob order. The offset and length of every
+ * block follow the blob index and the blocks themselves come before the
+ * blobs, whose chromosomes then only hold their fitness and gene count.
+ * Packing takes more time than copying the raw genes but makes snapshots of
+ * evolved worlds smaller.
+ * </p>
+ * 
+ * <p>
+ * Since version 4 the genes are stored in a table per species that holds
+ * every distinct gene array once, which is flagged in the header. A blob's
+ * chromosomes then hold their fitness and the index of their genes in the
+ * table. The offset, entry count and length of every table follow the blob
+ * index, and the tables come before the blobs. A table starts with the file
+ * offset of each of its entries followed by the entries, each with its gene
+ * count and its genes. If the genes are packed, a table is instead one
+ * GeneCodec block of its entries. The blobs of a converged species share
+ * most of their genes, so the tables usually hold far fewer chromosomes
+ * than the blobs refer to.
+ * </p>
+ * 
+ * <p>
+ * The ids of chromosomes are kept per world, so snapshots also hold them,
+ * which is flagged in the header. The header then ends with the next id of
+ * the world's id sequence, and every chromosome of a blob also holds its id,
+ * the ids of its parents and the range of genes copied from the second
+ * parent. The chromosomes of snapshots without ids are given new ids in the
+ * order they are read.
+ * </p>
+ * 
+ * <p>
+ * Snapshots of a running world also hold its run state, which is flagged
+ * in the header and follows the blobs. For every species it holds the
+ * spawn credit, the counter of the breeding stream, the sort interval, the
+ * tick of the next sort and the last drift, the live blob count, the ids of
+ * the live blobs followed by the ids of the dead blobs in respawn order,
+ * and the stream counter of every blob in id order. If the coarse steps of
+ * a tick engine are flagged as well, the stream counters are followed by
+ * the amount of blobs in a coarse step and, for each of them, its id, the
+ * length of its step, the ticks it sat out and the bits of the actions it
+ * catches up with. A world restored with its run state continues bit for
+ * bit like the world that was written.
+ * </p>
+ * 
+ * <p>
+ * A snapshot can be written to and read from a byte array or ByteBuffer, or
+ * streamed through a channel or stream. Streaming encodes the snapshot
+ * into a fixed-size buffer that is flushed whenever it fills up, so the
+ * output does not have to fit in memory at once. The world is still
+ * captured into an image first, and the gene tables and packed GeneCodec
+ * blocks are built before the first byte is written, so the memory used
+ * still grows with the population; only the I/O buffer is bounded.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see WorldSerializer
+ * @see SnapshotFile
+ */
+public class BinaryWorldSerializer {
+	/** The first four bytes of every snapshot, "SLWB" in little-endian. */
+	public static final int MAGIC = 0x42574C53;
+
+	/** The version of the format written by this class. */
+	public static final int VERSION = 4;
+
+	/** The flag that is set when the genes of a snapshot are packed. */
+	public static final int PACKED_GENES = 1;
+
+	/** The flag that is set when a snapshot holds the run state of the world. */
+	public static final int RUN_STATE = 2;
+
+	/** The flag that is set when the genes of a snapshot are stored in gene tables. */
+	public static final int SHARED_GENES = 4;
+
+	/** The flag that is set when a snapshot holds the ids of its chromosomes. */
+	public static final int CHROMOSOME_IDS = 8;
+
+	/** The flag that is set when the run state holds the coarse steps of the blobs. */
+	public static final int COARSE_STEPS = 16;
+
+	private static final int unindexedVersion = 1;
+	private static final int unflaggedVersion = 2;
+
+	static final int unflaggedHeaderSize = 4 + 4 + 4 + 4 + 8 + 8 + 4;
+	static final int headerSize = unflaggedHeaderSize + 4 + 8;
+	static final int geneBlockInfoSize = 8 + 4;
+	static final int geneTableInfoSize = 8 + 4 + 8;
+	static final int specieInfoSize = 8 + 1 + 4 + 8 + 4;
+	static final int blobHeaderSize = 8 + 8 + 8 + 8 + 4;
+	static final int chromoHeaderSize = 8 + 4;
+	static final int chromoIdsSize = 8 + 8 + 8 + 4 + 4;
+	static final int chromoSize = chromoHeaderSize + chromoIdsSize;
+	static final int runStateHeaderSize = 8 + 8 + 4 + 8 + 8 + 4;
+	static final int blobSize = blobHeaderSize + 2 * chromoSize;
+	private static final int streamBufferSize = 64 * 1024;
+
+	/**
+	 * Computes the amount of bytes the snapshot of the given world takes.
+	 * 
+	 * @param world the world to measure
+	 * @return the size of the world's snapshot in bytes
+	 */
+	public static long getSerializedSize(World world) {
+		return getSerializedSize(new WorldImage(world), null);
+	}
+
+	/**
+	 * Computes the amount of bytes the snapshot of the given image takes.
+	 * 
+	 * @param image the image to measure
+	 * @param geneBlocks the packed gene tables of every species, or null if
+	 * 		the genes are not packed
+	 * @return the size of the image's snapshot in bytes
+	 */
+	static long getSerializedSize(WorldImage image, byte[][] geneBlocks) {
+		long size = getBlobsOffset(image, geneBlocks);
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			size += (long) blobSize * image.getBlobCount(i);
+			if (image.hasRunState()) {
+				size += runStateHeaderSize + 12L * image.getBlobCount(i) +
+						4 + 4L * image.coarseStates[i].length;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes the gene table of every species in the image with GeneCodec.
+	 * 
+	 * @param image the image to encode
+	 * @return one gene block per species
+	 */
+	static byte[][] packGenes(WorldImage image) {
+		byte[][] blocks = new byte[image.getSpeciesCount()][];
+		for (int i = 0; i < blocks.length; i++)
+			blocks[i] = GeneCodec.encode(image.getGeneTable(i).toArray());
+		return blocks;
+	}
+
+	private static long getIndexOffset(WorldImage image) {
+		long size = headerSize;
+		for (int i = 0; i < image.getSpeciesCount(); i++)
+			size += specieInfoSize + 4 * image.neuronLayouts[i].length;
+		return size;
+	}
+
+	private static long getTablesOffset(WorldImage image) {
+		long offset = getIndexOffset(image);
+		for (int i = 0; i < image.getSpeciesCount(); i++)
+			offset += 8L * image.getBlobCount(i);
+		return offset + (long) geneTableInfoSize * image.getSpeciesCount();
+	}
+
+	private static long getTableSize(WorldImage image, int specie, byte[][] geneBlocks) {
+		if (geneBlocks != null)
+			return geneBlocks[specie].length;
+
+		ChromosomeStore table = image.getGeneTable(specie);
+		long size = 8L * table.size();
+		for (int i = 0; i < table.size(); i++)
+			size += 4 + 8L * table.get(i).getGeneCount();
+		return size;
+	}
+
+	/*
+	 * Returns the offset of the first blob, which follows the index and the
+	 * gene tables.
+	 */
+	private static long getBlobsOffset(WorldImage image, byte[][] geneBlocks) {
+		long offset = getTablesOffset(image);
+		for (int i = 0; i < image.getSpeciesCount(); i++)
+			offset += getTableSize(image, i, geneBlocks);
+		return offset;
+	}
+
+	/**
+	 * Serializes the given world into a new byte array.
+	 * 
+	 * @param world the world to serialize
+	 * @return the snapshot of the world
+	 */
+	public static byte[] serializeWorld(World world) {
+		return serializeWorld(world, false);
+	}
+
+	/**
+	 * Serializes the given world into a new byte array.
+	 * 
+	 * @param world the world to serialize
+	 * @param packGenes true to pack the genes with GeneCodec
+	 * @return the snapshot of the world
+	 */
+	public static byte[] serializeWorld(World world, boolean packGenes) {
+		WorldImage image = new WorldImage(world);
+		byte[][] geneBlocks = packGenes ? packGenes(image) : null;
+		long size = getSerializedSize(image, geneBlocks);
+		if (size > Integer.MAX_VALUE)
+			throw new IllegalStateException("World is too large for a byte array");
+
+		byte[] snapshot = new byte[(int) size];
+		try {
+			write(image, geneBlocks, new SnapshotOutput(ByteBuffer.wrap(snapshot), null));
+		} catch (IOException ex) {
+			throw new IllegalStateException("A buffer without a channel cannot fail", ex);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Serializes the given world into the buffer, starting at the buffer's
+	 * position. The buffer's position is moved past the snapshot. The byte
+	 * order of the buffer is set to little-endian.
+	 * 
+	 * @param world the world to serialize
+	 * @param out the buffer to write to. It must have at least
+	 * 		getSerializedSize(world) bytes remaining.
+	 * @throws java.nio.BufferOverflowException if the buffer is too small
+	 */
+	public static void serializeWorld(World world, ByteBuffer out) {
+		try {
+			write(new WorldImage(world), null, new SnapshotOutput(out, null));
+		} catch (IOException ex) {
+			throw new IllegalStateException("A buffer without a channel cannot fail", ex);
+		}
+	}
+
+	/**
+	 * Streams the snapshot of the given world into the channel. The channel
+	 * is not closed.
+	 * 
+	 * @param world the world to serialize
+	 * @param channel the channel to write to
+	 * @throws IOException if the channel cannot be written to
+	 */
+	public static void writeWorld(World world, WritableByteChannel channel) throws IOException {
+		writeWorld(world, channel, false);
+	}
+
+	/**
+	 * Streams the snapshot of the given world into the channel. The channel
+	 * is not closed.
+	 * 
+	 * @param world the world to serialize
+	 * @param channel the channel to write to
+	 * @param packGenes true to pack the genes with GeneCodec
+	 * @throws IOException if the channel cannot be written to
+	 */
+	public static void writeWorld(World world, WritableByteChannel channel, boolean packGenes)
+			throws IOException {
+
+		writeImage(new WorldImage(world), channel, packGenes);
+	}
+
+	/**
+	 * Streams the snapshot of the given world into the output stream. The
+	 * stream is not closed.
+	 * 
+	 * @param world the world to serialize
+	 * @param stream the stream to write to
+	 * @throws IOException if the stream cannot be written to
+	 */
+	public static void writeWorld(World world, OutputStream stream) throws IOException {
+		writeWorld(world, Channels.newChannel(stream), false);
+	}
+
+	/**
+	 * Streams the snapshot of the given world into the output stream. The
+	 * stream is not closed.
+	 * 
+	 * @param world the world to serialize
+	 * @param stream the stream to write to
+	 * @param packGenes true to pack the genes with GeneCodec
+	 * @throws IOException if the stream cannot be written to
+	 */
+	public static void writeWorld(World world, OutputStream stream, boolean packGenes)
+			throws IOException {
+
+		writeWorld(world, Channels.newChannel(stream), packGenes);
+	}
+
+	/**
+	 * Streams the snapshot of the given image into the channel. The image
+	 * can be written on any thread. The channel is not closed.
+	 * 
+	 * @param image the image to serialize
+	 * @param channel the channel to write to
+	 * @param packGenes true to pack the genes with GeneCodec
+	 * @throws IOException if the channel cannot be written to
+	 */
+	static void writeImage(WorldImage image, WritableByteChannel channel, boolean packGenes)
+			throws IOException {
+
+		writeImage(image, packGenes ? packGenes(image) : null, channel);
+	}
+
+	/**
+	 * Streams the snapshot of the given image into the channel with genes
+	 * that were already packed by packGenes. The channel is not closed.
+	 * 
+	 * @param image the image to serialize
+	 * @param geneBlocks the packed genes of every species, or null to write
+	 * 		the raw genes
+	 * @param channel the channel to write to
+	 * @throws IOException if the channel cannot be written to
+	 */
+	static void writeImage(WorldImage image, byte[][] geneBlocks, WritableByteChannel channel)
+			throws IOException {
+
+		SnapshotOutput out = new SnapshotOutput(ByteBuffer.allocate(streamBufferSize), channel);
+		write(image, geneBlocks, out);
+		out.flush();
+	}
+
+	/**
+	 * Creates a new world from a snapshot.
+	 * 
+	 * @param snapshot the snapshot created by serializeWorld
+	 * @return the newly created world
+	 * @throws IllegalArgumentException if the snapshot is not a valid snapshot
+	 * 		of a supported version
+	 */
+	public static World createWorld(byte[] snapshot) {
+		return createWorld(ByteBuffer.wrap(snapshot));
+	}
+
+	/**
+	 * Creates a new world from the snapshot starting at the buffer's
+	 * position. The buffer's position is moved past the snapshot. The byte
+	 * order of the buffer is set to little-endian.
+	 * 
+	 * @param in the buffer to read from
+	 * @return the newly created world
+	 * @throws IllegalArgumentException if the buffer does not hold a valid
+	 * 		snapshot of a supported version
+	 */
+	public static World createWorld(ByteBuffer in) {
+		try {
+			return read(new SnapshotInput(in, null));
+		} catch (BufferUnderflowException ex) {
+			throw new IllegalArgumentException("Snapshot is truncated", ex);
+		} catch (IOException ex) {
+			throw new IllegalStateException("A buffer without a channel cannot fail", ex);
+		}
+	}
+
+	/**
+	 * Creates a new world from a snapshot streamed from the channel. Reading
+	 * stops at the end of the snapshot, although up to one buffer of bytes
+	 * past the snapshot may have been taken from the channel.
+	 * 
+	 * @param channel the channel to read from
+	 * @return the newly created world
+	 * @throws IOException if the channel cannot be read from or ends before
+	 * 		the snapshot does
+	 * @throws IllegalArgumentException if the channel does not hold a valid
+	 * 		snapshot of a supported version
+	 */
+	public static World readWorld(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(streamBufferSize);
+		buffer.limit(0);
+		return read(new SnapshotInput(buffer, channel));
+	}
+
+	/**
+	 * Creates a new world from a snapshot streamed from the input stream.
+	 * 
+	 * @param stream the stream to read from
+	 * @return the newly created world
+	 * @throws IOException if the stream cannot be read from or ends before
+	 * 		the snapshot does
+	 * @throws IllegalArgumentException if the stream does not hold a valid
+	 * 		snapshot of a supported version
+	 * @see #readWorld(ReadableByteChannel)
+	 */
+	public static World readWorld(InputStream stream) throws IOException {
+		return readWorld(Channels.newChannel(stream));
+	}
+
+	private static void write(WorldImage image, byte[][] geneBlocks, SnapshotOutput out)
+			throws IOException {
+
+		ByteBuffer buf = out.require(headerSize);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(image.width);
+		buf.putInt(image.height);
+		buf.putLong(image.seed);
+		buf.putLong(image.ticks);
+		buf.putInt(image.getSpeciesCount());
+		buf.putInt(SHARED_GENES | CHROMOSOME_IDS | (geneBlocks == null ? 0 : PACKED_GENES) |
+				(image.hasRunState() ? RUN_STATE | COARSE_STEPS : 0));
+		buf.putLong(image.nextChromosomeId);
+
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			int[] layout = image.neuronLayouts[i];
+
+			buf = out.require(specieInfoSize);
+			buf.putLong(image.specieIds[i]);
+			buf.put((byte) (image.isPrey[i] ? 1 : 0));
+			buf.putInt(image.getBlobCount(i));
+			buf.putDouble(image.spawnBudgets[i]);
+			buf.putInt(layout.length);
+			for (int j = 0; j < layout.length; j++)
+				out.require(4).putInt(layout[j]);
+		}
+
+		long offset = getBlobsOffset(image, geneBlocks);
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			for (int j = 0; j < image.getBlobCount(i); j++) {
+				out.require(8).putLong(offset);
+				offset += blobSize;
+			}
+		}
+
+		writeGeneTables(image, geneBlocks, out);
+
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			for (int j = 0; j < image.getBlobCount(i); j++)
+				writeBlob(image, i, j, out);
+		}
+
+		if (image.hasRunState()) {
+			for (int i = 0; i < image.getSpeciesCount(); i++)
+				writeRunState(image, i, out);
+		}
+	}
+
+	private static void writeGeneTables(WorldImage image, byte[][] geneBlocks,
+			SnapshotOutput out) throws IOException {
+
+		long offset = getTablesOffset(image);
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			long length = getTableSize(image, i, geneBlocks);
+			ByteBuffer buf = out.require(geneTableInfoSize);
+			buf.putLong(offset);
+			buf.putInt(image.getGeneTable(i).size());
+			buf.putLong(length);
+			offset += length;
+		}
+
+		offset = getTablesOffset(image);
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			if (geneBlocks != null) {
+				writeBytes(geneBlocks[i], out);
+				continue;
+			}
+
+			ChromosomeStore table = image.getGeneTable(i);
+			long entryOffset = offset + 8L * table.size();
+			for (int j = 0; j < table.size(); j++) {
+				out.require(8).putLong(entryOffset);
+				entryOffset += 4 + 8L * table.get(j).getGeneCount();
+			}
+			for (int j = 0; j < table.size(); j++)
+				writeGenes(table.get(j), out);
+			offset = entryOffset;
+		}
+	}
+
+	private static void writeBytes(byte[] block, SnapshotOutput out) throws IOException {
+		int written = 0;
+		while (written < block.length) {
+			ByteBuffer buf = out.require(1);
+			int length = Math.min(block.length - written, buf.remaining());
+			buf.put(block, written, length);
+			written += length;
+		}
+	}
+
+	private static void writeGenes(Chromosome chromo, SnapshotOutput out) throws IOException {
+		int geneCount = chromo.getGeneCount();
+		out.require(4).putInt(geneCount);
+
+		int gene = 0;
+		while (gene < geneCount) {
+			ByteBuffer buf = out.require(8);
+			int end = Math.min(geneCount, gene + buf.remaining() / 8);
+			for (; gene < end; gene++)
+				buf.putDouble(chromo.getGene(gene));
+		}
+	}
+
+	private static void writeBlob(WorldImage image, int specie, int id, SnapshotOutput out)
+			throws IOException {
+
+		ByteBuffer buf = out.require(blobSize);
+		buf.putDouble(image.x[specie][id]);
+		buf.putDouble(image.y[specie][id]);
+		buf.putDouble(image.angle[specie][id]);
+		buf.putDouble(image.energy[specie][id]);
+		buf.putInt(image.age[specie][id]);
+		buf.putDouble(image.fitness[specie][id]);
+		buf.putInt(image.getChromoRef(specie, id));
+		putIds(image.chromo[specie][id], buf);
+		buf.putDouble(image.oldFitness[specie][id]);
+		buf.putInt(image.getOldChromoRef(specie, id));
+		putIds(image.oldChromo[specie][id], buf);
+	}
+
+	private static void putIds(Chromosome chromo, ByteBuffer buf) {
+		buf.putLong(chromo.getId());
+		buf.putLong(chromo.getParentIdA());
+		buf.putLong(chromo.getParentIdB());
+		buf.putInt(chromo.getCrossOverStart());
+		buf.putInt(chromo.getCrossOverEnd());
+	}
+
+	private static void writeRunState(WorldImage image, int specie, SnapshotOutput out)
+			throws IOException {
+
+		ByteBuffer buf = out.require(runStateHeaderSize);
+		buf.putDouble(image.spawnCredits[specie]);
+		buf.putLong(image.breedCounters[specie]);
+		buf.putInt(image.sortIntervals[specie]);
+		buf.putLong(image.sortTicks[specie]);
+		buf.putDouble(image.sortDrifts[specie]);
+		buf.putInt(image.liveCounts[specie]);
+
+		int[] order = image.blobOrder[specie];
+		for (int i = 0; i < order.length; i++)
+			out.require(4).putInt(order[i]);
+
+		long[] counters = image.randomCounters[specie];
+		for (int i = 0; i < counters.length; i++)
+			out.require(8).putLong(counters[i]);
+
+		int[] coarse = image.coarseStates[specie];
+		out.require(4).putInt(coarse.length / 4);
+		for (int i = 0; i < coarse.length; i++)
+			out.require(4).putInt(coarse[i]);
+	}
+
+	private static World read(SnapshotInput in) throws IOException {
+		ByteBuffer buf = in.require(unflaggedHeaderSize);
+		if (buf.getInt() != MAGIC)
+			throw new IllegalArgumentException("Not a binary world snapshot");
+		int version = buf.getInt();
+		if (version < unindexedVersion || version > VERSION)
+			throw new IllegalArgumentException("Unsupported snapshot version " + version);
+
+		int width = buf.getInt();
+		int height = buf.getInt();
+		long seed = buf.getLong();
+		long ticks = buf.getLong();
+		int speciesCount = buf.getInt();
+		if (speciesCount < 0)
+			throw new IllegalArgumentException("Invalid species count " + speciesCount);
+		SpecieInfo[] specieInfos = new SpecieInfo[speciesCount];
+		int flags = version > unflaggedVersion ? in.require(4).getInt() : 0;
+		boolean ids = (flags & CHROMOSOME_IDS) != 0;
+		long nextChromosomeId = ids ? in.require(8).getLong() : 0L;
+		if (nextChromosomeId < 0)
+			throw new IllegalArgumentException("Invalid chromosome id " + nextChromosomeId);
+
+		long totalBlobCount = 0;
+		for (int i = 0; i < specieInfos.length; i++) {
+			buf = in.require(specieInfoSize);
+			long specieId = buf.getLong();
+			boolean isPrey = buf.get() != 0;
+			int blobCount = buf.getInt();
+			double spawnBudget = buf.getDouble();
+			int layoutLength = buf.getInt();
+			if (blobCount < 0 || layoutLength < 0)
+				throw new IllegalArgumentException("Invalid species info");
+
+			int[] layout = new int[layoutLength];
+			for (int j = 0; j < layout.length; j++)
+				layout[j] = in.require(4).getInt();
+
+			specieInfos[i] = new SpecieInfo(isPrey, specieId, layout, blobCount, spawnBudget);
+			totalBlobCount += blobCount;
+		}
+
+		//the blobs are read in order, so the index is not needed
+		if (version != unindexedVersion) {
+			for (long i = 0; i < totalBlobCount; i++)
+				in.require(8).getLong();
+		}
+
+		boolean shared = (flags & SHARED_GENES) != 0;
+		double[][][] packedGenes = null;
+		if (shared)
+			packedGenes = readGeneTables(specieInfos, (flags & PACKED_GENES) != 0, in);
+		else if ((flags & PACKED_GENES) != 0)
+			packedGenes = readGeneBlocks(specieInfos, in);
+
+		WorldImage image = new WorldImage(
+				new WorldInfo(specieInfos, width, height, seed), ticks);
+		image.nextChromosomeId = nextChromosomeId;
+
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			double[][] genes = packedGenes == null ? null : packedGenes[i];
+			for (int j = 0; j < image.getBlobCount(i); j++) {
+				if (shared)
+					readSharedBlob(image, i, j, genes, ids, in);
+				else
+					readBlob(image, i, j, genes, in);
+			}
+		}
+
+		if ((flags & RUN_STATE) != 0) {
+			for (int i = 0; i < image.getSpeciesCount(); i++)
+				readRunState(image, i, (flags & COARSE_STEPS) != 0, in);
+			image.setRunStateComplete();
+		}
+
+		return new World(image);
+	}
+
+	private static void readRunState(WorldImage image, int specie, boolean coarseSteps,
+			SnapshotInput in) throws IOException {
+
+		ByteBuffer buf = in.require(runStateHeaderSize);
+		double spawnCredit = buf.getDouble();
+		long breedCounter = buf.getLong();
+		int sortInterval = buf.getInt();
+		long sortTick = buf.getLong();
+		double sortDrift = buf.getDouble();
+		int liveCount = buf.getInt();
+
+		int count = image.getBlobCount(specie);
+		if (liveCount < 0 || liveCount > count || sortInterval < 1)
+			throw new IllegalArgumentException("Invalid run state");
+
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = in.require(4).getInt();
+
+		long[] counters = new long[count];
+		for (int i = 0; i < count; i++)
+			counters[i] = in.require(8).getLong();
+
+		image.setRunState(specie, spawnCredit, breedCounter, sortInterval, sortTick,
+				sortDrift, order, liveCount, counters);
+		if (!coarseSteps)
+			return;
+
+		int coarseCount = in.require(4).getInt();
+		if (coarseCount < 0 || coarseCount > count)
+			throw new IllegalArgumentException("Invalid coarse step count " + coarseCount);
+
+		int[] coarse = new int[4 * coarseCount];
+		for (int i = 0; i < coarse.length; i += 4) {
+			buf = in.require(16);
+			coarse[i] = buf.getInt();
+			coarse[i + 1] = buf.getInt();
+			coarse[i + 2] = buf.getInt();
+			coarse[i + 3] = buf.getInt();
+			if (coarse[i] < 0 || coarse[i] >= count || coarse[i + 1] < 2 ||
+					coarse[i + 2] < 0 || coarse[i + 2] >= coarse[i + 1])
+				throw new IllegalArgumentException("Invalid coarse step");
+		}
+		image.setCoarseStates(specie, coarse);
+	}
+
+	private static double[][][] readGeneBlocks(SpecieInfo[] specieInfos, SnapshotInput in)
+			throws IOException {
+
+		int[] lengths = new int[specieInfos.length];
+		for (int i = 0; i < lengths.length; i++) {
+			ByteBuffer buf = in.require(geneBlockInfoSize);
+			buf.getLong();
+			lengths[i] = buf.getInt();
+			if (lengths[i] < 0)
+				throw new IllegalArgumentException("Invalid gene block length");
+		}
+
+		double[][][] genes = new double[specieInfos.length][][];
+		for (int i = 0; i < genes.length; i++) {
+			byte[] block = new byte[lengths[i]];
+			int read = 0;
+			while (read < block.length) {
+				ByteBuffer buf = in.require(1);
+				int length = Math.min(block.length - read, buf.remaining());
+				buf.get(block, read, length);
+				read += length;
+			}
+
+			genes[i] = GeneCodec.decode(block);
+			if (genes[i].length != 2 * specieInfos[i].initBlobCount)
+				throw new IllegalArgumentException("Gene block does not match the blob count");
+		}
+		return genes;
+	}
+
+	private static double[][][] readGeneTables(SpecieInfo[] specieInfos, boolean packed,
+			SnapshotInput in) throws IOException {
+
+		int[] counts = new int[specieInfos.length];
+		long[] lengths = new long[specieInfos.length];
+		for (int i = 0; i < counts.length; i++) {
+			ByteBuffer buf = in.require(geneTableInfoSize);
+			buf.getLong();
+			counts[i] = buf.getInt();
+			lengths[i] = buf.getLong();
+			if (counts[i] < 0 || lengths[i] < 0 || (packed && lengths[i] > Integer.MAX_VALUE))
+				throw new IllegalArgumentException("Invalid gene table");
+		}
+
+		double[][][] tables = new double[specieInfos.length][][];
+		for (int i = 0; i < tables.length; i++) {
+			if (packed) {
+				byte[] block = new byte[(int) lengths[i]];
+				int read = 0;
+				while (read < block.length) {
+					ByteBuffer buf = in.require(1);
+					int length = Math.min(block.length - read, buf.remaining());
+					buf.get(block, read, length);
+					read += length;
+				}
+
+				tables[i] = GeneCodec.decode(block);
+				if (tables[i].length != counts[i])
+					throw new IllegalArgumentException("Gene block does not match the gene table");
+				continue;
+			}
+
+			//the entries are read in order, so their offsets are not needed
+			for (int j = 0; j < counts[i]; j++)
+				in.require(8).getLong();
+
+			tables[i] = new double[counts[i]][];
+			for (int j = 0; j < counts[i]; j++)
+				tables[i][j] = readGenes(in.require(4).getInt(), in);
+		}
+		return tables;
+	}
+
+	private static void readSharedBlob(WorldImage image, int specie, int id, double[][] table,
+			boolean ids, SnapshotInput in) throws IOException {
+
+		ByteBuffer buf = in.require(blobHeaderSize);
+		double x = buf.getDouble();
+		double y = buf.getDouble();
+		double angle = buf.getDouble();
+		double energy = buf.getDouble();
+		int age = buf.getInt();
+
+		Chromosome chromo = readSharedChromosome(image, table, ids, in);
+		Chromosome oldChromo = readSharedChromosome(image, table, ids, in);
+
+		image.setBlob(specie, id, x, y, angle, energy, age, chromo, oldChromo);
+	}
+
+	private static Chromosome readSharedChromosome(WorldImage image, double[][] table,
+			boolean ids, SnapshotInput in) throws IOException {
+
+		ByteBuffer buf = in.require(ids ? chromoSize : chromoHeaderSize);
+		double fitness = buf.getDouble();
+		int ref = buf.getInt();
+		if (ref < 0 || ref >= table.length)
+			throw new IllegalArgumentException("Invalid gene table reference");
+
+		/*
+		 * The genes never change, so chromosomes with equal genes share the
+		 * array. Each one is still its own object with its saved id and
+		 * fitness, like the current chromosome of a blob and its clone in
+		 * the gene pool are in the world that was written.
+		 */
+		Chromosome chromo;
+		if (ids) {
+			chromo = new Chromosome(table[ref], buf.getLong(), buf.getLong(), buf.getLong(),
+					buf.getInt(), buf.getInt());
+		} else {
+			chromo = new Chromosome(table[ref], image.assignChromosomeId());
+		}
+		chromo.setFitness(fitness);
+		return chromo;
+	}
+
+	private static void readBlob(WorldImage image, int specie, int id, double[][] packedGenes,
+			SnapshotInput in) throws IOException {
+
+		ByteBuffer buf = in.require(blobHeaderSize);
+		double x = buf.getDouble();
+		double y = buf.getDouble();
+		double angle = buf.getDouble();
+		double energy = buf.getDouble();
+		int age = buf.getInt();
+
+		Chromosome chromo = readChromosome(image,
+				packedGenes == null ? null : packedGenes[2 * id], in);
+		Chromosome oldChromo = readChromosome(image,
+				packedGenes == null ? null : packedGenes[2 * id + 1], in);
+
+		image.setBlob(specie, id, x, y, angle, energy, age, chromo, oldChromo);
+	}
+
+	private static Chromosome readChromosome(WorldImage image, double[] packedGenes,
+			SnapshotInput in) throws IOException {
+
+		ByteBuffer buf = in.require(chromoHeaderSize);
+		double fitness = buf.getDouble();
+		int geneCount = buf.getInt();
+		if (geneCount < 0)
+			throw new IllegalArgumentException("Invalid gene count " + geneCount);
+
+		if (packedGenes != null) {
+			if (packedGenes.length != geneCount)
+				throw new IllegalArgumentException("Packed genes do not match the gene count");
+
+			Chromosome chromo = new Chromosome(packedGenes, image.assignChromosomeId());
+			chromo.setFitness(fitness);
+			return chromo;
+		}
+
+		Chromosome chromo = new Chromosome(readGenes(geneCount, in), image.assignChromosomeId());
+		chromo.setFitness(fitness);
+		return chromo;
+	}
+
+	private static double[] readGenes(int geneCount, SnapshotInput in) throws IOException {
+		if (geneCount < 0)
+			throw new IllegalArgumentException("Invalid gene count " + geneCount);
+
+		double[] genes = new double[geneCount];
+		int gene = 0;
+		while (gene < geneCount) {
+			ByteBuffer buf = in.require(8);
+			int count = Math.min(geneCount - gene, buf.remaining() / 8);
+			buf.asDoubleBuffer().get(genes, gene, count);
+			buf.position(buf.position() + 8 * count);
+			gene += count;
+		}
+		return genes;
+	}
+
+	/*
+	 * Hands out a buffer with room for the next values. If there is a channel,
+	 * the buffer is flushed to it whenever it runs out of room.
+	 */
+	private static final class SnapshotOutput {
+		private final ByteBuffer buffer;
+		private final WritableByteChannel channel;
+
+		SnapshotOutput(ByteBuffer buffer, WritableByteChannel channel) {
+			this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+			this.channel = channel;
+		}
+
+		ByteBuffer require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return buffer;
+			if (channel == null)
+				throw new BufferOverflowException();
+
+			flush();
+			return buffer;
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+	}
+
+	/*
+	 * Hands out a buffer holding at least the next values. If there is a
+	 * channel, the buffer is refilled from it whenever it runs low.
+	 */
+	private static final class SnapshotInput {
+		private final ByteBuffer buffer;
+		private final ReadableByteChannel channel;
+
+		SnapshotInput(ByteBuffer buffer, ReadableByteChannel channel) {
+			this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+			this.channel = channel;
+		}
+
+		ByteBuffer require(int bytes) throws IOException {
+			if (buffer.remaining() >= bytes)
+				return buffer;
+			if (channel == null)
+				throw new BufferUnderflowException();
+
+			buffer.compact();
+			while (buffer.position() < bytes) {
+				if (channel.read(buffer) < 0)
+					throw new EOFException("Snapshot is truncated");
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+}
@@ -6,6 +6,7 @@ import java.util.List;
 
 import net.xuset.smoothLife.nnetwork.Brain;
 import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.CounterRandom;
 
 /**
  *  All blobs start out with a certain amount of energy. The blobs can
@@ -45,36 +46,78 @@ public class Blob {
 			new ArrayList<BlobActions>(BlobActions.values().length);
 	private final Body body = new Body();
 	private final Brain brain;
+	private final int blobId;
 	private final long specieId;
 	private final BlobFinder blobFinder;
 	private final boolean isPrey;
 	private final ChromosomeHolder chromoHolder;
+	private final CounterRandom random;
 
 	private int age;
 	private double energy;
 	private boolean wasAttacked = false;
+	private int coarseStep = 0, coarseTicks = 0;
 
 	/**
 	 * Instantiate a new blob.
 	 * @param neuronLayout integer array that is used to create the brain
+	 * @param blobId the id of the blob. This should be unique within the specie
 	 * @param specieId the id of the specie this blob belongs to
 	 * @param blobFinder the object used to find blobs in the world
 	 * @param isPrey indicates if this blob is prey or a predator
 	 * @param chromosomeHolder object used to hold the chromosomes of the blob
+	 * @param random the blob's own stream of random numbers
 	 */
-	Blob(int[] neuronLayout, long specieId, BlobFinder blobFinder, boolean isPrey,
-			ChromosomeHolder chromosomeHolder) {
+	Blob(int[] neuronLayout, int blobId, long specieId, BlobFinder blobFinder,
+			boolean isPrey, ChromosomeHolder chromosomeHolder, CounterRandom random) {
 
 		brain = new Brain(neuronLayout);
+		this.blobId = blobId;
 		this.specieId = specieId;
 		this.blobFinder = blobFinder;
 		this.isPrey = isPrey;
 		this.chromoHolder = chromosomeHolder;
+		this.random = random;
 
 		reset(0, 0, chromoHolder.getChromosome().clone());
 		body.setMoveCoefficient(isPrey ? 0.5 : 2.0);
 	}
 
+	/**
+	 * Instantiate a blob with a restored state. The brain is set up from the
+	 * holder's current chromosome and no random numbers are drawn.
+	 * @param neuronLayout integer array that is used to create the brain
+	 * @param blobId the id of the blob. This should be unique within the specie
+	 * @param specieId the id of the specie this blob belongs to
+	 * @param blobFinder the object used to find blobs in the world
+	 * @param isPrey indicates if this blob is prey or a predator
+	 * @param chromosomeHolder object used to hold the chromosomes of the blob
+	 * @param random the blob's own stream of random numbers
+	 * @param x the x location of the blob
+	 * @param y the y location of the blob
+	 * @param angle the angle of the blob
+	 * @param energy the energy of the blob
+	 * @param age the age of the blob
+	 */
+	Blob(int[] neuronLayout, int blobId, long specieId, BlobFinder blobFinder,
+			boolean isPrey, ChromosomeHolder chromosomeHolder, CounterRandom random,
+			double x, double y, double angle, double energy, int age) {
+
+		Chromosome chromo = chromosomeHolder.getChromosome();
+		brain = new Brain(neuronLayout, chromo.copyBrainGenes());
+		this.blobId = blobId;
+		this.specieId = specieId;
+		this.blobFinder = blobFinder;
+		this.isPrey = isPrey;
+		this.chromoHolder = chromosomeHolder;
+		this.random = random;
+		this.energy = energy;
+		this.age = age;
+
+		body.reset(x, y, chromo.getRadius(), angle);
+		body.setMoveCoefficient(isPrey ? 0.5 : 2.0);
+	}
+
 	/**
 	 * Returns the body object of the blob.
 	 * 
@@ -145,6 +188,16 @@ public class Blob {
 		return actionBuffer.toArray(buff);
 	}
 
+	/**
+	 * Returns the id of the blob. The id is unique within the blob's specie
+	 * and never changes, even when the blob dies and respawns.
+	 * 
+	 * @return the id of the blob
+	 */
+	public int getId() {
+		return blobId;
+	}
+
 	/**
 	 * Return the specie id of the specie this blob belongs to.
 	 * 
@@ -164,7 +217,7 @@ public class Blob {
 	 */
 	void reset(double x, double y, Chromosome newChromo) {
 		reset(x, y,
-				Math.random() * 2 * Math.PI,               //angle
+				random.nextDouble() * 2 * Math.PI,         //angle
 				initEnergy, 1,                             //energy, age
 				newChromo);  //newChromo, oldChromo
 	}
@@ -187,6 +240,8 @@ public class Blob {
 
 		this.age = newAge;
 		this.energy = newEnergy;
+		coarseStep = 0;
+		coarseTicks = 0;
 
 		chromoHolder.replaceChromosome(newChromo);
 
@@ -195,6 +250,27 @@ public class Blob {
 		body.reset(x, y, newChromo.getRadius(), angle);
 	}
 
+	/**
+	 * Returns the blob's own stream of random numbers. All random decisions
+	 * about the blob, like where it respawns, are drawn from this stream.
+	 * 
+	 * @return the random number generator of the blob
+	 */
+	CounterRandom getRandom() {
+		return random;
+	}
+
+	/**
+	 * Sets the fitness of the current chromosome to the blob's age and places
+	 * the chromosome into the gene pool. This is done by reset as well, but
+	 * calling it early lets the chromosome take part in breeding the new
+	 * chromosome for the reset.
+	 */
+	void retireChromosome() {
+		chromoHolder.getChromosome().setFitness(age);
+		chromoHolder.storeInGenePool();
+	}
+
 	/**
 	 * Method called on all blobs of all species before the update method is
 	 * called.
@@ -206,13 +282,250 @@ public class Blob {
 	/**
 	 * Method called for the blob to do it's update tick.
 	 * The blob executes it's actions, increases it's age, and other things
-	 * during this call.
+	 * during this call. Energy taken from or given to other blobs is recorded
+	 * in the ledger and applied once all blobs have been updated.
+	 * 
+	 * @param ledger the ledger to record energy changes in
+	 */
+	void update(EnergyLedger ledger) {
+		age++;
+		energy += costToLive;
+
+		performActions(ledger);
+	}
+
+	/**
+	 * The first phase of a split update tick. The blob senses its
+	 * surroundings and lets its brain decide which actions to execute. Only
+	 * the blob's own action buffer is written, so this method can be called
+	 * on many blobs in parallel as long as no blob is changed at the same
+	 * time.
+	 * 
+	 * @see #actTurn()
+	 */
+	void think() {
+		actionBuffer.clear();
+
+		Blob friend = blobFinder.getClosestSimilar(this);
+		Blob enemy = blobFinder.getClosestUnSimilar(this);
+		BrainInterface.stimulateActions(brain, actionBuffer, this, friend, enemy);
+	}
+
+	/**
+	 * The start of the second phase of a split update tick. The blob increases
+	 * its age, pays the cost to live, and executes the turns chosen by think.
+	 * Only the blob itself is changed.
+	 * 
+	 * @see #think()
 	 */
-	void update() {
+	void actTurn() {
 		age++;
 		energy += costToLive;
 
-		performActions();
+		for (int i = 0; i < actionBuffer.size(); i++) {
+			if (actionBuffer.get(i) == BlobActions.TURN_LEFT)
+				actionTurn(turnDelta);
+			else if (actionBuffer.get(i) == BlobActions.TURN_RIGHT)
+				actionTurn(-turnDelta);
+		}
+	}
+
+	/**
+	 * Moves the blob forward if think chose to do so. The move is undone in
+	 * each dimension where it would make the blob collide.
+	 * 
+	 * @param detector the object used to find colliding blobs
+	 */
+	void actMove(CollisionDetector detector) {
+		if (actionBuffer.contains(BlobActions.MOVE_FORWARD))
+			body.moveForward(moveForwardDelta, detector);
+	}
+
+	/**
+	 * Executes the special action if think chose to do so. The energy changes
+	 * are only recorded in the given slot of the ledger, so this method can be
+	 * called on many blobs in parallel as long as every blob uses its own
+	 * slot.
+	 * 
+	 * @param ledger the ledger to record energy changes in
+	 * @param slot the blob's slot in the ledger
+	 */
+	void actSpecial(EnergyLedger ledger, int slot) {
+		if (actionBuffer.contains(BlobActions.SPECIAL_ACTION))
+			actionSpecial(ledger, slot);
+	}
+
+	/**
+	 * Changes the blob's energy. This is called by the ledger once all blobs
+	 * have acted.
+	 * 
+	 * @param delta the amount to add to the energy
+	 * @param attacked true if the change is the result of an attack
+	 */
+	void applyEnergyDelta(double delta, boolean attacked) {
+		energy += delta;
+		if (attacked)
+			wasAttacked = true;
+	}
+
+	/**
+	 * Indicates if the blob is in a coarse step.
+	 * 
+	 * @return true if the blob is in a coarse step
+	 * @see #startCoarseStep(int)
+	 */
+	boolean isCoarse() {
+		return coarseStep != 0;
+	}
+
+	/**
+	 * Starts a coarse step. The blob sits out the following ticks of the step
+	 * and then catches up on all of them at once with the actions it chose in
+	 * the last think. The step is made short enough that the blob cannot
+	 * run out of energy during it.
+	 * 
+	 * @param maxTicks the longest step to take
+	 */
+	void startCoarseStep(int maxTicks) {
+		int step = Math.min(maxTicks, (int) (energy / -costToLive) - 1);
+		coarseStep = step > 1 ? step : 0;
+		coarseTicks = 0;
+	}
+
+	/**
+	 * Gets the length of the blob's coarse step.
+	 * 
+	 * @return the length of the step in ticks, or 0 if the blob is not in a
+	 * 		coarse step
+	 */
+	int getCoarseStep() {
+		return coarseStep;
+	}
+
+	/**
+	 * Gets the amount of ticks the blob sat out of its coarse step so far.
+	 * 
+	 * @return the ticks sat out
+	 */
+	int getCoarseTicks() {
+		return coarseTicks;
+	}
+
+	/**
+	 * Gets the actions chosen by the last think as a set of bits. The bit
+	 * of an action is one shifted left by the action's ordinal. A blob in a
+	 * coarse step catches up with these actions.
+	 * 
+	 * @return the bits of the chosen actions
+	 */
+	int getActionBits() {
+		int bits = 0;
+		for (int i = 0; i < actionBuffer.size(); i++)
+			bits |= 1 << actionBuffer.get(i).ordinal();
+		return bits;
+	}
+
+	/**
+	 * Puts the blob back into a coarse step that was captured with
+	 * getCoarseStep, getCoarseTicks and getActionBits. The actions are
+	 * restored in the order think chooses them in.
+	 * 
+	 * @param step the length of the step in ticks
+	 * @param ticks the ticks sat out so far
+	 * @param actionBits the bits of the actions chosen by the last think
+	 */
+	void restoreCoarseStep(int step, int ticks, int actionBits) {
+		coarseStep = step;
+		coarseTicks = ticks;
+
+		actionBuffer.clear();
+		BlobActions[] actions = BlobActions.values();
+		for (int i = 0; i < actions.length; i++) {
+			if ((actionBits & (1 << i)) != 0)
+				actionBuffer.add(actions[i]);
+		}
+	}
+
+	/**
+	 * Lets the blob sit out the current tick if its coarse step is not over.
+	 * 
+	 * @return true if the blob sits out the tick, false if it should catch up
+	 * 		by calling finishCoarseStep and then be updated normally
+	 */
+	boolean skipCoarseTick() {
+		if (coarseTicks + 1 >= coarseStep)
+			return false;
+
+		coarseTicks++;
+		return true;
+	}
+
+	/**
+	 * Ends the coarse step and catches up on the ticks the blob sat out. The
+	 * age and the cost to live are added in one go, and the turns and moves
+	 * are replayed by Body#advance, which tests the path tick by tick. The
+	 * step may end early when another blob comes close.
+	 * 
+	 * @param detector the object used to find colliding blobs. It must see
+	 * 		the other blobs where they are now, including blobs that caught up
+	 * 		before this one.
+	 */
+	void finishCoarseStep(CollisionDetector detector) {
+		int ticks = coarseTicks;
+		coarseStep = 0;
+		coarseTicks = 0;
+		if (ticks == 0)
+			return;
+
+		age += ticks;
+		energy += ticks * costToLive;
+
+		double deltaAngle = 0.0;
+		for (int i = 0; i < actionBuffer.size(); i++) {
+			if (actionBuffer.get(i) == BlobActions.TURN_LEFT)
+				deltaAngle += turnDelta;
+			else if (actionBuffer.get(i) == BlobActions.TURN_RIGHT)
+				deltaAngle -= turnDelta;
+		}
+		double distance = actionBuffer.contains(BlobActions.MOVE_FORWARD) ? moveForwardDelta : 0.0;
+		body.advance(ticks, deltaAngle, distance, detector);
+	}
+
+	/**
+	 * Gets the largest range passed to Body#isWithinRange by a special action.
+	 * Blobs farther apart than that cannot affect each other.
+	 * 
+	 * @return the largest range of a special action
+	 */
+	static double getInteractionRange() {
+		return Math.max(attackRange, groupRange);
+	}
+
+	/**
+	 * Gets the farthest the blob can move in one update tick.
+	 * 
+	 * @return the maximum distance of a move
+	 */
+	double getMaxMoveDistance() {
+		return moveForwardDelta * body.getMoveCoefficient();
+	}
+
+	/**
+	 * Gets the current chromosome without copying it.
+	 * 
+	 * @return the current chromosome
+	 */
+	Chromosome getChromosome() {
+		return chromoHolder.getChromosome();
+	}
+
+	/**
+	 * Gets the chromosome the blob placed in the gene pool without copying it.
+	 * 
+	 * @return the chromosome in the gene pool
+	 */
+	Chromosome getChromosomeInGenePool() {
+		return chromoHolder.getChromosomeInGenePool();
 	}
 
 	/**
@@ -233,13 +546,12 @@ public class Blob {
 		return chromoHolder.cloneChromoInGenePool();
 	}
 
-	private void performActions() {
-		actionBuffer.clear();
-
-		Blob friend = blobFinder.getClosestSimilar(this);
-		Blob enemy = blobFinder.getClosestUnSimilar(this);
-		BrainInterface.stimulateActions(brain, actionBuffer, this, friend, enemy);
+	private void performActions(EnergyLedger ledger) {
+		think();
+		executeActions(ledger);
+	}
 
+	private void executeActions(EnergyLedger ledger) {
 		for (int i = 0; i < actionBuffer.size(); i++) {
 			switch(actionBuffer.get(i)) {
 			case TURN_LEFT:
@@ -252,7 +564,7 @@ public class Blob {
 				actionMove();
 				break;
 			case SPECIAL_ACTION:
-				actionSpecial();
+				actionSpecial(ledger, ledger.reserve());
 				break;
 			}
 		}
@@ -266,28 +578,27 @@ public class Blob {
 		body.moveForward(moveForwardDelta, blobFinder);
 	}
 
-	private void actionSpecial() {
+	private void actionSpecial(EnergyLedger ledger, int slot) {
 		if (isPrey) {
-			actionGroupHelp();
+			actionGroupHelp(ledger, slot);
 		} else {
-			actionAttack();
+			actionAttack(ledger, slot);
 		}
 	}
 
-	private void actionAttack() {
+	private void actionAttack(EnergyLedger ledger, int slot) {
 		Blob prey = blobFinder.getClosestUnSimilar(this);
 		if (prey != null && body.isWithinRange(prey.body, attackRange)) {
-			prey.wasAttacked = true;
-			prey.energy += attackEnergyDelta;
-			energy += attackEnergyDelta * attackPayoff;
+			ledger.record(slot, this, attackEnergyDelta * attackPayoff,
+					prey, attackEnergyDelta, true);
 		} else {
 			//energy--;
 		}
 	}
 
-	private void actionGroupHelp() {
+	private void actionGroupHelp(EnergyLedger ledger, int slot) {
 		Blob friendly = blobFinder.getClosestSimilar(this);
 		if (friendly != null && body.isWithinRange(friendly.body, groupRange))
-			energy += -costToLive;
+			ledger.record(slot, this, -costToLive, null, 0.0, false);
 	}
 }
@@ -7,13 +7,26 @@ import java.util.ArrayList;
 /**
  * Used to find all the blobs in the world.
  * 
+ * <p>
+ * By default every search looks at every live blob. The finder can instead
+ * be backed by a grid per species, which is rebuilt by rebuildGrid and
+ * dropped by invalidateGrid. Blobs may move a limited distance after the
+ * grid was built, and the searches allow for that, so they find the same
+ * blobs as a search over every live blob. While there is no valid grid, for
+ * example while blobs are being respawned, every live blob is searched.
+ * </p>
+ * 
  * @author xuset
  * @since 1.0
  */
-public class BlobFinder {
+public class BlobFinder implements CollisionDetector {
 
 	private enum TypePick { SIMILAR, UNSIMILAR, ALL }
 	private final ArrayList<Specie> species;
+	private final ArrayList<BlobGrid> grids = new ArrayList<BlobGrid>();
+	private Blob[] gridBlobs = new Blob[0];
+	private boolean gridValid = false;
+	private double maxMoved = 0.0;
 
 	/**
 	 * Instantiate the BlobFinder with the given array of species
@@ -30,7 +43,17 @@ public class BlobFinder {
 	 * @param body the body to test collisions against
 	 * @return the colliding body or null if the body is colliding with anything
 	 */
+	@Override
 	public Blob getColliding(Body body) {
+		if (gridValid) {
+			for (int i = 0; i < grids.size(); i++) {
+				Blob b = grids.get(i).getColliding(body);
+				if (b != null)
+					return b;
+			}
+			return null;
+		}
+
 		for (int i = 0; i < species.size(); i++) {
 			Specie sp = species.get(i);
 
@@ -78,6 +101,69 @@ public class BlobFinder {
 		return getClosest(blob, TypePick.ALL);
 	}
 
+	/**
+	 * Sorts all live blobs into one grid per species. The cells are made large
+	 * enough for collision tests after every blob moved the given amount of
+	 * times.
+	 * 
+	 * @param movesPerBlob the most moves any blob can make before the grid is
+	 * 		rebuilt or invalidated
+	 */
+	void rebuildGrid(int movesPerBlob) {
+		double maxRadius = 0.0, maxMove = 0.0;
+		for (int i = 0; i < species.size(); i++) {
+			Specie sp = species.get(i);
+			for (int j = 0; j < sp.getBlobCount(); j++) {
+				Blob b = sp.getBlob(j);
+				maxRadius = Math.max(maxRadius, b.getBody().getRadius());
+				maxMove = Math.max(maxMove, b.getMaxMoveDistance());
+			}
+		}
+		maxMoved = movesPerBlob * maxMove;
+
+		while (grids.size() < species.size())
+			grids.add(new BlobGrid());
+
+		for (int i = 0; i < species.size(); i++) {
+			Specie sp = species.get(i);
+			if (gridBlobs.length < sp.getBlobCount())
+				gridBlobs = new Blob[sp.getBlobCount()];
+			for (int j = 0; j < sp.getBlobCount(); j++)
+				gridBlobs[j] = sp.getBlob(j);
+
+			grids.get(i).rebuild(gridBlobs, sp.getBlobCount(),
+					2 * maxRadius + 2 * maxMoved + 1.0);
+		}
+
+		gridValid = true;
+	}
+
+	/**
+	 * Drops the grid so every live blob is searched until the grid is
+	 * rebuilt. This must be called before blobs are added or respawned.
+	 */
+	void invalidateGrid() {
+		gridValid = false;
+	}
+
+	/**
+	 * Measures how close two blobs are. This is the squared distance between
+	 * the centers minus the squared sum of the radii.
+	 * 
+	 * @param a the first blob
+	 * @param b the second blob
+	 * @return the measure of the distance between the blobs
+	 */
+	static double getDistance(Blob a, Blob b) {
+		double x1 = a.getBody().getX(), y1 = a.getBody().getY();
+		double x2 = b.getBody().getX(), y2 = b.getBody().getY();
+		double dx = x1 - x2, dy = y1 - y2;
+
+		double dist = dx * dx + dy * dy;
+		double radii = a.getBody().getRadius() + b.getBody().getRadius();
+		return dist - radii * radii;
+	}
+
 	private Blob getClosest(Blob blob, TypePick typePick) {
 		Blob closest = null;
 		double closestDist = Double.MAX_VALUE;
@@ -94,19 +180,25 @@ public class BlobFinder {
 				continue;
 			}
 
+			if (gridValid) {
+				Blob b = grids.get(i).getClosest(blob, maxMoved);
+				if (b != null) {
+					double dist = getDistance(b, blob);
+					if (dist < closestDist) {
+						closestDist = dist;
+						closest = b;
+					}
+				}
+				continue;
+			}
+
 			for (int j = 0; j < sp.getBlobCount(); j++) {
 				Blob b = sp.getBlob(j);
 
 				if (b == blob)
 					continue;
 
-				double x1 = b.getBody().getX(), y1 = b.getBody().getY();
-				double x2 = blob.getBody().getX(), y2 = blob.getBody().getY();
-				double dx = x1 - x2, dy = y1 - y2;
-
-				double dist = dx * dx + dy * dy;
-				double radii = b.getBody().getRadius() + blob.getBody().getRadius();
-				dist = dist - radii * radii;
+				double dist = getDistance(b, blob);
 				if (dist < closestDist) {
 					closestDist = dist;
 					closest = b;
@@ -0,0 +1,280 @@
+package net.xuset.smoothLife.world;
+
+/**
+ * Sorts blobs into a grid of square cells so that the blobs near a location
+ * can be found without looking at every blob in the world. The grid covers
+ * the bounding box of the blobs it was built from. The cells are at least as
+ * large as the requested minimum size, and are made larger when needed to
+ * keep the amount of cells proportional to the amount of blobs.
+ * 
+ * <p>
+ * The grid is a snapshot. Blobs that move after the grid was built stay in
+ * the cell they were sorted into until the grid is rebuilt.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+final class BlobGrid implements CollisionDetector {
+	private static final int minCellCount = 64;
+
+	private double originX, originY, cellSize, maxRadius;
+	private int columns = 0, rows = 0;
+	private int[] cellStart = new int[1];
+	private int[] cellOfBlob = new int[0];
+	private Blob[] cellBlobs = new Blob[0];
+
+	/**
+	 * Sorts the given blobs into the grid. Blobs in the same cell keep the
+	 * order they have in the given array.
+	 * 
+	 * @param blobs the blobs to sort into the grid
+	 * @param count the amount of blobs in the array to use
+	 * @param minCellSize the minimum width and height of a cell
+	 */
+	void rebuild(Blob[] blobs, int count, double minCellSize) {
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		maxRadius = 0.0;
+		for (int i = 0; i < count; i++) {
+			Body b = blobs[i].getBody();
+			maxRadius = Math.max(maxRadius, b.getRadius());
+			minX = Math.min(minX, b.getX());
+			minY = Math.min(minY, b.getY());
+			maxX = Math.max(maxX, b.getX());
+			maxY = Math.max(maxY, b.getY());
+		}
+		if (count == 0)
+			minX = minY = maxX = maxY = 0.0;
+
+		double width = maxX - minX, height = maxY - minY;
+		int maxCells = Math.max(minCellCount, 4 * count);
+		cellSize = Math.max(minCellSize, Math.sqrt(width * height / maxCells));
+		cellSize = Math.max(cellSize, Math.max(width, height) / maxCells);
+		originX = minX;
+		originY = minY;
+		columns = (int) (width / cellSize) + 1;
+		rows = (int) (height / cellSize) + 1;
+
+		if (cellStart.length < columns * rows + 1)
+			cellStart = new int[columns * rows + 1];
+		if (cellOfBlob.length < count) {
+			cellOfBlob = new int[count];
+			cellBlobs = new Blob[count];
+		}
+
+		//counting sort of the blobs by cell
+		int cellCount = columns * rows;
+		for (int i = 0; i <= cellCount; i++)
+			cellStart[i] = 0;
+		for (int i = 0; i < count; i++) {
+			Body b = blobs[i].getBody();
+			cellOfBlob[i] = getCell(getColumn(b.getX()), getRow(b.getY()));
+			cellStart[cellOfBlob[i] + 1]++;
+		}
+		for (int i = 0; i < cellCount; i++)
+			cellStart[i + 1] += cellStart[i];
+
+		for (int i = 0; i < count; i++) {
+			int cell = cellOfBlob[i];
+			cellBlobs[cellStart[cell]++] = blobs[i];
+		}
+		for (int i = cellCount; i > 0; i--)
+			cellStart[i] = cellStart[i - 1];
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * Gets the amount of columns in the grid.
+	 * 
+	 * @return the column count
+	 */
+	int getColumnCount() {
+		return columns;
+	}
+
+	/**
+	 * Gets the amount of rows in the grid.
+	 * 
+	 * @return the row count
+	 */
+	int getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Gets the index of the cell at the given column and row.
+	 * 
+	 * @param column the column of the cell
+	 * @param row the row of the cell
+	 * @return the index of the cell
+	 */
+	int getCell(int column, int row) {
+		return row * columns + column;
+	}
+
+	/**
+	 * Gets the index of the first blob in the given cell.
+	 * 
+	 * @param cell the index of the cell
+	 * @return the index to pass to getBlob
+	 */
+	int getCellStart(int cell) {
+		return cellStart[cell];
+	}
+
+	/**
+	 * Gets the index after the last blob in the given cell.
+	 * 
+	 * @param cell the index of the cell
+	 * @return the end index of the cell's blobs
+	 */
+	int getCellEnd(int cell) {
+		return cellStart[cell + 1];
+	}
+
+	/**
+	 * Gets the blob at the given index. The blobs of a cell are stored between
+	 * getCellStart and getCellEnd.
+	 * 
+	 * @param index the index of the blob
+	 * @return the blob at the index
+	 */
+	Blob getBlob(int index) {
+		return cellBlobs[index];
+	}
+
+	/**
+	 * Gets the column that contains the given x location. Locations outside of
+	 * the grid are clamped to the closest column.
+	 * 
+	 * @param x the x location
+	 * @return the column of the location
+	 */
+	int getColumn(double x) {
+		int column = (int) ((x - originX) / cellSize);
+		return column < 0 ? 0 : (column >= columns ? columns - 1 : column);
+	}
+
+	/**
+	 * Gets the row that contains the given y location. Locations outside of
+	 * the grid are clamped to the closest row.
+	 * 
+	 * @param y the y location
+	 * @return the row of the location
+	 */
+	int getRow(double y) {
+		int row = (int) ((y - originY) / cellSize);
+		return row < 0 ? 0 : (row >= rows ? rows - 1 : row);
+	}
+
+	/**
+	 * Gets a blob colliding with the given body. Only the cell of the body and
+	 * the eight cells around it are searched, so the cells must be larger
+	 * than the sum of the two largest radii plus any distance moved since the
+	 * grid was built.
+	 * 
+	 * @param body the body to test collisions against
+	 * @return the colliding blob or null if the body is not colliding with
+	 * 		any nearby blob
+	 */
+	@Override
+	public Blob getColliding(Body body) {
+		int column = getColumn(body.getX());
+		int row = getRow(body.getY());
+
+		for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+			for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+				int cell = getCell(c, r);
+				for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+					Body other = cellBlobs[i].getBody();
+					if (other != body && body.isColliding(other))
+						return cellBlobs[i];
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Gets the blob that is closest to the given blob, using the same measure
+	 * as BlobFinder. The cells are searched in rings around the blob's cell
+	 * until no blob in the remaining rings can be closer.
+	 * 
+	 * @param blob the blob to search around. It is never returned.
+	 * @param maxMoved the farthest any blob in the grid moved since the grid
+	 * 		was built
+	 * @return the closest blob or null if the grid holds no other blob
+	 */
+	Blob getClosest(Blob blob, double maxMoved) {
+		Body body = blob.getBody();
+		int column = getColumn(body.getX());
+		int row = getRow(body.getY());
+		int lastRing = Math.max(Math.max(column, columns - 1 - column),
+				Math.max(row, rows - 1 - row));
+		double maxRadii = body.getRadius() + maxRadius;
+
+		Blob closest = null;
+		double closestDist = Double.MAX_VALUE;
+
+		for (int ring = 0; ring <= lastRing; ring++) {
+			//every blob in this ring or beyond is at least this far away
+			double reach = (ring - 1) * cellSize - maxMoved;
+			if (closest != null && reach > 0.0 && reach * reach - maxRadii * maxRadii > closestDist)
+				break;
+
+			for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+				boolean edgeRow = r == row - ring || r == row + ring;
+				int step = edgeRow ? 1 : 2 * ring;
+				for (int c = column - ring; c <= column + ring; c += step) {
+					if (c < 0 || c >= columns)
+						continue;
+
+					int cell = getCell(c, r);
+					for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+						Blob b = cellBlobs[i];
+						if (b == blob)
+							continue;
+
+						double dist = BlobFinder.getDistance(b, blob);
+						if (dist < closestDist) {
+							closestDist = dist;
+							closest = b;
+						}
+					}
+				}
+			}
+		}
+
+		return closest;
+	}
+
+	/**
+	 * Indicates if any other blob is within the given range of the body, as
+	 * tested by Body#isWithinRange. Only the cell of the body and the eight cells around
+	 * it are searched, so the cells must be larger than the sum of the two
+	 * largest radii plus the range.
+	 * 
+	 * @param body the body to search around
+	 * @param range the distance between the edges of the bodies
+	 * @return true if another blob is within the range
+	 */
+	boolean hasNeighborWithin(Body body, double range) {
+		int column = getColumn(body.getX());
+		int row = getRow(body.getY());
+
+		for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+			for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+				int cell = getCell(c, r);
+				for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+					Body other = cellBlobs[i].getBody();
+					if (other != body && body.isWithinRange(other, range))
+						return true;
+				}
+			}
+		}
+
+		return false;
+	}
+}
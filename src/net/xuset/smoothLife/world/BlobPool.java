@@ -0,0 +1,244 @@
+package net.xuset.smoothLife.world;
+
+import java.util.Arrays;
+
+/**
+ * Stores the blobs of a species in slots indexed by the blob ids. The ids of
+ * the live blobs are kept in a dense array so they can be iterated quickly.
+ * When a blob dies its id is swapped with the last live id and the live range
+ * shrinks by one. Dead ids are kept in a first in, first out free list so the
+ * blob that died first is respawned first. Killing and respawning a blob both
+ * take constant time, and the order of the live blobs only depends on the
+ * order of the deaths and respawns and on calls to sortLive.
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+final class BlobPool {
+	private Blob[] slots = new Blob[8];
+	private int[] liveIds = new int[8];
+	private int[] livePositions = new int[8];
+	private int[] freeIds = new int[8];
+	private int size = 0, liveCount = 0;
+	private int freeHead = 0, freeCount = 0;
+	private long[] sortBuffer = new long[0];
+
+	/**
+	 * Adds a new live blob. The id of the blob must equal the current size of
+	 * the pool.
+	 * 
+	 * @param blob the blob to add
+	 * @throws IllegalArgumentException if the blob's id is not the next id
+	 */
+	void add(Blob blob) {
+		if (blob.getId() != size)
+			throw new IllegalArgumentException("Blob id must be " + size);
+
+		if (size == slots.length)
+			grow();
+
+		slots[size] = blob;
+		liveIds[liveCount] = size;
+		livePositions[size] = liveCount;
+		liveCount++;
+		size++;
+	}
+
+	/**
+	 * Adds a new dead blob to the end of the free list. The id of the blob
+	 * must equal the current size of the pool.
+	 * 
+	 * @param blob the blob to add
+	 * @throws IllegalArgumentException if the blob's id is not the next id
+	 */
+	void addDead(Blob blob) {
+		if (blob.getId() != size)
+			throw new IllegalArgumentException("Blob id must be " + size);
+
+		if (size == slots.length)
+			grow();
+
+		slots[size] = blob;
+		livePositions[size] = -1;
+		freeIds[(freeHead + freeCount) % freeIds.length] = size;
+		freeCount++;
+		size++;
+	}
+
+	/**
+	 * Reorders the live range and the free list. The first liveCount ids
+	 * become the live range in the given order and the remaining ids become
+	 * the free list, the first of them being respawned first. This is used
+	 * to restore the exact order of a captured pool.
+	 * 
+	 * @param ids every id of the pool exactly once
+	 * @param newLiveCount the amount of live blobs
+	 * @throws IllegalArgumentException if the ids are not a permutation of
+	 * 		the ids of the pool or the live count is out of range
+	 */
+	void restoreOrder(int[] ids, int newLiveCount) {
+		if (ids.length != size || newLiveCount < 0 || newLiveCount > size)
+			throw new IllegalArgumentException("Order does not match the pool");
+
+		boolean[] seen = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			int id = ids[i];
+			if (id < 0 || id >= size || seen[id])
+				throw new IllegalArgumentException("Order is not a permutation of the ids");
+			seen[id] = true;
+		}
+
+		for (int i = 0; i < size; i++)
+			livePositions[ids[i]] = i < newLiveCount ? i : -1;
+		System.arraycopy(ids, 0, liveIds, 0, newLiveCount);
+		freeHead = 0;
+		freeCount = size - newLiveCount;
+		System.arraycopy(ids, newLiveCount, freeIds, 0, freeCount);
+		liveCount = newLiveCount;
+	}
+
+	/**
+	 * Gets the amount of live and dead blobs.
+	 * 
+	 * @return the size of the pool
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the amount of live blobs.
+	 * 
+	 * @return the live count
+	 */
+	int getLiveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Gets the amount of dead blobs.
+	 * 
+	 * @return the dead count
+	 */
+	int getDeadCount() {
+		return freeCount;
+	}
+
+	/**
+	 * Gets the blob with the given id.
+	 * 
+	 * @param id the id of the blob
+	 * @return the blob with the id
+	 */
+	Blob getById(int id) {
+		return slots[id];
+	}
+
+	/**
+	 * Gets the live blob at the given position in the live range.
+	 * 
+	 * @param index the position of the blob. The index should be >= 0 and
+	 * 		< getLiveCount().
+	 * @return the live blob
+	 */
+	Blob getLive(int index) {
+		return slots[liveIds[index]];
+	}
+
+	/**
+	 * Indicates if the blob with the given id is in the live range.
+	 * 
+	 * @param id the id of the blob
+	 * @return true if the blob is live, false if it is dead
+	 */
+	boolean isLive(int id) {
+		return livePositions[id] >= 0;
+	}
+
+	/**
+	 * Gets the dead blob that died the given amount of deaths ago, counting
+	 * from the blob that died first.
+	 * 
+	 * @param index the index in the free list. 0 is the blob that died first.
+	 * @return the dead blob
+	 */
+	Blob getDead(int index) {
+		return slots[freeIds[(freeHead + index) % freeIds.length]];
+	}
+
+	/**
+	 * Moves the live blob at the given position to the free list. The last
+	 * live blob takes its position.
+	 * 
+	 * @param index the position of the blob in the live range
+	 */
+	void kill(int index) {
+		int id = liveIds[index];
+		int lastId = liveIds[--liveCount];
+		liveIds[index] = lastId;
+		livePositions[lastId] = index;
+		livePositions[id] = -1;
+
+		freeIds[(freeHead + freeCount) % freeIds.length] = id;
+		freeCount++;
+	}
+
+	/**
+	 * Moves the blob that died first from the free list to the end of the
+	 * live range.
+	 * 
+	 * @return the revived blob
+	 * @throws IllegalStateException if there is no dead blob
+	 */
+	Blob reviveFirstDead() {
+		if (freeCount == 0)
+			throw new IllegalStateException("There are no dead blobs");
+
+		int id = freeIds[freeHead];
+		freeHead = (freeHead + 1) % freeIds.length;
+		freeCount--;
+
+		liveIds[liveCount] = id;
+		livePositions[id] = liveCount;
+		liveCount++;
+		return slots[id];
+	}
+
+	/**
+	 * Reorders the live range by the given keys, smallest key first. Blobs
+	 * with equal keys keep their current order. The ids of the blobs are not
+	 * changed.
+	 * 
+	 * @param keys the key of each live blob, indexed by its position in the
+	 * 		live range. Keys must be >= 0 and < 2^32.
+	 */
+	void sortLive(long[] keys) {
+		if (sortBuffer.length < liveCount)
+			sortBuffer = new long[slots.length];
+
+		//the position is kept in the low bits so equal keys stay in order
+		for (int i = 0; i < liveCount; i++)
+			sortBuffer[i] = (keys[i] << 31) | i;
+		Arrays.sort(sortBuffer, 0, liveCount);
+
+		int[] oldIds = Arrays.copyOf(liveIds, liveCount);
+		for (int i = 0; i < liveCount; i++) {
+			int id = oldIds[(int) (sortBuffer[i] & Integer.MAX_VALUE)];
+			liveIds[i] = id;
+			livePositions[id] = i;
+		}
+	}
+
+	private void grow() {
+		int newLength = slots.length * 2;
+		int[] newFreeIds = new int[newLength];
+		for (int i = 0; i < freeCount; i++)
+			newFreeIds[i] = freeIds[(freeHead + i) % freeIds.length];
+
+		slots = Arrays.copyOf(slots, newLength);
+		liveIds = Arrays.copyOf(liveIds, newLength);
+		livePositions = Arrays.copyOf(livePositions, newLength);
+		freeIds = newFreeIds;
+		freeHead = 0;
+	}
+}
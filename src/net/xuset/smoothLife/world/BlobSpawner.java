@@ -1,9 +1,15 @@
 package net.xuset.smoothLife.world;
 
+import java.util.List;
+
 import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.ChromosomeIds;
+import net.xuset.smoothLife.nnetwork.CounterRandom;
 import net.xuset.smoothLife.nnetwork.GAlg;
 import net.xuset.smoothLife.nnetwork.GenePool;
 import net.xuset.smoothLife.nnetwork.GenePool.PoolItemKey;
+import net.xuset.smoothLife.nnetwork.LineageRecorder;
+import net.xuset.smoothLife.nnetwork.OffspringBreeder;
 
 /**
  * Used to create and spawn blobs in the world.
@@ -14,10 +20,16 @@ import net.xuset.smoothLife.nnetwork.GenePool.PoolItemKey;
 public class BlobSpawner {
 
 	private final GAlg gAlg;
+	private final ChromosomeIds chromosomeIds;
+	private final CounterRandom breedRandom;
 	private final GenePool genePool;
 	private final BlobFinder blobFinder;
 	private final int worldWidth, worldHeight;
 	private final int[] neuronLayout;
+	private final long streamKey;
+
+	private OffspringBreeder breeder = null;
+	private LineageRecorder lineageRecorder = null;
 
 	/**
 	 * Instantiate the blob spawner
@@ -27,16 +39,24 @@ public class BlobSpawner {
 	 * @param worldWidth the width of the world
 	 * @param worldHeight the height of the world
 	 * @param neuronLayout the brains neural layout for the blobs.
+	 * @param streamKey the key of the specie's random number stream. The
+	 * 		streams of the blobs are derived from it.
+	 * @param chromosomeIds the sequence of the world the ids of new
+	 * 		chromosomes are taken from
 	 */
-	BlobSpawner(GenePool genePool, BlobFinder blobFinder,
-			int worldWidth, int worldHeight, int[] neuronLayout) {
+	BlobSpawner(GenePool genePool, BlobFinder blobFinder, int worldWidth,
+			int worldHeight, int[] neuronLayout, long streamKey,
+			ChromosomeIds chromosomeIds) {
 
 		this.genePool = genePool;
 		this.blobFinder = blobFinder;
 		this.worldWidth = worldWidth;
 		this.worldHeight = worldHeight;
 		this.neuronLayout = neuronLayout;
-		gAlg = new GAlg();
+		this.streamKey = streamKey;
+		this.chromosomeIds = chromosomeIds;
+		breedRandom = new CounterRandom(streamKey);
+		gAlg = new GAlg(breedRandom, chromosomeIds);
 	}
 
 	/**
@@ -45,29 +65,153 @@ public class BlobSpawner {
 	 * 
 	 * @param isPrey determines if the blob should be prey or a predator
 	 * @param specieId the specie id of specie the blob belongs to
+	 * @param blobId the id of the blob within the specie
 	 * @return the newly created blob
 	 */
-	public Blob create(boolean isPrey, long specieId) {
-		Chromosome randChromo = new Chromosome(genePool.getBrainWeightCount(), 2);
+	public Blob create(boolean isPrey, long specieId, int blobId) {
+		CounterRandom random = new CounterRandom(CounterRandom.deriveKey(streamKey, blobId));
+		Chromosome randChromo = new Chromosome(genePool.getBrainWeightCount(), 2,
+				random, chromosomeIds);
 		PoolItemKey key = genePool.createNewKey(randChromo);
 		ChromosomeHolder chromoHolder = new ChromosomeHolder(genePool, key, randChromo);
 
-		Blob b = new Blob(neuronLayout, specieId, blobFinder, isPrey, chromoHolder);
+		Blob b = new Blob(neuronLayout, blobId, specieId, blobFinder, isPrey,
+				chromoHolder, random);
 		resetLocation(b);
 		return b;
 	}
 
 	/**
-	 * Calls reset on the blob with a non-colliding location with a new
+	 * Restores a blob with the given state. The previous chromosome is added
+	 * to the gene pool, and neither the location nor the chromosomes are
+	 * changed.
+	 * 
+	 * @param isPrey determines if the blob should be prey or a predator
+	 * @param specieId the specie id of specie the blob belongs to
+	 * @param blobId the id of the blob within the specie
+	 * @param x the x location of the blob
+	 * @param y the y location of the blob
+	 * @param angle the angle of the blob
+	 * @param energy the energy of the blob
+	 * @param age the age of the blob
+	 * @param chromo the current chromosome of the blob
+	 * @param oldChromo the previous chromosome of the blob
+	 * @return the restored blob
+	 */
+	Blob restore(boolean isPrey, long specieId, int blobId, double x, double y,
+			double angle, double energy, int age, Chromosome chromo, Chromosome oldChromo) {
+
+		CounterRandom random = new CounterRandom(CounterRandom.deriveKey(streamKey, blobId));
+		PoolItemKey key = genePool.createNewKey(oldChromo);
+		ChromosomeHolder chromoHolder = new ChromosomeHolder(genePool, key, chromo);
+
+		return new Blob(neuronLayout, blobId, specieId, blobFinder, isPrey,
+				chromoHolder, random, x, y, angle, energy, age);
+	}
+
+	/**
+	 * Creates a new chromosome for each of the given dead blobs. The current
+	 * chromosomes of the blobs are first placed into the gene pool so the
+	 * parents of all the new chromosomes are selected from the same pool.
+	 * If a background breeder is set, ready-made chromosomes are taken from
+	 * its queue first. The remaining chromosomes are bred together in one
+	 * batch. If a lineage recorder is set, the retired chromosomes are
+	 * recorded with the fitness they reached.
+	 * 
+	 * @param blobs the dead blobs that will be respawned
+	 * @param tick the current tick of the world
+	 * @return an array with a new chromosome for each blob
+	 */
+	public Chromosome[] breed(List<Blob> blobs, long tick) {
+		for (int i = 0; i < blobs.size(); i++) {
+			Blob b = blobs.get(i);
+			b.retireChromosome();
+			if (lineageRecorder != null)
+				lineageRecorder.record(b.getChromosome(), tick);
+		}
+
+		Chromosome[] chromos = new Chromosome[blobs.size()];
+		int missing = 0;
+		for (int i = 0; i < chromos.length; i++) {
+			chromos[i] = breeder == null ? null : breeder.poll(tick);
+			if (chromos[i] == null)
+				missing++;
+		}
+
+		Chromosome[] bred = gAlg.createNewChromos(genePool, missing);
+		for (int i = 0, j = 0; i < chromos.length; i++) {
+			if (chromos[i] == null)
+				chromos[i] = bred[j++];
+		}
+
+		if (breeder != null)
+			breeder.publish(genePool.takeSnapshot(tick));
+
+		return chromos;
+	}
+
+	/**
+	 * Calls reset on the blob with a non-colliding location with the given
 	 * chromosome.
 	 * 
 	 * @param blob the blob to reset
+	 * @param newChromo the new chromosome of the blob
+	 * @see #breed(List, long)
 	 */
-	public void respawn(Blob blob) {
+	public void respawn(Blob blob, Chromosome newChromo) {
 		SpawnPoint location = getSpawnLocation(blob);
-		Chromosome newChrmo = gAlg.createNewChromo(genePool);
+		blob.reset(location.x, location.y, newChromo);
+	}
 
-		blob.reset(location.x, location.y, newChrmo);
+	/**
+	 * Sets the breeder used to create chromosomes off of the simulation
+	 * thread. The breeder is given a snapshot of the genepool right away.
+	 * 
+	 * @param newBreeder the new breeder or null to breed on the calling thread
+	 * @param tick the current tick of the world
+	 */
+	void setBreeder(OffspringBreeder newBreeder, long tick) {
+		breeder = newBreeder;
+		if (breeder != null)
+			breeder.publish(genePool.takeSnapshot(tick));
+	}
+
+	/**
+	 * Sets the recorder used to log the ancestry of retired chromosomes.
+	 * 
+	 * @param recorder the new recorder or null to stop recording
+	 */
+	void setLineageRecorder(LineageRecorder recorder) {
+		lineageRecorder = recorder;
+	}
+
+	/**
+	 * Gets the breeder used to create chromosomes off of the simulation thread.
+	 * 
+	 * @return the breeder or null if chromosomes are bred on the calling thread
+	 */
+	OffspringBreeder getBreeder() {
+		return breeder;
+	}
+
+	/**
+	 * Gets the position in the random number stream used for breeding.
+	 * 
+	 * @return the counter of the breeding stream
+	 */
+	long getBreedCounter() {
+		return breedRandom.getCounter();
+	}
+
+	/**
+	 * Moves the random number stream used for breeding to the given
+	 * position, so a restored species breeds the same chromosomes as the
+	 * species it was captured from.
+	 * 
+	 * @param counter the new counter of the breeding stream
+	 */
+	void setBreedCounter(long counter) {
+		breedRandom.setCounter(counter);
 	}
 
 	/**
@@ -98,6 +242,25 @@ public class BlobSpawner {
 		return genePool.getChromosomeCount();
 	}
 
+	/**
+	 * Returns clones of the fittest chromosomes in the genepool.
+	 * 
+	 * @param count the maximum amount of chromosomes to return
+	 * @return the cloned chromosomes ordered from most to least fit
+	 */
+	public Chromosome[] cloneFittest(int count) {
+		return genePool.cloneFittest(count);
+	}
+
+	/**
+	 * Replaces the least fit chromosomes of the genepool with the given ones.
+	 * 
+	 * @param chromos the chromosomes to place into the genepool
+	 */
+	public void replaceWeakest(Chromosome[] chromos) {
+		genePool.replaceWeakest(chromos);
+	}
+
 	/**
 	 * Clones and returns the genepool.
 	 * 
@@ -121,8 +284,8 @@ public class BlobSpawner {
 		int iterations = 0;
 		double x = 0, y = 0;
 		do {
-			x = Math.random() * worldWidth;
-			y = Math.random() * worldHeight;
+			x = b.getRandom().nextDouble() * worldWidth;
+			y = b.getRandom().nextDouble() * worldHeight;
 			b.getBody().setLocation(x, y);
 		} while (blobFinder.getColliding(b.getBody()) != null &&
 				iterations < maxIterations);
@@ -0,0 +1,269 @@
+package net.xuset.smoothLife.world;
+
+import java.nio.ByteBuffer;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+
+/**
+ * A read only view of a blob stored in a snapshot file. The body state is
+ * read when the view is created. The genes stay in the mapped file and are
+ * only read when they are requested, so a view is cheap to create even for
+ * blobs with large brains. If the genes of the snapshot are packed, the view
+ * holds the decoded genes instead. If the snapshot has gene tables, the
+ * genes are read from the table entries the blob refers to. If the snapshot
+ * holds the ids of its chromosomes, the chromosomes read from a view keep
+ * their ids and parents.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see SnapshotFile#getBlob(int, int)
+ */
+public final class BlobView {
+	private final int specie, blobId;
+	private final ByteBuffer record;
+	private final double x, y, angle, energy;
+	private final int age;
+	private final int chromoStart, oldChromoStart;
+	private final double[] genes, oldGenes;
+	private final ByteBuffer entry, oldEntry;
+	private final boolean ids;
+
+	/*
+	 * Creates a view of a blob whose genes are either stored in the record
+	 * or given already decoded. The ids of the chromosomes follow their
+	 * fitness and gene table reference if ids is true.
+	 */
+	BlobView(int specie, int blobId, ByteBuffer record, double[] genes, double[] oldGenes,
+			boolean ids) {
+		this(specie, blobId, record, genes, oldGenes, null, null, ids);
+	}
+
+	/*
+	 * Creates a view of a blob whose genes are stored in gene table entries.
+	 * An entry starts with its gene count followed by the genes.
+	 */
+	BlobView(int specie, int blobId, ByteBuffer record, ByteBuffer entry, ByteBuffer oldEntry,
+			boolean ids) {
+		this(specie, blobId, record, null, null, entry, oldEntry, ids);
+	}
+
+	private BlobView(int specie, int blobId, ByteBuffer record, double[] genes,
+			double[] oldGenes, ByteBuffer entry, ByteBuffer oldEntry, boolean ids) {
+
+		this.specie = specie;
+		this.blobId = blobId;
+		this.record = record;
+		this.genes = genes;
+		this.oldGenes = oldGenes;
+		this.ids = ids;
+
+		x = record.getDouble(0);
+		y = record.getDouble(8);
+		angle = record.getDouble(16);
+		energy = record.getDouble(24);
+		age = record.getInt(32);
+
+		chromoStart = BinaryWorldSerializer.blobHeaderSize;
+		if (genes == null && entry == null) {
+			//the genes follow the fitness of each chromosome in the record
+			entry = slice(record, chromoStart + 8);
+			oldChromoStart = chromoStart + BinaryWorldSerializer.chromoHeaderSize +
+					8 * entry.getInt(0);
+			oldEntry = slice(record, oldChromoStart + 8);
+		} else {
+			oldChromoStart = chromoStart + (ids ?
+					BinaryWorldSerializer.chromoSize : BinaryWorldSerializer.chromoHeaderSize);
+		}
+		this.entry = entry;
+		this.oldEntry = oldEntry;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int start) {
+		ByteBuffer dup = buf.duplicate();
+		dup.position(start);
+		return dup.slice().order(buf.order());
+	}
+
+	/**
+	 * Get the index of the species the blob belongs to.
+	 * 
+	 * @return the index of the blob's species
+	 */
+	public int getSpecie() {
+		return specie;
+	}
+
+	/**
+	 * Get the id of the blob within its species.
+	 * 
+	 * @return the blob's id
+	 */
+	public int getBlobId() {
+		return blobId;
+	}
+
+	/**
+	 * Get the x coordinate of the blob's center.
+	 * 
+	 * @return the x coordinate
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * Get the y coordinate of the blob's center.
+	 * 
+	 * @return the y coordinate
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * Get the angle the blob is facing.
+	 * 
+	 * @return the angle in radians
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 * Get the energy of the blob.
+	 * 
+	 * @return the blob's energy
+	 */
+	public double getEnergy() {
+		return energy;
+	}
+
+	/**
+	 * Get the age of the blob.
+	 * 
+	 * @return the blob's age in ticks
+	 */
+	public int getAge() {
+		return age;
+	}
+
+	/**
+	 * Get the fitness stored with the blob's current chromosome.
+	 * 
+	 * @return the fitness of the current chromosome
+	 */
+	public double getFitness() {
+		return record.getDouble(chromoStart);
+	}
+
+	/**
+	 * Get the amount of genes in the blob's current chromosome.
+	 * 
+	 * @return the gene count
+	 */
+	public int getGeneCount() {
+		return getGeneCount(genes, entry);
+	}
+
+	/**
+	 * Get a gene of the blob's current chromosome.
+	 * 
+	 * @param index the index of the gene. It should be >= 0 and <
+	 * 		getGeneCount().
+	 * @return the gene at the given index
+	 * @throws IndexOutOfBoundsException if the index is out of bounds
+	 */
+	public double getGene(int index) {
+		return getGene(genes, entry, index);
+	}
+
+	/**
+	 * Get the fitness stored with the chromosome the blob last added to its
+	 * gene pool.
+	 * 
+	 * @return the fitness of the previous chromosome
+	 */
+	public double getOldFitness() {
+		return record.getDouble(oldChromoStart);
+	}
+
+	/**
+	 * Get the amount of genes in the chromosome the blob last added to its
+	 * gene pool.
+	 * 
+	 * @return the gene count
+	 */
+	public int getOldGeneCount() {
+		return getGeneCount(oldGenes, oldEntry);
+	}
+
+	/**
+	 * Get a gene of the chromosome the blob last added to its gene pool.
+	 * 
+	 * @param index the index of the gene. It should be >= 0 and <
+	 * 		getOldGeneCount().
+	 * @return the gene at the given index
+	 * @throws IndexOutOfBoundsException if the index is out of bounds
+	 */
+	public double getOldGene(int index) {
+		return getGene(oldGenes, oldEntry, index);
+	}
+
+	/**
+	 * Reads the blob's current chromosome into a new Chromosome.
+	 * 
+	 * @return a copy of the current chromosome with its fitness, and its id
+	 * 		and parents if the snapshot holds them
+	 */
+	public Chromosome readChromosome() {
+		return readChromosome(chromoStart, genes, entry);
+	}
+
+	/**
+	 * Reads the chromosome the blob last added to its gene pool into a new
+	 * Chromosome.
+	 * 
+	 * @return a copy of the previous chromosome with its fitness, and its id
+	 * 		and parents if the snapshot holds them
+	 */
+	public Chromosome readOldChromosome() {
+		return readChromosome(oldChromoStart, oldGenes, oldEntry);
+	}
+
+	private static int getGeneCount(double[] packed, ByteBuffer entry) {
+		return packed != null ? packed.length : entry.getInt(0);
+	}
+
+	private static double getGene(double[] packed, ByteBuffer entry, int index) {
+		if (index < 0 || index >= getGeneCount(packed, entry))
+			throw new IndexOutOfBoundsException("Gene index " + index);
+
+		if (packed != null)
+			return packed[index];
+		return entry.getDouble(4 + 8 * index);
+	}
+
+	private Chromosome readChromosome(int start, double[] packed, ByteBuffer entry) {
+		double[] genes;
+		if (packed != null) {
+			genes = packed.clone();
+		} else {
+			genes = new double[entry.getInt(0)];
+			ByteBuffer buf = slice(entry, 4);
+			buf.asDoubleBuffer().get(genes);
+		}
+
+		Chromosome chromo;
+		if (ids) {
+			//the ids follow the fitness and the gene table reference
+			int idStart = start + BinaryWorldSerializer.chromoHeaderSize;
+			chromo = new Chromosome(genes, record.getLong(idStart),
+					record.getLong(idStart + 8), record.getLong(idStart + 16),
+					record.getInt(idStart + 24), record.getInt(idStart + 28));
+		} else {
+			chromo = new Chromosome(genes);
+		}
+		chromo.setFitness(record.getDouble(start));
+		return chromo;
+	}
+}
@@ -140,22 +140,65 @@ public final class Body {
 	 * back.
 	 * 
 	 * @param distance the distance to move forward
-	 * @param blobFinder the object used to find nearby bodies and test for
+	 * @param detector the object used to find nearby bodies and test for
 	 * 		collisions.
 	 */
-	void moveForward(double distance, BlobFinder blobFinder) {
+	void moveForward(double distance, CollisionDetector detector) {
 		double dx = Math.cos(angle) * distance * moveCoefficient;
 		double dy = -Math.sin(angle) * distance * moveCoefficient;
 
 		x += dx;
-		if (blobFinder.getColliding(this) != null)
+		if (detector.getColliding(this) != null)
 			x -= dx;
 
 		y += dy;
-		if (blobFinder.getColliding(this) != null)
+		if (detector.getColliding(this) != null)
 			y -= dy;
 	}
 
+	/**
+	 * Turns and moves the body as if adjustAngle and then moveForward were
+	 * called once per tick for the given amount of ticks. Every point the
+	 * body reaches on a tick is tested for a collision, so the body cannot
+	 * pass through another body. If a point collides, the body stays at the
+	 * point before it and only finishes turning.
+	 * 
+	 * @param ticks the amount of ticks to advance
+	 * @param deltaAngle the angle turned every tick
+	 * @param distance the distance moved every tick before the move
+	 * 		coefficient is applied
+	 * @param detector the object used to find colliding blobs
+	 */
+	void advance(int ticks, double deltaAngle, double distance, CollisionDetector detector) {
+		if (distance == 0.0) {
+			angle += ticks * deltaAngle;
+			return;
+		}
+
+		double step = distance * moveCoefficient;
+		for (int i = 0; i < ticks; i++) {
+			angle += deltaAngle;
+			double lastX = x, lastY = y;
+			x += Math.cos(angle) * step;
+			y -= Math.sin(angle) * step;
+
+			if (detector.getColliding(this) != null) {
+				x = lastX;
+				y = lastY;
+				angle += (ticks - 1 - i) * deltaAngle;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the move coefficient of the body.
+	 * @return the move coefficient
+	 */
+	double getMoveCoefficient() {
+		return moveCoefficient;
+	}
+
 	/**
 	 * Sets the move coefficients for the body.
 	 * Move coefficients are used by the moveForward function.
@@ -0,0 +1,323 @@
+package net.xuset.smoothLife.world;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes checkpoints of a world without holding up the thread that updates
+ * it. Between two ticks the world is captured in a WorldImage, which copies
+ * the blob state but not the genes. Encoding, optional compression and
+ * writing the file then happen on a background thread while the world
+ * keeps running. A checkpoint is first written to a temporary file, forced
+ * to disk and then renamed to its final name in one atomic step, so a
+ * checkpoint file is either complete or not there at all. The directory is
+ * forced to disk after the rename so the new name survives a crash as well.
+ * 
+ * <p>
+ * If the background thread falls behind by more than a couple of
+ * checkpoints, new checkpoints are skipped rather than queued so the
+ * images do not pile up in memory. The time the updating thread spends
+ * capturing images is recorded and can be used to judge the cost of
+ * checkpointing. A checkpoint that cannot be written is counted as failed
+ * and the exception is kept, so the caller can report it.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see BinaryWorldSerializer
+ */
+public class CheckpointService {
+	private static final int maxPending = 2;
+	private static final int compressBufferSize = 64 * 1024;
+
+	private final File directory;
+	private final long interval;
+	private final int retainCount;
+	private final boolean compress;
+	private final ExecutorService writer;
+	private final ArrayDeque<File> written = new ArrayDeque<File>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger writtenCount = new AtomicInteger();
+	private final AtomicInteger failedCount = new AtomicInteger();
+
+	private volatile boolean packGenes = false;
+	private volatile Exception lastFailure = null;
+	private int capturedCount = 0, skippedCount = 0;
+	private long lastPauseNanos = 0, maxPauseNanos = 0, totalPauseNanos = 0;
+
+	/**
+	 * Creates a new checkpoint service with its own background thread.
+	 * 
+	 * @param directory the directory to write the checkpoints to
+	 * @param interval the amount of ticks between checkpoints
+	 * @param retainCount the amount of checkpoints to keep on disk, or 0 to
+	 * 		keep all of them. Older checkpoints written by this service are
+	 * 		deleted.
+	 * @param compress true to compress the checkpoints with gzip
+	 * @throws IllegalArgumentException if interval is less than 1 or
+	 * 		retainCount is negative
+	 */
+	public CheckpointService(File directory, long interval, int retainCount, boolean compress) {
+		if (interval < 1 || retainCount < 0)
+			throw new IllegalArgumentException("Invalid checkpoint interval or retain count");
+
+		this.directory = directory;
+		this.interval = interval;
+		this.retainCount = retainCount;
+		this.compress = compress;
+		writer = Executors.newSingleThreadExecutor(new WriterThreadFactory());
+	}
+
+	/**
+	 * Sets whether the genes of the checkpoints are packed with GeneCodec.
+	 * Packing makes the checkpoints smaller at the cost of more work on the
+	 * background thread. By default the genes are not packed.
+	 * 
+	 * @param packGenes true to pack the genes
+	 */
+	public void setPackGenes(boolean packGenes) {
+		this.packGenes = packGenes;
+	}
+
+	/**
+	 * Takes a checkpoint if the world's tick count is a multiple of the
+	 * interval. This must be called from the thread that updates the world,
+	 * between ticks.
+	 * 
+	 * @param world the world to checkpoint
+	 * @return true if a checkpoint was taken
+	 */
+	public boolean onTick(World world) {
+		if (world.getTicks() % interval != 0)
+			return false;
+		return checkpoint(world);
+	}
+
+	/**
+	 * Captures the world and queues the checkpoint to be written. This must
+	 * be called from the thread that updates the world, between ticks.
+	 * 
+	 * @param world the world to checkpoint
+	 * @return true if the checkpoint was queued, false if it was skipped
+	 * 		because the background thread is behind
+	 */
+	public boolean checkpoint(World world) {
+		if (pending.get() >= maxPending) {
+			skippedCount++;
+			return false;
+		}
+
+		long start = System.nanoTime();
+		final WorldImage image = new WorldImage(world);
+		long pause = System.nanoTime() - start;
+
+		lastPauseNanos = pause;
+		maxPauseNanos = Math.max(maxPauseNanos, pause);
+		totalPauseNanos += pause;
+		capturedCount++;
+
+		pending.incrementAndGet();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					write(image);
+					writtenCount.incrementAndGet();
+				} catch (IOException ex) {
+					fail(ex);
+				} catch (RuntimeException ex) {
+					fail(ex);
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+		});
+		return true;
+	}
+
+	private void fail(Exception ex) {
+		lastFailure = ex;
+		failedCount.incrementAndGet();
+	}
+
+	private void write(WorldImage image) throws IOException {
+		String name = "checkpoint-" + image.ticks + (compress ? ".slw.gz" : ".slw");
+		File target = new File(directory, name);
+		writeFile(image, target, compress, packGenes);
+
+		written.addLast(target);
+		while (retainCount > 0 && written.size() > retainCount)
+			written.removeFirst().delete();
+	}
+
+	/**
+	 * Writes the snapshot of an image to a file. The snapshot is written to
+	 * a temporary file next to the target, forced to disk and renamed to the
+	 * target in one atomic step. The directory is forced to disk afterwards.
+	 * 
+	 * @param image the image to write
+	 * @param target the file to write
+	 * @param compress true to compress the snapshot with gzip
+	 * @param packGenes true to pack the genes with GeneCodec
+	 * @throws IOException if the file cannot be written
+	 */
+	static void writeFile(WorldImage image, File target, boolean compress, boolean packGenes)
+			throws IOException {
+
+		File temp = new File(target.getPath() + ".tmp");
+		boolean moved = false;
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				FileChannel channel = out.getChannel();
+				if (compress) {
+					GZIPOutputStream gzip = new GZIPOutputStream(
+							Channels.newOutputStream(channel), compressBufferSize);
+					BinaryWorldSerializer.writeImage(image, Channels.newChannel(gzip), packGenes);
+					gzip.finish();
+				} else {
+					BinaryWorldSerializer.writeImage(image, channel, packGenes);
+				}
+				channel.force(true);
+			} finally {
+				out.close();
+			}
+
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			moved = true;
+		} finally {
+			if (!moved)
+				temp.delete();
+		}
+
+		forceDirectory(target.getAbsoluteFile().getParentFile());
+	}
+
+	/*
+	 * Forces the entries of a directory to disk. Some platforms cannot open
+	 * a directory, in which case the rename is as durable as the file system
+	 * makes it on its own.
+	 */
+	private static void forceDirectory(File dir) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+		} catch (IOException ex) {
+			return;
+		}
+
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Waits for the queued checkpoints to be written and stops the background
+	 * thread. The service should not be used afterwards.
+	 * 
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public void close() throws InterruptedException {
+		writer.shutdown();
+		writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the amount of checkpoints that were captured and queued.
+	 * 
+	 * @return the captured checkpoint count
+	 */
+	public int getCapturedCount() {
+		return capturedCount;
+	}
+
+	/**
+	 * Gets the amount of checkpoints that were skipped because the background
+	 * thread was behind.
+	 * 
+	 * @return the skipped checkpoint count
+	 */
+	public int getSkippedCount() {
+		return skippedCount;
+	}
+
+	/**
+	 * Gets the amount of checkpoints that were written to disk.
+	 * 
+	 * @return the written checkpoint count
+	 */
+	public int getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * Gets the amount of checkpoints that could not be written.
+	 * 
+	 * @return the failed checkpoint count
+	 */
+	public int getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Gets the exception of the last checkpoint that could not be written.
+	 * 
+	 * @return the last failure or null if no checkpoint failed
+	 */
+	public Exception getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Gets how long the updating thread was held up by the last checkpoint.
+	 * 
+	 * @return the pause of the last checkpoint in nanoseconds
+	 */
+	public long getLastPauseNanos() {
+		return lastPauseNanos;
+	}
+
+	/**
+	 * Gets the longest time the updating thread was held up by a checkpoint.
+	 * 
+	 * @return the longest pause in nanoseconds
+	 */
+	public long getMaxPauseNanos() {
+		return maxPauseNanos;
+	}
+
+	/**
+	 * Gets the average time the updating thread was held up by a checkpoint.
+	 * 
+	 * @return the average pause in nanoseconds, or 0 if no checkpoint was
+	 * 		taken
+	 */
+	public long getAveragePauseNanos() {
+		return capturedCount == 0 ? 0 : totalPauseNanos / capturedCount;
+	}
+
+	private static final class WriterThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SmoothLife-checkpoint");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -48,6 +48,22 @@ class ChromosomeHolder{
 		chromosome = newChromosome;
 	}
 
+	/**
+	 * Places the current chromosome into the gene pool while also keeping it
+	 * as the current chromosome.
+	 */
+	void storeInGenePool() {
+		genePool.setChromosome(key, chromosome);
+	}
+
+	/**
+	 * Gets the chromosome that is in the genepool without copying it.
+	 * @return the chromosome in the genepool
+	 */
+	Chromosome getChromosomeInGenePool() {
+		return genePool.getChromosome(key);
+	}
+
 	/**
 	 * Create and return a clone of the chromosome that is in the genepool
 	 * @return a clone of the chromosome in the genepool.
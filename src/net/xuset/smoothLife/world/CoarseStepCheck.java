@@ -0,0 +1,84 @@
+package net.xuset.smoothLife.world;
+
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Checks that blobs catching up on coarse steps do not pass through or land
+ * on other blobs. Blobs are put into coarse steps directly, which is why the
+ * check lives in the world package. In the first case a blob catches up on
+ * a path that crosses another blob, and in the second case two blobs whose
+ * steps end on the same tick catch up towards the same point. If any blobs
+ * end up overlapping, or the first blob ends up past the blob in its path,
+ * the program exits with a non-zero status.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see TickEngine#setMaxCoarseStep(int)
+ */
+public class CoarseStepCheck {
+	private static final int[] neuronLayout = { 8, 20, 20, 4 };
+	private static final int worldSize = 3000;
+	private static final int coarseStep = 500;
+	private static final int moveBit = 1 << BlobActions.MOVE_FORWARD.ordinal();
+
+	/**
+	 * Entry point into the program.
+	 * 
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		SpecieInfo[] speciesInfo = {
+				new SpecieInfo(true, 0L, neuronLayout, 2, 0.0),
+				new SpecieInfo(false, 1L, neuronLayout, 2, 0.0)
+		};
+		World world = new WorldFactory().createNewWorld(
+				new WorldInfo(speciesInfo, worldSize, worldSize, 1L));
+		TickEngine engine = new TickEngine(1);
+		engine.setMaxCoarseStep(coarseStep);
+		world.setTickEngine(engine);
+
+		//a blob whose catch up crosses a blob that came close
+		Blob runner = world.getSpecie(0).getBlobById(0);
+		Blob obstacle = world.getSpecie(0).getBlobById(1);
+		double gap = 40 * runner.getMaxMoveDistance();
+		place(runner, 500, 500, 0.0);
+		runner.restoreCoarseStep(coarseStep, coarseStep - 2, moveBit);
+		place(obstacle, 500 + runner.getBody().getRadius() +
+				obstacle.getBody().getRadius() + gap, 500, 0.0);
+
+		//two blobs whose catch ups end at the same point
+		Blob left = world.getSpecie(1).getBlobById(0);
+		Blob right = world.getSpecie(1).getBlobById(1);
+		int ticks = coarseStep - 1;
+		double meet = 1000 + ticks * left.getMaxMoveDistance();
+		place(left, 1000, 2000, 0.0);
+		left.restoreCoarseStep(coarseStep, ticks, moveBit);
+		place(right, meet + ticks * right.getMaxMoveDistance(), 2000, Math.PI);
+		right.restoreCoarseStep(coarseStep, ticks, moveBit);
+
+		world.updateBlobs();
+		engine.shutdown();
+
+		boolean failed = false;
+		if (runner.getBody().isColliding(obstacle.getBody()) ||
+				runner.getBody().getX() > obstacle.getBody().getX()) {
+			System.err.println("A catch up passed through another blob");
+			failed = true;
+		}
+		if (left.getBody().isColliding(right.getBody())) {
+			System.err.println("Two catch ups ended on the same spot");
+			failed = true;
+		}
+
+		if (failed)
+			System.exit(1);
+		System.out.println("Coarse steps kept the blobs apart");
+		System.exit(0);
+	}
+
+	private static void place(Blob blob, double x, double y, double angle) {
+		blob.getBody().setLocation(x, y);
+		blob.getBody().setAngle(angle);
+	}
+}
@@ -0,0 +1,21 @@
+package net.xuset.smoothLife.world;
+
+/**
+ * Finds a blob that collides with a given body. Used by the body to check if
+ * it can move to a new location.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see Body#moveForward(double, CollisionDetector)
+ */
+interface CollisionDetector {
+
+	/**
+	 * Gets a blob that is colliding with the given body.
+	 * 
+	 * @param body the body to test collisions against
+	 * @return a colliding blob or null if the body is not colliding with
+	 * 		anything
+	 */
+	Blob getColliding(Body body);
+}
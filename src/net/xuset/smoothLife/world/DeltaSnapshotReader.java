@@ -0,0 +1,249 @@
+package net.xuset.smoothLife.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads worlds back from a history written by DeltaSnapshotWriter. When
+ * the history is opened, only the frame headers are read, so any recorded
+ * tick can be found without decoding the frames before it. A world is
+ * rebuilt by reading the keyframe at or before the requested frame and
+ * applying the delta frames that follow it. A frame that was cut off at the
+ * end of the file, for example because the writer was stopped, is ignored.
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see DeltaSnapshotWriter
+ */
+public class DeltaSnapshotReader implements Closeable {
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private static final int unidentifiedVersion = 1;
+
+	private final double positionStep, angleStep, energyStep;
+	private final int version;
+
+	private long[] frameTicks = new long[64];
+	private long[] framePositions = new long[64];
+	private boolean[] keyframes = new boolean[64];
+	private int frameCount = 0;
+
+	/**
+	 * Opens the given history and reads its frame headers.
+	 * 
+	 * @param path the history file to open
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is not a history of a
+	 * 		supported version
+	 */
+	public DeltaSnapshotReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+
+		try {
+			ByteBuffer header = read(0, DeltaSnapshotWriter.historyHeaderSize);
+			if (header == null || header.getInt() != DeltaSnapshotWriter.MAGIC)
+				throw new IllegalArgumentException("Not a world history");
+			version = header.getInt();
+			if (version < unidentifiedVersion || version > DeltaSnapshotWriter.VERSION)
+				throw new IllegalArgumentException("Unsupported history version " + version);
+
+			positionStep = header.getDouble();
+			angleStep = header.getDouble();
+			energyStep = header.getDouble();
+			indexFrames();
+		} catch (IOException ex) {
+			file.close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			file.close();
+			throw ex;
+		}
+	}
+
+	private void indexFrames() throws IOException {
+		long position = DeltaSnapshotWriter.historyHeaderSize;
+		long size = channel.size();
+
+		while (true) {
+			ByteBuffer header = read(position, DeltaSnapshotWriter.frameHeaderSize);
+			if (header == null)
+				return;
+
+			byte type = header.get();
+			long tick = header.getLong();
+			long payloadSize = header.getLong();
+			long end = position + DeltaSnapshotWriter.frameHeaderSize + payloadSize;
+			if (payloadSize < 0 || end > size)
+				return;
+			if (type != DeltaSnapshotWriter.keyframeType && type != DeltaSnapshotWriter.deltaType)
+				throw new IllegalArgumentException("Invalid frame type " + type);
+			if (frameCount == 0 && type != DeltaSnapshotWriter.keyframeType)
+				throw new IllegalArgumentException("History does not start with a keyframe");
+
+			addFrame(tick, position, type == DeltaSnapshotWriter.keyframeType);
+			position = end;
+		}
+	}
+
+	private void addFrame(long tick, long position, boolean keyframe) {
+		if (frameCount == frameTicks.length) {
+			frameTicks = Arrays.copyOf(frameTicks, 2 * frameCount);
+			framePositions = Arrays.copyOf(framePositions, 2 * frameCount);
+			keyframes = Arrays.copyOf(keyframes, 2 * frameCount);
+		}
+
+		frameTicks[frameCount] = tick;
+		framePositions[frameCount] = position;
+		keyframes[frameCount] = keyframe;
+		frameCount++;
+	}
+
+	/**
+	 * Gets the amount of complete frames in the history.
+	 * 
+	 * @return the frame count
+	 */
+	public int getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Gets the tick of the world stored in a frame.
+	 * 
+	 * @param frame the index of the frame
+	 * @return the tick of the frame
+	 */
+	public long getFrameTick(int frame) {
+		checkFrame(frame);
+		return frameTicks[frame];
+	}
+
+	/**
+	 * Indicates if a frame is a keyframe.
+	 * 
+	 * @param frame the index of the frame
+	 * @return true if the frame holds a full snapshot
+	 */
+	public boolean isKeyframe(int frame) {
+		checkFrame(frame);
+		return keyframes[frame];
+	}
+
+	/**
+	 * Finds the last frame that was recorded at or before the given tick.
+	 * 
+	 * @param tick the tick to look for
+	 * @return the index of the frame or -1 if every frame is later
+	 */
+	public int findFrame(long tick) {
+		int low = 0, high = frameCount - 1, found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (frameTicks[middle] <= tick) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Rebuilds the world of the last frame that was recorded at or before the
+	 * given tick.
+	 * 
+	 * @param tick the tick to rebuild
+	 * @return the newly created world
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if there is no frame at or before the
+	 * 		tick or a frame is invalid
+	 */
+	public World readWorld(long tick) throws IOException {
+		int frame = findFrame(tick);
+		if (frame < 0)
+			throw new IllegalArgumentException("No frame at or before tick " + tick);
+		return readFrame(frame);
+	}
+
+	/**
+	 * Rebuilds the world stored in a frame.
+	 * 
+	 * @param frame the index of the frame
+	 * @return the newly created world
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if a frame is invalid
+	 */
+	public World readFrame(int frame) throws IOException {
+		checkFrame(frame);
+
+		int keyframe = frame;
+		while (!keyframes[keyframe])
+			keyframe--;
+
+		channel.position(framePositions[keyframe] + DeltaSnapshotWriter.frameHeaderSize);
+		World world = BinaryWorldSerializer.readWorld(channel);
+		if (keyframe == frame)
+			return world;
+
+		DeltaState state = new DeltaState(world, positionStep, angleStep, energyStep,
+				version != unidentifiedVersion);
+		for (int f = keyframe + 1; f <= frame; f++) {
+			ByteBuffer header = read(framePositions[f], DeltaSnapshotWriter.frameHeaderSize);
+			header.position(1 + 8);
+			long payloadSize = header.getLong();
+			if (payloadSize > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Delta frame is too large");
+
+			ByteBuffer payload = read(framePositions[f] + DeltaSnapshotWriter.frameHeaderSize,
+					(int) payloadSize);
+			state.decodeNextId(payload);
+			for (int i = 0; i < world.getSpeciesCount(); i++) {
+				for (int j = 0; j < world.getSpecie(i).getTotalBlobCount(); j++)
+					state.decode(i, j, payload);
+			}
+		}
+
+		return state.createWorld(world, frameTicks[frame]);
+	}
+
+	private void checkFrame(int frame) {
+		if (frame < 0 || frame >= frameCount)
+			throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+	}
+
+	/*
+	 * Reads the given range of the file, or returns null if the file ends
+	 * before the range does.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				return null;
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Closes the history file.
+	 * 
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
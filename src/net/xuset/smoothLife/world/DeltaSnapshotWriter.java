@@ -0,0 +1,209 @@
+package net.xuset.smoothLife.world;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Records the history of a world as a chain of frames. The first frame and
+ * every keyframeInterval-th frame after it is a keyframe, which is a full
+ * snapshot written by BinaryWorldSerializer. The frames in between only hold
+ * what changed since the frame before them. Chromosomes only change when a
+ * blob respawns, so they are written again only when their id changes.
+ * Locations, angles and energies are written as differences quantised to a
+ * fixed step, which takes one or two bytes per value for nearby ticks. Ages
+ * are written exactly.
+ * 
+ * <p>
+ * A history starts with the magic number, the format version and the three
+ * quantisation steps. Each frame starts with its type, the tick of the
+ * world and the length of the frame's payload. A delta payload holds the
+ * next id of the world's chromosome id sequence followed by the blobs of
+ * every species in id order as described in DeltaState. Version 1 deltas do
+ * not hold any chromosome ids.
+ * </p>
+ * 
+ * <p>
+ * Because of the quantisation, a world read back from a delta frame is
+ * close to, but not bit for bit the same as, the world that was written.
+ * Worlds read back from keyframes are exact.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see DeltaSnapshotReader
+ */
+public class DeltaSnapshotWriter {
+	/** The first four bytes of every history, "SLWD" in little-endian. */
+	public static final int MAGIC = 0x44574C53;
+
+	/** The version of the format written by this class. */
+	public static final int VERSION = 2;
+
+	/** The quantisation step of the blob locations. */
+	public static final double POSITION_STEP = 1.0 / 256;
+
+	/** The quantisation step of the blob angles in radians. */
+	public static final double ANGLE_STEP = 1.0 / 4096;
+
+	/** The quantisation step of the blob energies. */
+	public static final double ENERGY_STEP = 1.0 / 256;
+
+	static final byte keyframeType = 0;
+	static final byte deltaType = 1;
+	static final int historyHeaderSize = 4 + 4 + 8 + 8 + 8;
+	static final int frameHeaderSize = 1 + 8 + 8;
+
+	private final WritableByteChannel channel;
+	private final int keyframeInterval;
+
+	private DeltaState state = null;
+	private ByteBuffer deltaBuffer =
+			ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+	private int framesSinceKeyframe = 0;
+	private long keyframeBytes = 0, deltaBytes = 0;
+
+	/**
+	 * Starts a new history in the given channel. The channel is not closed
+	 * by the writer.
+	 * 
+	 * @param channel the channel to write to
+	 * @param keyframeInterval the amount of frames from one keyframe to the
+	 * 		next. 1 writes only keyframes.
+	 * @throws IOException if the channel cannot be written to
+	 * @throws IllegalArgumentException if keyframeInterval is less than 1
+	 */
+	public DeltaSnapshotWriter(WritableByteChannel channel, int keyframeInterval)
+			throws IOException {
+
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("keyframeInterval must be greater than 0");
+
+		this.channel = channel;
+		this.keyframeInterval = keyframeInterval;
+
+		ByteBuffer header = ByteBuffer.allocate(historyHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putDouble(POSITION_STEP);
+		header.putDouble(ANGLE_STEP);
+		header.putDouble(ENERGY_STEP);
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Starts a new history in the given stream. The stream is not closed by
+	 * the writer.
+	 * 
+	 * @param stream the stream to write to
+	 * @param keyframeInterval the amount of frames from one keyframe to the
+	 * 		next. 1 writes only keyframes.
+	 * @throws IOException if the stream cannot be written to
+	 * @throws IllegalArgumentException if keyframeInterval is less than 1
+	 */
+	public DeltaSnapshotWriter(OutputStream stream, int keyframeInterval) throws IOException {
+		this(Channels.newChannel(stream), keyframeInterval);
+	}
+
+	/**
+	 * Writes the current state of the world as the next frame. A keyframe is
+	 * written if one is due or if the world's species or blob counts differ
+	 * from the last frame.
+	 * 
+	 * @param world the world to record
+	 * @throws IOException if the channel cannot be written to
+	 */
+	public void writeFrame(World world) throws IOException {
+		if (state == null || framesSinceKeyframe + 1 >= keyframeInterval ||
+				!state.isCompatible(world)) {
+			writeKeyframe(world);
+		} else {
+			writeDelta(world);
+		}
+	}
+
+	/**
+	 * Writes the current state of the world as a keyframe, whether or not one
+	 * is due.
+	 * 
+	 * @param world the world to record
+	 * @throws IOException if the channel cannot be written to
+	 */
+	public void writeKeyframe(World world) throws IOException {
+		WorldImage image = new WorldImage(world);
+		long size = BinaryWorldSerializer.getSerializedSize(image, null);
+		write(createFrameHeader(keyframeType, world.getTicks(), size));
+		BinaryWorldSerializer.writeImage(image, channel, false);
+
+		state = new DeltaState(world, POSITION_STEP, ANGLE_STEP, ENERGY_STEP, true);
+		framesSinceKeyframe = 0;
+		keyframeBytes += frameHeaderSize + size;
+	}
+
+	private void writeDelta(World world) throws IOException {
+		deltaBuffer.clear();
+		ensureRemaining(8);
+		state.encodeNextId(world, deltaBuffer);
+		for (int i = 0; i < world.getSpeciesCount(); i++) {
+			Specie specie = world.getSpecie(i);
+			for (int j = 0; j < specie.getTotalBlobCount(); j++) {
+				Blob b = specie.getBlobById(j);
+				ensureRemaining(DeltaState.getMaxEncodedSize(b));
+				state.encode(i, j, b, deltaBuffer);
+			}
+		}
+		deltaBuffer.flip();
+
+		write(createFrameHeader(deltaType, world.getTicks(), deltaBuffer.remaining()));
+		deltaBytes += frameHeaderSize + deltaBuffer.remaining();
+		write(deltaBuffer);
+		framesSinceKeyframe++;
+	}
+
+	private void ensureRemaining(int bytes) {
+		if (deltaBuffer.remaining() >= bytes)
+			return;
+
+		int capacity = Math.max(2 * deltaBuffer.capacity(), deltaBuffer.position() + bytes);
+		ByteBuffer bigger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		deltaBuffer.flip();
+		bigger.put(deltaBuffer);
+		deltaBuffer = bigger;
+	}
+
+	private static ByteBuffer createFrameHeader(byte type, long tick, long payloadSize) {
+		ByteBuffer header = ByteBuffer.allocate(frameHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(type);
+		header.putLong(tick);
+		header.putLong(payloadSize);
+		header.flip();
+		return header;
+	}
+
+	private void write(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	/**
+	 * Gets the amount of bytes written in keyframes, headers included.
+	 * 
+	 * @return the bytes written in keyframes
+	 */
+	public long getKeyframeBytes() {
+		return keyframeBytes;
+	}
+
+	/**
+	 * Gets the amount of bytes written in delta frames, headers included.
+	 * 
+	 * @return the bytes written in delta frames
+	 */
+	public long getDeltaBytes() {
+		return deltaBytes;
+	}
+}
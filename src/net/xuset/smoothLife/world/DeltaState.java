@@ -0,0 +1,415 @@
+package net.xuset.smoothLife.world;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Holds the state of every blob as it was last encoded into, or decoded
+ * from, a delta snapshot. The writer and the reader both keep one, and both
+ * move it forward with the same arithmetic, so the quantised values never
+ * drift apart. Differences are always taken against this state and not
+ * against the exact values of the previous tick, so the error of a value
+ * never grows beyond half a quantisation step no matter how long the delta
+ * chain is.
+ * 
+ * <p>
+ * A blob is encoded as a byte of flags followed by the fields the flags
+ * announce. The body fields are zigzag encoded variable length integers of
+ * the quantised differences. A chromosome with a new id is written in full,
+ * unless it is the chromosome the blob used before, which happens whenever
+ * a blob respawns and its old chromosome moves to the gene pool. A
+ * chromosome that only changed its fitness is written as the fitness alone.
+ * A chromosome written in full holds its fitness, its id, the ids of its
+ * parents, the range of genes copied from the second parent and its genes.
+ * Version 1 histories do not hold the ids, so the reader gives the
+ * chromosomes of their deltas new ids that continue the keyframe's sequence.
+ * </p>
+ * 
+ * <p>
+ * Chromosomes are told apart by their ids and not by reference. A world
+ * restored from a snapshot has new Chromosome objects, and the ones with
+ * equal genes share one gene array, but every chromosome keeps the id,
+ * parents and fitness it was saved with. The deltas of a restored world are
+ * therefore the same as those of the world that was saved.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see DeltaSnapshotWriter
+ * @see DeltaSnapshotReader
+ */
+final class DeltaState {
+	private static final int bodyChanged = 1;
+	private static final int chromoFull = 2;
+	private static final int chromoFitness = 4;
+	private static final int oldChromoFull = 8;
+	private static final int oldChromoFitness = 16;
+	private static final int oldChromoPrevious = 32;
+
+	private final double positionStep, angleStep, energyStep;
+	private final boolean ids;
+	private long nextChromosomeId;
+
+	private final double[][] x, y, angle, energy;
+	private final int[][] age;
+	private final Chromosome[][] chromo, oldChromo;
+	private final long[][] chromoId, oldChromoId;
+	private final double[][] fitness, oldFitness;
+
+	/**
+	 * Creates the state of the given world. The values are copied exactly.
+	 * 
+	 * @param world the world to copy
+	 * @param positionStep the quantisation step of the locations
+	 * @param angleStep the quantisation step of the angles
+	 * @param energyStep the quantisation step of the energies
+	 * @param ids true if the chromosome ids are encoded
+	 */
+	DeltaState(World world, double positionStep, double angleStep, double energyStep,
+			boolean ids) {
+		this.positionStep = positionStep;
+		this.angleStep = angleStep;
+		this.energyStep = energyStep;
+		this.ids = ids;
+		nextChromosomeId = world.getChromosomeIds().getNext();
+
+		int speciesCount = world.getSpeciesCount();
+		x = new double[speciesCount][];
+		y = new double[speciesCount][];
+		angle = new double[speciesCount][];
+		energy = new double[speciesCount][];
+		age = new int[speciesCount][];
+		chromo = new Chromosome[speciesCount][];
+		oldChromo = new Chromosome[speciesCount][];
+		chromoId = new long[speciesCount][];
+		oldChromoId = new long[speciesCount][];
+		fitness = new double[speciesCount][];
+		oldFitness = new double[speciesCount][];
+
+		for (int i = 0; i < speciesCount; i++) {
+			Specie specie = world.getSpecie(i);
+			int count = specie.getTotalBlobCount();
+			x[i] = new double[count];
+			y[i] = new double[count];
+			angle[i] = new double[count];
+			energy[i] = new double[count];
+			age[i] = new int[count];
+			chromo[i] = new Chromosome[count];
+			oldChromo[i] = new Chromosome[count];
+			chromoId[i] = new long[count];
+			oldChromoId[i] = new long[count];
+			fitness[i] = new double[count];
+			oldFitness[i] = new double[count];
+
+			for (int j = 0; j < count; j++) {
+				Blob b = specie.getBlobById(j);
+				x[i][j] = b.getBody().getX();
+				y[i][j] = b.getBody().getY();
+				angle[i][j] = b.getBody().getAngle();
+				energy[i][j] = b.getEnergy();
+				age[i][j] = b.getAge();
+				setChromosome(i, j, b.getChromosome());
+				setOldChromosome(i, j, b.getChromosomeInGenePool());
+			}
+		}
+	}
+
+	private void setChromosome(int specie, int id, Chromosome c) {
+		chromo[specie][id] = c;
+		chromoId[specie][id] = c.getId();
+		fitness[specie][id] = c.getFitness();
+	}
+
+	private void setOldChromosome(int specie, int id, Chromosome c) {
+		oldChromo[specie][id] = c;
+		oldChromoId[specie][id] = c.getId();
+		oldFitness[specie][id] = c.getFitness();
+	}
+
+	/**
+	 * Checks if the given world has the same species and blob counts as the
+	 * world the state was created from.
+	 * 
+	 * @param world the world to check
+	 * @return true if the world can be encoded against this state
+	 */
+	boolean isCompatible(World world) {
+		if (world.getSpeciesCount() != x.length)
+			return false;
+		for (int i = 0; i < x.length; i++) {
+			if (world.getSpecie(i).getTotalBlobCount() != x[i].length)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the most bytes a blob of the given world can take in a delta.
+	 * 
+	 * @param b the blob to measure
+	 * @return an upper bound of the encoded size of the blob
+	 */
+	static int getMaxEncodedSize(Blob b) {
+		return 1 + 5 * 10 + 2 * BinaryWorldSerializer.chromoSize +
+				8 * b.getChromosome().getGeneCount() +
+				8 * b.getChromosomeInGenePool().getGeneCount();
+	}
+
+	/**
+	 * Encodes the next id of the world's chromosome id sequence, which starts
+	 * every delta, and moves the state to it.
+	 * 
+	 * @param world the world being encoded
+	 * @param out the buffer to write to. It must have at least 8 bytes
+	 * 		remaining.
+	 */
+	void encodeNextId(World world, ByteBuffer out) {
+		nextChromosomeId = world.getChromosomeIds().getNext();
+		out.putLong(nextChromosomeId);
+	}
+
+	/**
+	 * Decodes the next chromosome id that starts a delta written by
+	 * encodeNextId. Nothing is read if the ids are not encoded.
+	 * 
+	 * @param in the buffer to read from
+	 * @throws IllegalArgumentException if the buffer does not hold a valid
+	 * 		id
+	 */
+	void decodeNextId(ByteBuffer in) {
+		if (!ids)
+			return;
+		if (in.remaining() < 8)
+			throw new IllegalArgumentException("Delta is truncated");
+
+		nextChromosomeId = in.getLong();
+		if (nextChromosomeId < 0)
+			throw new IllegalArgumentException("Invalid chromosome id " + nextChromosomeId);
+	}
+
+	/**
+	 * Encodes the difference between the state and the blob into the buffer
+	 * and moves the state to the blob's quantised values.
+	 * 
+	 * @param specie the index of the blob's species
+	 * @param id the id of the blob
+	 * @param b the blob to encode
+	 * @param out the buffer to write to. It must have at least
+	 * 		getMaxEncodedSize(b) bytes remaining.
+	 */
+	void encode(int specie, int id, Blob b, ByteBuffer out) {
+		long dx = quantise(b.getBody().getX() - x[specie][id], positionStep);
+		long dy = quantise(b.getBody().getY() - y[specie][id], positionStep);
+		long dAngle = quantise(b.getBody().getAngle() - angle[specie][id], angleStep);
+		long dEnergy = quantise(b.getEnergy() - energy[specie][id], energyStep);
+		long dAge = (long) b.getAge() - age[specie][id];
+
+		Chromosome c = b.getChromosome();
+		Chromosome old = b.getChromosomeInGenePool();
+
+		int flags = 0;
+		if (dx != 0 || dy != 0 || dAngle != 0 || dEnergy != 0 || dAge != 0)
+			flags |= bodyChanged;
+
+		if (c.getId() != chromoId[specie][id])
+			flags |= chromoFull;
+		else if (c.getFitness() != fitness[specie][id])
+			flags |= chromoFitness;
+
+		if (old.getId() != oldChromoId[specie][id]) {
+			if (old.getId() == chromoId[specie][id])
+				flags |= oldChromoPrevious;
+			else
+				flags |= oldChromoFull;
+		} else if (old.getFitness() != oldFitness[specie][id]) {
+			flags |= oldChromoFitness;
+		}
+
+		out.put((byte) flags);
+
+		if ((flags & bodyChanged) != 0) {
+			putVarLong(out, dx);
+			putVarLong(out, dy);
+			putVarLong(out, dAngle);
+			putVarLong(out, dEnergy);
+			putVarLong(out, dAge);
+			applyBody(specie, id, dx, dy, dAngle, dEnergy, dAge);
+		}
+
+		//the old chromosome may be the previous current one, so it goes first
+		if ((flags & oldChromoPrevious) != 0) {
+			out.putDouble(old.getFitness());
+			setOldChromosome(specie, id, old);
+		} else if ((flags & oldChromoFull) != 0) {
+			putChromosome(out, old);
+			setOldChromosome(specie, id, old);
+		} else if ((flags & oldChromoFitness) != 0) {
+			out.putDouble(old.getFitness());
+			oldFitness[specie][id] = old.getFitness();
+		}
+
+		if ((flags & chromoFull) != 0) {
+			putChromosome(out, c);
+			setChromosome(specie, id, c);
+		} else if ((flags & chromoFitness) != 0) {
+			out.putDouble(c.getFitness());
+			fitness[specie][id] = c.getFitness();
+		}
+	}
+
+	/**
+	 * Decodes a blob that was encoded by encode and moves the state to the
+	 * decoded values.
+	 * 
+	 * @param specie the index of the blob's species
+	 * @param id the id of the blob
+	 * @param in the buffer to read from
+	 * @throws IllegalArgumentException if the buffer does not hold a valid
+	 * 		delta
+	 */
+	void decode(int specie, int id, ByteBuffer in) {
+		try {
+			int flags = in.get();
+
+			if ((flags & bodyChanged) != 0) {
+				long dx = getVarLong(in);
+				long dy = getVarLong(in);
+				long dAngle = getVarLong(in);
+				long dEnergy = getVarLong(in);
+				long dAge = getVarLong(in);
+				applyBody(specie, id, dx, dy, dAngle, dEnergy, dAge);
+			}
+
+			if ((flags & oldChromoPrevious) != 0) {
+				oldChromo[specie][id] = chromo[specie][id];
+				oldFitness[specie][id] = in.getDouble();
+			} else if ((flags & oldChromoFull) != 0) {
+				oldChromo[specie][id] = getChromosome(in);
+				oldFitness[specie][id] = oldChromo[specie][id].getFitness();
+			} else if ((flags & oldChromoFitness) != 0) {
+				oldFitness[specie][id] = in.getDouble();
+			}
+
+			if ((flags & chromoFull) != 0) {
+				chromo[specie][id] = getChromosome(in);
+				fitness[specie][id] = chromo[specie][id].getFitness();
+			} else if ((flags & chromoFitness) != 0) {
+				fitness[specie][id] = in.getDouble();
+			}
+		} catch (BufferUnderflowException ex) {
+			throw new IllegalArgumentException("Delta is truncated", ex);
+		}
+	}
+
+	private void applyBody(int specie, int id, long dx, long dy, long dAngle,
+			long dEnergy, long dAge) {
+
+		x[specie][id] += dx * positionStep;
+		y[specie][id] += dy * positionStep;
+		angle[specie][id] += dAngle * angleStep;
+		energy[specie][id] += dEnergy * energyStep;
+		age[specie][id] += (int) dAge;
+	}
+
+	/**
+	 * Restores a new world from the state. The world's chromosomes are
+	 * copies, so the state can be moved on afterwards.
+	 * 
+	 * @param keyframe the world the state was created from, which gives the
+	 * 		size, seed and species of the new world. It must be compatible.
+	 * @param ticks the tick count of the new world
+	 * @return the restored world
+	 */
+	World createWorld(World keyframe, long ticks) {
+		SpecieInfo[] infos = new SpecieInfo[x.length];
+		for (int i = 0; i < infos.length; i++) {
+			Specie specie = keyframe.getSpecie(i);
+			infos[i] = new SpecieInfo(specie.isPrey(), specie.getSpecieId(),
+					specie.cloneNeuronLayout(), x[i].length, specie.getSpawnBudget());
+		}
+
+		WorldImage image = new WorldImage(new WorldInfo(infos, keyframe.getWidth(),
+				keyframe.getHeight(), keyframe.getSeed()), ticks);
+		image.nextChromosomeId = nextChromosomeId;
+		for (int i = 0; i < x.length; i++) {
+			for (int j = 0; j < x[i].length; j++) {
+				Chromosome c = chromo[i][j].clone();
+				c.setFitness(fitness[i][j]);
+				Chromosome old = oldChromo[i][j].clone();
+				old.setFitness(oldFitness[i][j]);
+
+				image.setBlob(i, j, x[i][j], y[i][j], angle[i][j], energy[i][j],
+						age[i][j], c, old);
+			}
+		}
+		return new World(image);
+	}
+
+	private static long quantise(double difference, double step) {
+		return Math.round(difference / step);
+	}
+
+	private void putChromosome(ByteBuffer out, Chromosome c) {
+		out.putDouble(c.getFitness());
+		if (ids) {
+			out.putLong(c.getId());
+			out.putLong(c.getParentIdA());
+			out.putLong(c.getParentIdB());
+			out.putInt(c.getCrossOverStart());
+			out.putInt(c.getCrossOverEnd());
+		}
+		out.putInt(c.getGeneCount());
+		for (int i = 0; i < c.getGeneCount(); i++)
+			out.putDouble(c.getGene(i));
+	}
+
+	private Chromosome getChromosome(ByteBuffer in) {
+		double fitness = in.getDouble();
+		long id = -1, parentIdA = 0, parentIdB = 0;
+		int crossOverStart = 0, crossOverEnd = 0;
+		if (ids) {
+			id = in.getLong();
+			parentIdA = in.getLong();
+			parentIdB = in.getLong();
+			crossOverStart = in.getInt();
+			crossOverEnd = in.getInt();
+		}
+		int geneCount = in.getInt();
+		if (geneCount < 0 || geneCount > in.remaining() / 8)
+			throw new IllegalArgumentException("Invalid gene count " + geneCount);
+
+		double[] genes = new double[geneCount];
+		in.asDoubleBuffer().get(genes);
+		in.position(in.position() + 8 * geneCount);
+
+		Chromosome c = ids ?
+				new Chromosome(genes, id, parentIdA, parentIdB, crossOverStart, crossOverEnd) :
+				new Chromosome(genes, nextChromosomeId++);
+		c.setFitness(fitness);
+		return c;
+	}
+
+	private static void putVarLong(ByteBuffer out, long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			out.put((byte) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.put((byte) zigzag);
+	}
+
+	private static long getVarLong(ByteBuffer in) {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			zigzag |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new IllegalArgumentException("Invalid variable length number");
+	}
+}
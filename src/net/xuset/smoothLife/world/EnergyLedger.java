@@ -0,0 +1,115 @@
+package net.xuset.smoothLife.world;
+
+import java.util.Arrays;
+
+/**
+ * Records the energy that blobs take from or give to each other during a
+ * tick, so that the energy can be changed in one pass after all blobs have
+ * acted. While the blobs act, no blob's energy is changed, which lets the
+ * special actions run in parallel.
+ * 
+ * <p>
+ * Every acting blob owns one slot in the ledger. A slot holds the change to
+ * the acting blob's own energy and at most one change to another blob. Since
+ * every blob writes only to its own slot, slots can be filled from many
+ * threads at once. The slots are applied in slot order, which is the order of
+ * the species and blob ids, so the outcome does not depend on the order in
+ * which the blobs acted.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+final class EnergyLedger {
+	private Blob[] sources = new Blob[0];
+	private double[] sourceDeltas = new double[0];
+	private Blob[] targets = new Blob[0];
+	private double[] targetDeltas = new double[0];
+	private boolean[] attacks = new boolean[0];
+	private int size = 0;
+
+	/**
+	 * Gets the amount of slots in use.
+	 * 
+	 * @return the slot count
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Adds one empty slot to the end of the ledger. This must not be called
+	 * while other threads record into the ledger.
+	 * 
+	 * @return the index of the new slot
+	 */
+	int reserve() {
+		ensureCapacity(size + 1);
+		return size++;
+	}
+
+	/**
+	 * Makes the ledger hold the given amount of empty slots. Any recorded
+	 * changes that were not applied are dropped.
+	 * 
+	 * @param count the amount of slots
+	 */
+	void reserve(int count) {
+		ensureCapacity(count);
+		clearSlots(0, size);
+		size = count;
+	}
+
+	/**
+	 * Records the energy changes caused by a blob's action. Only one action
+	 * can be recorded per slot.
+	 * 
+	 * @param slot the slot of the acting blob
+	 * @param source the acting blob
+	 * @param sourceDelta the change to the acting blob's energy
+	 * @param target the other blob or null if no other blob is changed
+	 * @param targetDelta the change to the other blob's energy
+	 * @param attack indicates if the other blob was attacked
+	 */
+	void record(int slot, Blob source, double sourceDelta, Blob target,
+			double targetDelta, boolean attack) {
+
+		sources[slot] = source;
+		sourceDeltas[slot] = sourceDelta;
+		targets[slot] = target;
+		targetDeltas[slot] = targetDelta;
+		attacks[slot] = attack;
+	}
+
+	/**
+	 * Applies the recorded changes in slot order and empties the ledger.
+	 */
+	void apply() {
+		for (int i = 0; i < size; i++) {
+			if (sources[i] != null)
+				sources[i].applyEnergyDelta(sourceDeltas[i], false);
+			if (targets[i] != null)
+				targets[i].applyEnergyDelta(targetDeltas[i], attacks[i]);
+		}
+
+		clearSlots(0, size);
+		size = 0;
+	}
+
+	private void clearSlots(int start, int end) {
+		Arrays.fill(sources, start, end, null);
+		Arrays.fill(targets, start, end, null);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (sources.length >= capacity)
+			return;
+
+		int newCapacity = Math.max(capacity, 2 * sources.length);
+		sources = Arrays.copyOf(sources, newCapacity);
+		sourceDeltas = Arrays.copyOf(sourceDeltas, newCapacity);
+		targets = Arrays.copyOf(targets, newCapacity);
+		targetDeltas = Arrays.copyOf(targetDeltas, newCapacity);
+		attacks = Arrays.copyOf(attacks, newCapacity);
+	}
+}
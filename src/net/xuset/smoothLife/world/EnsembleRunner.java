@@ -0,0 +1,360 @@
+package net.xuset.smoothLife.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs many independent worlds on a bounded pool of worker threads. Unlike
+ * IslandRunner, which gives every world its own thread, the ensemble can hold
+ * far more worlds than there are cores. Each world has its own tick budget.
+ * 
+ * <p>
+ * Worlds are time sliced cooperatively. A worker updates a world until its
+ * slice time is used up, then puts the world at the back of the queue and
+ * moves on to the next one. Large worlds therefore cannot keep small worlds
+ * from being updated. A world is only ever updated by one worker at a time.
+ * </p>
+ * 
+ * <p>
+ * Checkpoints are binary snapshots of a WorldImage captured on the worker
+ * that updates the world, so the checkpoint is always taken between two
+ * ticks. Encoding and writing the file is done on a separate small I/O pool
+ * so the workers do not wait for either. Like the files of CheckpointService,
+ * a checkpoint is written to a temporary file and renamed once it is on
+ * disk, so a checkpoint file is never half written.
+ * </p>
+ * 
+ * <p>
+ * If updating a world throws, the other worlds are stopped after their
+ * current tick and run throws the first failure once all workers are done.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see IslandRunner
+ */
+public class EnsembleRunner {
+	private static final int ioThreadCount = 2;
+
+	private final List<Member> members = new ArrayList<Member>();
+	private final AtomicLong completedTicks = new AtomicLong();
+	private final AtomicInteger failedCheckpoints = new AtomicInteger();
+	private volatile Exception lastCheckpointFailure = null;
+	private final AtomicReference<ExecutionException> failure =
+			new AtomicReference<ExecutionException>();
+	private final int workerCount;
+	private final long sliceNanos;
+
+	private long checkpointInterval = 0;
+	private File checkpointDir = null;
+	private volatile boolean exitLoop = false;
+
+	private ExecutorService workers;
+	private ExecutorService ioPool;
+	private CountDownLatch done;
+
+	/**
+	 * Instantiate an empty ensemble.
+	 * 
+	 * @param workerCount the amount of threads that update worlds
+	 * @param sliceMillis the time a worker spends on a world before moving on
+	 * 		to the next one. At least one tick is run per slice.
+	 * @throws IllegalArgumentException if workerCount is less than 1 or
+	 * 		sliceMillis is negative
+	 */
+	public EnsembleRunner(int workerCount, long sliceMillis) {
+		if (workerCount < 1)
+			throw new IllegalArgumentException("workerCount must be greater than 0");
+		if (sliceMillis < 0)
+			throw new IllegalArgumentException("sliceMillis must not be negative");
+
+		this.workerCount = workerCount;
+		this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceMillis);
+	}
+
+	/**
+	 * Adds a world to the ensemble. The world should not be accessed by any
+	 * other thread while the ensemble is running.
+	 * 
+	 * @param world the world to add
+	 * @param tickBudget the amount of ticks to update the world during run
+	 * @return the index of the world in the ensemble
+	 * @throws IllegalArgumentException if tickBudget is negative
+	 */
+	public int addWorld(World world, long tickBudget) {
+		if (tickBudget < 0)
+			throw new IllegalArgumentException("tickBudget must not be negative");
+
+		members.add(new Member(members.size(), world, tickBudget));
+		return members.size() - 1;
+	}
+
+	/**
+	 * Writes a checkpoint of every world each time the world's tick count is a
+	 * multiple of the interval. The files are named world-INDEX-TICK.slw and
+	 * hold snapshots written by BinaryWorldSerializer.
+	 * 
+	 * @param interval the amount of ticks between checkpoints, or 0 to disable
+	 * 		checkpoints
+	 * @param dir the directory to write the checkpoints to
+	 */
+	public void setCheckpoints(long interval, File dir) {
+		if (interval < 0)
+			throw new IllegalArgumentException("interval must not be negative");
+
+		checkpointInterval = interval;
+		checkpointDir = dir;
+	}
+
+	/**
+	 * Gets the amount of worlds in the ensemble.
+	 * 
+	 * @return the world count
+	 */
+	public int getWorldCount() {
+		return members.size();
+	}
+
+	/**
+	 * Returns the world at the specified index. The world should not be
+	 * accessed while the ensemble is running.
+	 * 
+	 * @param index the index of the world. The index should be >= 0 and
+	 * 		< getWorldCount().
+	 * @return the world
+	 */
+	public World getWorld(int index) {
+		return members.get(index).world;
+	}
+
+	/**
+	 * Gets the amount of ticks the world at the given index has run since run
+	 * was called. This can be called while the ensemble is running.
+	 * 
+	 * @param index the index of the world
+	 * @return the ticks completed by the world
+	 */
+	public long getCompletedTicks(int index) {
+		return members.get(index).completed;
+	}
+
+	/**
+	 * Gets the amount of ticks all worlds have run together since run was
+	 * called. This can be called while the ensemble is running.
+	 * 
+	 * @return the ticks completed by the whole ensemble
+	 */
+	public long getCompletedTicks() {
+		return completedTicks.get();
+	}
+
+	/**
+	 * Gets the sum of the tick budgets of all worlds.
+	 * 
+	 * @return the amount of ticks the ensemble runs in total
+	 */
+	public long getTotalTickBudget() {
+		long total = 0;
+		for (Member m : members)
+			total += m.budget;
+		return total;
+	}
+
+	/**
+	 * Gets the amount of worlds that used up their tick budget or were
+	 * stopped since run was called. This can be called while the ensemble is
+	 * running.
+	 * 
+	 * @return the finished world count
+	 */
+	public int getFinishedWorldCount() {
+		CountDownLatch latch = done;
+		return latch == null ? 0 : members.size() - (int) latch.getCount();
+	}
+
+	/**
+	 * Gets the amount of checkpoints that could not be written.
+	 * 
+	 * @return the failed checkpoint count
+	 */
+	public int getFailedCheckpointCount() {
+		return failedCheckpoints.get();
+	}
+
+	/**
+	 * Gets the exception of the last checkpoint that could not be written.
+	 * 
+	 * @return the last failure or null if no checkpoint failed
+	 */
+	public Exception getLastCheckpointFailure() {
+		return lastCheckpointFailure;
+	}
+
+	/**
+	 * Updates every world until its tick budget is used up or exitLoop is
+	 * called. This method blocks until all worlds are done and all
+	 * checkpoints have been written. While waiting, the given reporter is
+	 * run on the calling thread at the given interval, where it can read the
+	 * progress of the ensemble.
+	 * 
+	 * @param reportMillis the time between reports, or 0 to not report
+	 * @param reporter run at every report, or null to not report
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * 		waiting for the worlds
+	 * @throws ExecutionException if updating a world threw. The cause is the
+	 * 		first exception thrown by any world.
+	 */
+	public void run(long reportMillis, Runnable reporter)
+			throws InterruptedException, ExecutionException {
+
+		if (reporter == null)
+			reportMillis = 0;
+
+		exitLoop = false;
+		failure.set(null);
+		completedTicks.set(0);
+		done = new CountDownLatch(members.size());
+		workers = Executors.newFixedThreadPool(workerCount,
+				new DaemonThreadFactory("SmoothLife-ensemble-"));
+		ioPool = Executors.newFixedThreadPool(ioThreadCount,
+				new DaemonThreadFactory("SmoothLife-ensemble-io-"));
+
+		try {
+			for (Member m : members) {
+				m.completed = 0;
+				workers.execute(new SliceTask(m));
+			}
+
+			while (!done.await(reportMillis > 0 ? reportMillis : Long.MAX_VALUE,
+					TimeUnit.MILLISECONDS))
+				reporter.run();
+		} finally {
+			workers.shutdown();
+			ioPool.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			ioPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+
+		if (failure.get() != null)
+			throw failure.get();
+	}
+
+	/**
+	 * Stops all worlds after the current tick.
+	 */
+	public void exitLoop() {
+		exitLoop = true;
+	}
+
+	private void writeCheckpoint(Member m) {
+		final WorldImage image = new WorldImage(m.world);
+		final File file = new File(checkpointDir,
+				"world-" + m.index + "-" + m.world.getTicks() + ".slw");
+
+		ioPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					CheckpointService.writeFile(image, file, false, false);
+				} catch (IOException ex) {
+					failCheckpoint(ex);
+				} catch (RuntimeException ex) {
+					failCheckpoint(ex);
+				}
+			}
+		});
+	}
+
+	private void failCheckpoint(Exception ex) {
+		lastCheckpointFailure = ex;
+		failedCheckpoints.incrementAndGet();
+	}
+
+	private void fail(Member m, Throwable ex) {
+		failure.compareAndSet(null, new ExecutionException("World " + m.index + " failed", ex));
+		exitLoop = true;
+	}
+
+	private static final class Member {
+		private final int index;
+		private final World world;
+		private final long budget;
+
+		private volatile long completed = 0;
+
+		Member(int index, World world, long budget) {
+			this.index = index;
+			this.world = world;
+			this.budget = budget;
+		}
+	}
+
+	private final class SliceTask implements Runnable {
+		private final Member member;
+
+		SliceTask(Member member) {
+			this.member = member;
+		}
+
+		@Override
+		public void run() {
+			boolean finished = true;
+			try {
+				long sliceEnd = System.nanoTime() + sliceNanos;
+				long completed = member.completed;
+
+				while (completed < member.budget && !exitLoop) {
+					member.world.updateBlobs();
+					completed++;
+					member.completed = completed;
+					completedTicks.incrementAndGet();
+
+					if (checkpointInterval > 0 &&
+							member.world.getTicks() % checkpointInterval == 0)
+						writeCheckpoint(member);
+
+					if (System.nanoTime() - sliceEnd >= 0)
+						break;
+				}
+
+				finished = completed >= member.budget || exitLoop;
+				if (!finished)
+					workers.execute(this);
+			} catch (RuntimeException ex) {
+				fail(member, ex);
+			} catch (Error ex) {
+				fail(member, ex);
+			} finally {
+				if (finished)
+					done.countDown();
+			}
+		}
+	}
+
+	private static final class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+		private final String prefix;
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package net.xuset.smoothLife.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * Runs several independent worlds, called islands, on separate threads. Each
+ * island is a normal World with its own species and gene pools. Every few
+ * ticks each island sends clones of the fittest chromosomes of every species
+ * to its neighboring islands, where they replace the least fit chromosomes of
+ * the same species.
+ * 
+ * <p>
+ * Islands are not synchronized with each other. Migrants are handed over
+ * through lock-free queues, and an island takes in whatever migrants have
+ * arrived the next time it reaches a migration tick.
+ * </p>
+ * 
+ * <p>
+ * If an island throws, the other islands are stopped after their current
+ * tick and run throws the first failure once all islands have stopped.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see World
+ */
+public class IslandRunner {
+
+	/** Determines which islands send migrants to which. */
+	public enum Topology {
+		/** Each island sends migrants to the next island. */
+		RING,
+
+		/** Each island sends migrants to all other islands. */
+		FULLY_CONNECTED
+	}
+
+	private final List<Island> islands = new ArrayList<Island>();
+	private final Topology topology;
+	private final int migrationInterval;
+	private final int migrantCount;
+
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private volatile boolean exitLoop = false;
+
+	/**
+	 * Instantiate the runner and create the islands. All islands are created
+	 * from the same world info, so they have the same species.
+	 * 
+	 * @param worldInfo the info used to create every island
+	 * @param islandCount the amount of islands to create
+	 * @param migrationInterval the amount of ticks between migrations
+	 * @param migrantCount the amount of chromosomes of every species to send
+	 * 		to each neighbor during a migration
+	 * @param topology determines the neighbors of each island
+	 * @throws IllegalArgumentException if islandCount or migrationInterval is
+	 * 		less than 1, or if migrantCount is negative
+	 */
+	public IslandRunner(WorldInfo worldInfo, int islandCount, int migrationInterval,
+			int migrantCount, Topology topology) {
+
+		if (islandCount < 1 || migrationInterval < 1)
+			throw new IllegalArgumentException(
+					"islandCount and migrationInterval must be greater than 0");
+		if (migrantCount < 0)
+			throw new IllegalArgumentException("migrantCount must not be negative");
+
+		this.topology = topology;
+		this.migrationInterval = migrationInterval;
+		this.migrantCount = migrantCount;
+
+		for (int i = 0; i < islandCount; i++)
+			islands.add(new Island(i, new World(worldInfo)));
+	}
+
+	/**
+	 * Gets the amount of islands.
+	 * 
+	 * @return the island count
+	 */
+	public int getIslandCount() {
+		return islands.size();
+	}
+
+	/**
+	 * Returns the world of the island at the specified index. The world should
+	 * not be accessed while the runner is running.
+	 * 
+	 * @param index the index of the island. The index should be >= 0 and
+	 * 		< getIslandCount().
+	 * @return the world of the island
+	 */
+	public World getIsland(int index) {
+		return islands.get(index).world;
+	}
+
+	/**
+	 * Updates every island the given amount of ticks. Each island is updated
+	 * on its own thread. This method blocks until all islands are done,
+	 * exitLoop is called or an island fails.
+	 * 
+	 * @param ticks the amount of ticks to update each island
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 * 		waiting for the islands
+	 * @throws ExecutionException if an island threw while being updated. The
+	 * 		cause is the first exception thrown by any island.
+	 */
+	public void run(long ticks) throws InterruptedException, ExecutionException {
+		exitLoop = false;
+		failure.set(null);
+		CountDownLatch done = new CountDownLatch(islands.size());
+
+		for (Island island : islands) {
+			Thread t = new Thread(new IslandTask(island, ticks, done),
+					"SmoothLife-island-" + island.index);
+			t.setDaemon(true);
+			t.start();
+		}
+
+		done.await();
+		Throwable cause = failure.get();
+		if (cause != null)
+			throw new ExecutionException("An island failed", cause);
+	}
+
+	/**
+	 * Stops all islands after their current tick.
+	 */
+	public void exitLoop() {
+		exitLoop = true;
+	}
+
+	private void migrate(Island from) {
+		World world = from.world;
+		Chromosome[][] migrants = new Chromosome[world.getSpeciesCount()][];
+
+		for (int i = 0; i < islands.size(); i++) {
+			Island to = islands.get(i);
+			if (!isNeighbor(from, to))
+				continue;
+
+			for (int j = 0; j < migrants.length; j++)
+				migrants[j] = world.getSpecie(j).cloneFittest(migrantCount);
+
+			to.inbox.offer(migrants.clone());
+		}
+
+		Chromosome[][] arrived;
+		while ((arrived = from.inbox.poll()) != null) {
+			for (int j = 0; j < arrived.length; j++)
+				world.acceptMigrants(j, arrived[j]);
+		}
+	}
+
+	private void fail(Throwable ex) {
+		failure.compareAndSet(null, ex);
+		exitLoop = true;
+	}
+
+	private boolean isNeighbor(Island from, Island to) {
+		if (from == to)
+			return false;
+
+		switch (topology) {
+		case RING:
+			return to.index == (from.index + 1) % islands.size();
+		case FULLY_CONNECTED:
+		default:
+			return true;
+		}
+	}
+
+	private static final class Island {
+		private final int index;
+		private final World world;
+		private final Queue<Chromosome[][]> inbox =
+				new ConcurrentLinkedQueue<Chromosome[][]>();
+
+		Island(int index, World world) {
+			this.index = index;
+			this.world = world;
+		}
+	}
+
+	private final class IslandTask implements Runnable {
+		private final Island island;
+		private final long ticks;
+		private final CountDownLatch done;
+
+		IslandTask(Island island, long ticks, CountDownLatch done) {
+			this.island = island;
+			this.ticks = ticks;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (long i = 0; i < ticks && !exitLoop; i++) {
+					island.world.updateBlobs();
+					if (island.world.getTicks() % migrationInterval == 0)
+						migrate(island);
+				}
+			} catch (RuntimeException ex) {
+				fail(ex);
+			} catch (Error ex) {
+				fail(ex);
+			} finally {
+				done.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package net.xuset.smoothLife.world;
+
+/**
+ * Keeps the live blobs of a species sorted along a Z-order (Morton) curve of
+ * their locations, so blobs that are close in the world are also close in
+ * the live range. Deaths, respawns and movement slowly scramble the order,
+ * so the blobs are sorted again from time to time.
+ * 
+ * <p>
+ * The interval between sorts adapts to the measured drift, which is the
+ * fraction of neighboring live blobs that are out of order. If a lot of
+ * drift built up since the last sort, the interval is halved. If hardly any
+ * drift built up, it is doubled. Sorting only changes the order of the live
+ * range; the blob ids stay the same.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ */
+final class MortonOrder {
+	private static final int minInterval = 16, maxInterval = 4096;
+	private static final int initInterval = 64;
+	private static final double highDrift = 0.2, lowDrift = 0.05;
+	private static final int bitsPerAxis = 15;
+	private static final int maxCoordinate = (1 << bitsPerAxis) - 1;
+
+	private long[] keys = new long[0];
+	private int interval = initInterval;
+	private long nextTick = 0L;
+	private double lastDrift = 0.0;
+
+	/**
+	 * Gets the current amount of ticks between sorts.
+	 * 
+	 * @return the sort interval
+	 */
+	int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Gets the drift measured at the last sort.
+	 * 
+	 * @return the fraction of neighboring live blobs that were out of order
+	 */
+	double getLastDrift() {
+		return lastDrift;
+	}
+
+	/**
+	 * Gets the tick at or after which the next sort is done.
+	 * 
+	 * @return the tick of the next sort
+	 */
+	long getNextTick() {
+		return nextTick;
+	}
+
+	/**
+	 * Restores the state of an order that was captured with getInterval,
+	 * getNextTick and getLastDrift.
+	 * 
+	 * @param newInterval the sort interval
+	 * @param newNextTick the tick of the next sort
+	 * @param newLastDrift the drift measured at the last sort
+	 */
+	void restore(int newInterval, long newNextTick, double newLastDrift) {
+		interval = newInterval;
+		nextTick = newNextTick;
+		lastDrift = newLastDrift;
+	}
+
+	/**
+	 * Sorts the live blobs of the pool if the interval has passed since the
+	 * last sort.
+	 * 
+	 * @param pool the blobs to sort
+	 * @param tick the current tick of the world
+	 */
+	void sortIfDue(BlobPool pool, long tick) {
+		if (tick < nextTick)
+			return;
+
+		int count = pool.getLiveCount();
+		computeKeys(pool, count);
+
+		int outOfOrder = 0;
+		for (int i = 1; i < count; i++) {
+			if (keys[i - 1] > keys[i])
+				outOfOrder++;
+		}
+		lastDrift = count < 2 ? 0.0 : (double) outOfOrder / (count - 1);
+
+		if (outOfOrder != 0)
+			pool.sortLive(keys);
+
+		if (lastDrift > highDrift)
+			interval = Math.max(minInterval, interval / 2);
+		else if (lastDrift < lowDrift)
+			interval = Math.min(maxInterval, interval * 2);
+		nextTick = tick + interval;
+	}
+
+	/**
+	 * Interleaves the bits of the two coordinates. Bit i of x becomes bit 2i
+	 * of the result and bit i of y becomes bit 2i + 1.
+	 * 
+	 * @param x the x coordinate. Only the lowest 15 bits are used.
+	 * @param y the y coordinate. Only the lowest 15 bits are used.
+	 * @return the Morton code of the coordinates
+	 */
+	static long encode(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	private static long spread(int value) {
+		long v = value & maxCoordinate;
+		v = (v | (v << 8)) & 0x00FF00FFL;
+		v = (v | (v << 4)) & 0x0F0F0F0FL;
+		v = (v | (v << 2)) & 0x33333333L;
+		v = (v | (v << 1)) & 0x55555555L;
+		return v;
+	}
+
+	private void computeKeys(BlobPool pool, int count) {
+		if (keys.length < count)
+			keys = new long[Math.max(count, 2 * keys.length)];
+
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			Body b = pool.getLive(i).getBody();
+			minX = Math.min(minX, b.getX());
+			minY = Math.min(minY, b.getY());
+			maxX = Math.max(maxX, b.getX());
+			maxY = Math.max(maxY, b.getY());
+		}
+
+		double extent = Math.max(maxX - minX, maxY - minY);
+		double scale = extent > 0.0 ? maxCoordinate / extent : 0.0;
+		for (int i = 0; i < count; i++) {
+			Body b = pool.getLive(i).getBody();
+			int x = (int) ((b.getX() - minX) * scale);
+			int y = (int) ((b.getY() - minY) * scale);
+			keys[i] = encode(x, y);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package net.xuset.smoothLife.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.GeneCodec;
+
+/**
+ * Reproduces any tick of a run recorded by RunJournalWriter. When the
+ * journal is opened, only the record headers are read and the keyframes are
+ * indexed. A tick is reproduced by restoring the last keyframe at or before
+ * it and simulating the world again from there, placing the recorded
+ * migrants and applying the recorded settings at the ticks they happened
+ * at. The blobs respawned by the replay are compared to the recorded ones
+ * every tick, so a replay that does not follow the run fails instead of
+ * silently returning a different world. Records that were cut off at the
+ * end of the file, for example because the run was killed, are ignored.
+ * 
+ * <p>
+ * If the run used a tick engine, the replay needs one as well, which is set
+ * with setTickEngine. The longest coarse step of the engine is set to the
+ * one recorded in the journal, so runs with coarse steps replay as well.
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see RunJournalWriter
+ */
+public class RunJournalReader implements Closeable {
+	private static final int oldestVersion = 1;
+	private static final int maxSettingsSize = 10;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int keyframeInterval;
+
+	private long[] keyframeTicks = new long[16];
+	private long[] keyframePositions = new long[16];
+	private long[] keyframeEnds = new long[16];
+	private int keyframeCount = 0;
+	private long lastTick = 0;
+	private TickEngine tickEngine = null;
+
+	/**
+	 * Opens the given journal and indexes its keyframes.
+	 * 
+	 * @param path the journal file to open
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is not a journal of a
+	 * 		supported version
+	 */
+	public RunJournalReader(File path) throws IOException {
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+
+		try {
+			ByteBuffer header = read(0, RunJournalWriter.journalHeaderSize);
+			if (header == null || header.getInt() != RunJournalWriter.MAGIC)
+				throw new IllegalArgumentException("Not a run journal");
+			int version = header.getInt();
+			if (version < oldestVersion || version > RunJournalWriter.VERSION)
+				throw new IllegalArgumentException("Unsupported journal version " + version);
+
+			keyframeInterval = header.getInt();
+			indexRecords();
+		} catch (IOException ex) {
+			file.close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			file.close();
+			throw ex;
+		}
+	}
+
+	private void indexRecords() throws IOException {
+		RecordInput in = new RecordInput(RunJournalWriter.journalHeaderSize, 0L);
+		while (in.next()) {
+			if (in.type < RunJournalWriter.keyframeType || in.type > RunJournalWriter.tickType)
+				throw new IllegalArgumentException("Invalid record type " + in.type);
+			if (keyframeCount == 0 && in.type != RunJournalWriter.keyframeType)
+				throw new IllegalArgumentException("Journal does not start with a keyframe");
+
+			if (in.type == RunJournalWriter.keyframeType)
+				addKeyframe(in.tick, in.payloadPosition, in.position);
+			lastTick = in.tick;
+		}
+	}
+
+	private void addKeyframe(long tick, long position, long end) {
+		if (keyframeCount == keyframeTicks.length) {
+			keyframeTicks = Arrays.copyOf(keyframeTicks, 2 * keyframeCount);
+			keyframePositions = Arrays.copyOf(keyframePositions, 2 * keyframeCount);
+			keyframeEnds = Arrays.copyOf(keyframeEnds, 2 * keyframeCount);
+		}
+
+		keyframeTicks[keyframeCount] = tick;
+		keyframePositions[keyframeCount] = position;
+		keyframeEnds[keyframeCount] = end;
+		keyframeCount++;
+	}
+
+	/**
+	 * Sets the engine used to update the replayed worlds if the run was
+	 * updated by a tick engine. The longest coarse step of the engine is
+	 * changed to the one the run used while replaying.
+	 * 
+	 * @param engine the tick engine or null
+	 */
+	public void setTickEngine(TickEngine engine) {
+		tickEngine = engine;
+	}
+
+	/**
+	 * Gets the amount of ticks between keyframes the journal was written with.
+	 * 
+	 * @return the keyframe interval
+	 */
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * Gets the amount of complete keyframes in the journal.
+	 * 
+	 * @return the keyframe count
+	 */
+	public int getKeyframeCount() {
+		return keyframeCount;
+	}
+
+	/**
+	 * Gets the tick of the world stored in a keyframe.
+	 * 
+	 * @param keyframe the index of the keyframe
+	 * @return the tick of the keyframe
+	 */
+	public long getKeyframeTick(int keyframe) {
+		if (keyframe < 0 || keyframe >= keyframeCount)
+			throw new IndexOutOfBoundsException("Keyframe " + keyframe + " of " + keyframeCount);
+		return keyframeTicks[keyframe];
+	}
+
+	/**
+	 * Gets the first tick that can be reproduced, which is the tick the
+	 * journal was attached to the world at.
+	 * 
+	 * @return the first tick of the run
+	 */
+	public long getFirstTick() {
+		return keyframeTicks[0];
+	}
+
+	/**
+	 * Gets the last tick that can be reproduced.
+	 * 
+	 * @return the last recorded tick of the run
+	 */
+	public long getLastTick() {
+		return lastTick;
+	}
+
+	/**
+	 * Finds the last keyframe that was recorded at or before the given tick.
+	 * 
+	 * @param tick the tick to look for
+	 * @return the index of the keyframe or -1 if every keyframe is later
+	 */
+	public int findKeyframe(long tick) {
+		int low = 0, high = keyframeCount - 1, found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (keyframeTicks[middle] <= tick) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Reproduces the world of the run right after the given tick count was
+	 * reached, before any migrants or settings recorded at that tick were
+	 * applied.
+	 * 
+	 * @param tick the tick to reproduce
+	 * @return the newly created world
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the tick is outside of the run or
+	 * 		a record is invalid
+	 * @throws IllegalStateException if the replay does not follow the run or
+	 * 		the run used a tick engine and none is set
+	 */
+	public World readWorld(long tick) throws IOException {
+		int keyframe = findKeyframe(tick);
+		if (keyframe < 0 || tick > lastTick)
+			throw new IllegalArgumentException("Tick " + tick + " is outside of the run");
+
+		World world = readKeyframe(keyframe);
+		SpawnLog spawnLog = new SpawnLog();
+		world.setSpawnLog(spawnLog);
+
+		RecordInput in = new RecordInput(keyframeEnds[keyframe], keyframeTicks[keyframe]);
+		boolean hasRecord = in.next();
+		while (world.getTicks() < tick) {
+			if (hasRecord && in.tick < world.getTicks())
+				throw new IllegalArgumentException("Journal records are out of order");
+
+			if (hasRecord && in.tick == world.getTicks() && in.type != RunJournalWriter.spawnType) {
+				apply(world, in);
+				hasRecord = in.next();
+				continue;
+			}
+
+			long updatedTick = world.getTicks();
+			world.updateBlobs();
+
+			byte[] recorded = null;
+			if (hasRecord && in.tick == updatedTick) {
+				recorded = in.readPayload();
+				hasRecord = in.next();
+			}
+			checkSpawns(spawnLog, recorded, updatedTick);
+		}
+
+		world.setSpawnLog(null);
+		return world;
+	}
+
+	private World readKeyframe(int keyframe) throws IOException {
+		long position = keyframePositions[keyframe];
+		int length = (int) Math.min(maxSettingsSize, keyframeEnds[keyframe] - position);
+		ByteBuffer settingsBuf = read(position, length);
+		long settings = getVarLong(settingsBuf);
+		channel.position(position + settingsBuf.position());
+		World world = BinaryWorldSerializer.readWorld(channel);
+		if (world.getTicks() != keyframeTicks[keyframe])
+			throw new IllegalArgumentException("Keyframe does not match its tick");
+
+		applySettings(world, settings);
+		return world;
+	}
+
+	private void apply(World world, RecordInput in) throws IOException {
+		switch (in.type) {
+		case RunJournalWriter.settingsType:
+			ByteBuffer payload = ByteBuffer.wrap(in.readPayload());
+			long settings = getVarLong(payload);
+			if (payload.hasRemaining())
+				throw new IllegalArgumentException("Invalid settings record");
+			applySettings(world, settings);
+			break;
+		case RunJournalWriter.migrantType:
+			applyMigrants(world, ByteBuffer.wrap(in.readPayload()).order(ByteOrder.LITTLE_ENDIAN));
+			break;
+		default:
+			//keyframes and tick marks do not change the replayed world
+			break;
+		}
+	}
+
+	private void applySettings(World world, long settings) {
+		boolean usesEngine = (settings & RunJournalWriter.tickEngineSetting) != 0;
+		long coarseStep = (settings >>> RunJournalWriter.coarseStepShift) + 1;
+		if (coarseStep > Integer.MAX_VALUE || (!usesEngine && coarseStep != 1))
+			throw new IllegalArgumentException("Invalid settings " + settings);
+		if (usesEngine && tickEngine == null)
+			throw new IllegalStateException("The run used a tick engine but none is set");
+
+		if (usesEngine)
+			tickEngine.setMaxCoarseStep((int) coarseStep);
+		world.setTickEngine(usesEngine ? tickEngine : null);
+		world.setBlobSorting((settings & RunJournalWriter.sortBlobsSetting) != 0);
+		world.setGridFinder((settings & RunJournalWriter.gridFinderSetting) != 0);
+	}
+
+	private static void applyMigrants(World world, ByteBuffer payload) {
+		long specie = getVarLong(payload);
+		long count = getVarLong(payload);
+		if (specie < 0 || specie >= world.getSpeciesCount() || count < 0 ||
+				count > payload.remaining() / 8)
+			throw new IllegalArgumentException("Invalid migrant record");
+
+		double[] fitness = new double[(int) count];
+		for (int i = 0; i < fitness.length; i++)
+			fitness[i] = payload.getDouble();
+
+		byte[] block = new byte[payload.remaining()];
+		payload.get(block);
+		double[][] genes = GeneCodec.decode(block);
+		if (genes.length != fitness.length)
+			throw new IllegalArgumentException("Migrant genes do not match the migrant count");
+
+		Chromosome[] migrants = new Chromosome[genes.length];
+		for (int i = 0; i < migrants.length; i++) {
+			migrants[i] = new Chromosome(genes[i]);
+			migrants[i].setFitness(fitness[i]);
+		}
+		world.acceptMigrants((int) specie, migrants);
+	}
+
+	private static void checkSpawns(SpawnLog spawnLog, byte[] recorded, long tick) {
+		boolean same = recorded == null ? spawnLog.getCount() == 0 :
+				Arrays.equals(spawnLog.toPayload(), recorded);
+		spawnLog.clear();
+		if (!same)
+			throw new IllegalStateException("Replay diverged from the run at tick " + tick);
+	}
+
+	static long getVarLong(ByteBuffer buf) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buf.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Invalid variable length number");
+	}
+
+	/*
+	 * Reads the given range of the file, or returns null if the file ends
+	 * before the range does.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				return null;
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Closes the journal file.
+	 * 
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/*
+	 * Walks the records of the journal one header at a time. Payloads are
+	 * only read when asked for, so keyframes are skipped cheaply.
+	 */
+	private final class RecordInput {
+		private final ByteBuffer header = ByteBuffer.allocate(RunJournalWriter.maxRecordHeaderSize);
+		private long position;
+		private long tick;
+		private byte type;
+		private int payloadLength;
+		private long payloadPosition;
+
+		RecordInput(long position, long tick) {
+			this.position = position;
+			this.tick = tick;
+		}
+
+		/*
+		 * Moves to the next record. Returns false if the file ends before
+		 * the record does.
+		 */
+		boolean next() throws IOException {
+			header.clear();
+			while (header.hasRemaining()) {
+				if (channel.read(header, position + header.position()) < 0)
+					break;
+			}
+			header.flip();
+
+			long tickDelta, length;
+			try {
+				type = header.get();
+				tickDelta = getVarLong(header);
+				length = getVarLong(header);
+			} catch (BufferUnderflowException ex) {
+				return false;
+			}
+
+			if (tickDelta < 0 || length < 0 || length > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Invalid record header");
+
+			payloadPosition = position + header.position();
+			if (payloadPosition + length > channel.size())
+				return false;
+
+			tick += tickDelta;
+			payloadLength = (int) length;
+			position = payloadPosition + length;
+			return true;
+		}
+
+		byte[] readPayload() throws IOException {
+			ByteBuffer payload = read(payloadPosition, payloadLength);
+			if (payload == null)
+				throw new IllegalArgumentException("Record is truncated");
+			return payload.array();
+		}
+	}
+}
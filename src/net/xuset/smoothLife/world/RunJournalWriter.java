@@ -0,0 +1,424 @@
+package net.xuset.smoothLife.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.GeneCodec;
+
+/**
+ * Records a run as a journal from which any tick of the run can be
+ * reproduced. A seeded world without background breeding only depends on
+ * its state and on what is done to it from the outside, so the journal holds
+ * keyframes of the world's state every keyframeInterval ticks plus the
+ * outside interventions, which are the migrants placed into the gene pools
+ * and changes of the update settings of the world. The blobs respawned
+ * every tick are recorded as well, which lets a replay check that it really
+ * follows the run. Everything else is simulated again by RunJournalReader.
+ * 
+ * <p>
+ * A journal starts with the magic number, the format version and the
+ * keyframe interval as little-endian ints. Each record then holds a type
+ * byte, the amount of ticks since the previous record and the length of the
+ * payload, both as variable length numbers, followed by the payload. The
+ * settings of the world are a variable length number whose lowest three bits
+ * flag blob sorting, the tick engine and the grid finder, and whose higher
+ * bits hold the longest coarse step of the tick engine minus one. A keyframe
+ * payload is the settings followed by a snapshot written by
+ * BinaryWorldSerializer with packed genes, which includes the run state of
+ * the world and the coarse steps of its blobs. A spawn payload is written by
+ * SpawnLog. A migrant payload holds the index of the species and the migrant
+ * count as variable length numbers, the fitness of every migrant and the
+ * genes packed by GeneCodec. A settings payload is the settings, and a tick
+ * record without payload marks how far the run got. Version 1 journals
+ * could not record coarse steps, so their settings always fit in one byte
+ * and read the same.
+ * </p>
+ * 
+ * <p>
+ * Records are collected in a buffer on the thread that updates the world.
+ * Full buffers and keyframes are handed to a background thread that appends
+ * them to the file. Like checkpoints, a keyframe only copies the blob state
+ * on the updating thread and is encoded and packed on the background thread. If the
+ * background thread falls behind by more than a couple of keyframes, new
+ * keyframes are skipped, which only makes replays start from further back.
+ * The other records are never skipped.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see RunJournalReader
+ * @see World#setRunJournal(RunJournalWriter)
+ */
+public class RunJournalWriter implements Closeable {
+	/** The first four bytes of every journal, "SLWJ" in little-endian. */
+	public static final int MAGIC = 0x4A574C53;
+
+	/** The version of the format written by this class. */
+	public static final int VERSION = 2;
+
+	static final byte keyframeType = 0;
+	static final byte spawnType = 1;
+	static final byte migrantType = 2;
+	static final byte settingsType = 3;
+	static final byte tickType = 4;
+
+	static final int sortBlobsSetting = 1;
+	static final int tickEngineSetting = 2;
+	static final int gridFinderSetting = 4;
+	static final int coarseStepShift = 3;
+
+	static final int journalHeaderSize = 4 + 4 + 4;
+	static final int maxRecordHeaderSize = 1 + 10 + 5;
+	private static final int flushSize = 64 * 1024;
+	private static final int maxPendingKeyframes = 2;
+
+	private final FileChannel channel;
+	private final long keyframeInterval;
+	private final ExecutorService writer;
+	private final SpawnLog spawnLog = new SpawnLog();
+	private final AtomicInteger pendingKeyframes = new AtomicInteger();
+	private final AtomicLong writtenBytes = new AtomicLong();
+
+	private ByteBuffer batch = createBuffer(flushSize + maxRecordHeaderSize);
+	private long lastTick = 0, recordedTick = 0, tickOfSpawns = 0;
+	private long recordedSettings = -1;
+	private int keyframeCount = 0, skippedKeyframeCount = 0;
+	private volatile IOException failure = null;
+	private boolean started = false, closed = false;
+
+	/**
+	 * Creates a new journal file with its own background thread. The journal
+	 * is started by attaching it to a world with World#setRunJournal.
+	 * 
+	 * @param path the file to write the journal to. An existing file is
+	 * 		replaced.
+	 * @param keyframeInterval the amount of ticks between keyframes
+	 * @throws IOException if the file cannot be created
+	 * @throws IllegalArgumentException if keyframeInterval is less than 1
+	 */
+	public RunJournalWriter(File path, long keyframeInterval) throws IOException {
+		if (keyframeInterval < 1)
+			throw new IllegalArgumentException("keyframeInterval must be greater than 0");
+		if (keyframeInterval > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("keyframeInterval is too large");
+
+		this.keyframeInterval = keyframeInterval;
+		channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		writer = Executors.newSingleThreadExecutor(new WriterThreadFactory());
+
+		batch.putInt(MAGIC);
+		batch.putInt(VERSION);
+		batch.putInt((int) keyframeInterval);
+	}
+
+	private static ByteBuffer createBuffer(int capacity) {
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Writes the first keyframe of the journal. Called by the world the
+	 * journal is attached to.
+	 * 
+	 * @param world the world to record
+	 * @throws IllegalStateException if the journal was already started
+	 */
+	void start(World world) {
+		if (started)
+			throw new IllegalStateException("The journal is already recording a world");
+
+		started = true;
+		recordedTick = world.getTicks();
+		writeKeyframe(world);
+	}
+
+	/**
+	 * Gets the log the world records its respawned blobs in.
+	 * 
+	 * @return the spawn log of the journal
+	 */
+	SpawnLog getSpawnLog() {
+		return spawnLog;
+	}
+
+	/**
+	 * Called by the world before a tick is updated. The longest coarse step
+	 * of a tick engine can be changed without the world knowing, so the
+	 * settings are recorded here if they changed since they were last
+	 * recorded.
+	 * 
+	 * @param world the recorded world
+	 */
+	void beginTick(World world) {
+		if (getSettings(world) != recordedSettings)
+			recordSettings(world);
+
+		tickOfSpawns = world.getTicks();
+	}
+
+	/**
+	 * Called by the world after a tick was updated. The respawned blobs of
+	 * the tick are recorded and a keyframe is written if one is due.
+	 * 
+	 * @param world the recorded world
+	 */
+	void endTick(World world) {
+		recordedTick = world.getTicks();
+		if (spawnLog.getCount() != 0) {
+			putRecord(spawnType, tickOfSpawns, spawnLog.toPayload());
+			spawnLog.clear();
+		}
+
+		if (world.getTicks() % keyframeInterval == 0) {
+			writeKeyframe(world);
+		} else if (batch.position() >= flushSize) {
+			putRecord(tickType, world.getTicks(), new byte[0]);
+			flush();
+		}
+	}
+
+	/**
+	 * Records migrants that are placed into the gene pool of a species.
+	 * 
+	 * @param world the recorded world
+	 * @param specie the index of the species
+	 * @param migrants the migrating chromosomes
+	 */
+	void recordMigrants(World world, int specie, Chromosome[] migrants) {
+		byte[] genes = GeneCodec.encode(migrants);
+		ByteBuffer payload = createBuffer(5 + 5 + 8 * migrants.length + genes.length);
+		putVarLong(payload, specie);
+		putVarLong(payload, migrants.length);
+		for (int i = 0; i < migrants.length; i++)
+			payload.putDouble(migrants[i].getFitness());
+		payload.put(genes);
+
+		putRecord(migrantType, world.getTicks(),
+				Arrays.copyOf(payload.array(), payload.position()));
+	}
+
+	/**
+	 * Records the settings of the world that alter the outcome of a tick.
+	 * 
+	 * @param world the recorded world
+	 */
+	void recordSettings(World world) {
+		recordedSettings = getSettings(world);
+		ByteBuffer payload = createBuffer(10);
+		putVarLong(payload, recordedSettings);
+		putRecord(settingsType, world.getTicks(),
+				Arrays.copyOf(payload.array(), payload.position()));
+	}
+
+	static long getSettings(World world) {
+		long settings = 0;
+		if (world.isBlobSorting())
+			settings |= sortBlobsSetting;
+		if (world.isGridFinder())
+			settings |= gridFinderSetting;
+
+		TickEngine engine = world.getTickEngine();
+		if (engine != null) {
+			settings |= tickEngineSetting;
+			settings |= (long) (engine.getMaxCoarseStep() - 1) << coarseStepShift;
+		}
+		return settings;
+	}
+
+	private void putRecord(byte type, long tick, byte[] payload) {
+		if (batch.remaining() < maxRecordHeaderSize + payload.length) {
+			int capacity = Math.max(2 * batch.capacity(),
+					batch.position() + maxRecordHeaderSize + payload.length);
+			ByteBuffer bigger = createBuffer(capacity);
+			batch.flip();
+			bigger.put(batch);
+			batch = bigger;
+		}
+
+		batch.put(type);
+		putVarLong(batch, tick - lastTick);
+		putVarLong(batch, payload.length);
+		batch.put(payload);
+		lastTick = tick;
+	}
+
+	private void writeKeyframe(World world) {
+		if (pendingKeyframes.get() >= maxPendingKeyframes) {
+			skippedKeyframeCount++;
+			putRecord(tickType, world.getTicks(), new byte[0]);
+			flush();
+			return;
+		}
+
+		final WorldImage image = new WorldImage(world);
+		final long settings = getSettings(world);
+		recordedSettings = settings;
+		final long tickDelta = world.getTicks() - lastTick;
+		lastTick = world.getTicks();
+
+		flush();
+		keyframeCount++;
+		pendingKeyframes.incrementAndGet();
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (failure == null)
+						writeKeyframe(image, settings, tickDelta);
+				} catch (IOException ex) {
+					failure = ex;
+				} finally {
+					pendingKeyframes.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	private void writeKeyframe(WorldImage image, long settings, long tickDelta)
+			throws IOException {
+
+		ByteBuffer settingsBuf = createBuffer(10);
+		putVarLong(settingsBuf, settings);
+		settingsBuf.flip();
+
+		byte[][] geneBlocks = BinaryWorldSerializer.packGenes(image);
+		long size = BinaryWorldSerializer.getSerializedSize(image, geneBlocks) +
+				settingsBuf.remaining();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("World is too large for a journal keyframe");
+
+		ByteBuffer header = createBuffer(maxRecordHeaderSize + settingsBuf.remaining());
+		header.put(keyframeType);
+		putVarLong(header, tickDelta);
+		putVarLong(header, size);
+		header.put(settingsBuf);
+		header.flip();
+
+		long start = channel.position();
+		write(header);
+		BinaryWorldSerializer.writeImage(image, geneBlocks, channel);
+		writtenBytes.addAndGet(channel.position() - start);
+	}
+
+	/*
+	 * Hands the buffered records to the background thread.
+	 */
+	private void flush() {
+		if (batch.position() == 0)
+			return;
+
+		final ByteBuffer full = batch;
+		full.flip();
+		batch = createBuffer(flushSize + maxRecordHeaderSize);
+		writer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (failure == null) {
+						int length = full.remaining();
+						write(full);
+						writtenBytes.addAndGet(length);
+					}
+				} catch (IOException ex) {
+					failure = ex;
+				}
+			}
+		});
+	}
+
+	private void write(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf);
+	}
+
+	static void putVarLong(ByteBuffer buf, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	/**
+	 * Gets the amount of keyframes that were queued to be written.
+	 * 
+	 * @return the keyframe count
+	 */
+	public int getKeyframeCount() {
+		return keyframeCount;
+	}
+
+	/**
+	 * Gets the amount of keyframes that were skipped because the background
+	 * thread was behind.
+	 * 
+	 * @return the skipped keyframe count
+	 */
+	public int getSkippedKeyframeCount() {
+		return skippedKeyframeCount;
+	}
+
+	/**
+	 * Gets the amount of bytes appended to the journal file so far. This
+	 * can be called from any thread.
+	 * 
+	 * @return the written bytes
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+
+	/**
+	 * Marks the last recorded tick, waits for the background thread to
+	 * append everything and closes the file. This must be called from the
+	 * thread that updates the world, after the journal was detached from it
+	 * or between ticks.
+	 * 
+	 * @throws IOException if the journal could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+
+		if (started)
+			putRecord(tickType, recordedTick, new byte[0]);
+		flush();
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the journal");
+		} finally {
+			channel.close();
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+	private static final class WriterThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SmoothLife-journal");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
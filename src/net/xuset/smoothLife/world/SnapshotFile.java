@@ -0,0 +1,666 @@
+package net.xuset.smoothLife.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.xuset.smoothLife.nnetwork.GeneCodec;
+
+/**
+ * Gives random access to the blobs of a snapshot file written by
+ * BinaryWorldSerializer. Only the header, the species infos and the blob
+ * index are read when the file is opened, along with the entry offsets of
+ * the gene tables if the snapshot has any. The blobs are read through memory
+ * mapped views of the file, so looking at a single blob or species of a
+ * snapshot that is many gigabytes large only touches the pages that hold it.
+ * 
+ * <p>
+ * A single mapping cannot be larger than two gigabytes, so the file is
+ * mapped in segments. The segments overlap by the size of the largest blob
+ * or gene table entry, which lets every blob and entry be read from one
+ * segment. Segments are only mapped once a blob in them is requested.
+ * </p>
+ * 
+ * <p>
+ * Decoded data is kept per species in a cache with a memory budget. The
+ * locations, angles, energies and ages of a species are decoded into flat
+ * arrays the first time one of them is requested, so a viewer can draw the
+ * whole world without touching a single gene. If the genes of the snapshot
+ * are packed, the gene block or gene table of a species is decoded the first
+ * time one of its blobs is requested. When the cache grows past its budget,
+ * the species that was used least recently is dropped and decoded again
+ * when it is needed.
+ * </p>
+ * 
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see BinaryWorldSerializer
+ * @see BlobView
+ */
+public class SnapshotFile implements Closeable {
+	private static final long segmentSize = 1L << 30;
+	private static final int unflaggedVersion = 2;
+	private static final long arrayOverhead = 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long fileSize;
+	private final MappedByteBuffer[] segments;
+	private final long segmentLength;
+
+	private final int width, height;
+	private final long seed, ticks;
+	private final long[] specieIds;
+	private final boolean[] isPrey;
+	private final double[] spawnBudgets;
+	private final int[][] neuronLayouts;
+	private final long[][] blobOffsets;
+	private final long[] geneBlockOffsets;
+	private final int[] geneBlockLengths;
+	private final boolean sharedGenes, chromosomeIds;
+	private final int[] geneTableCounts;
+	private final long[][] geneEntryOffsets;
+
+	private final long memoryBudget;
+	private final LinkedHashMap<Integer, CacheEntry> cache =
+			new LinkedHashMap<Integer, CacheEntry>(16, 0.75f, true);
+	private long cachedBytes = 0;
+
+	/**
+	 * Opens the given snapshot file and reads its index. Decoded species are
+	 * kept until the file is closed.
+	 * 
+	 * @param path the snapshot file to open
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is not an indexed snapshot
+	 */
+	public SnapshotFile(File path) throws IOException {
+		this(path, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Opens the given snapshot file and reads its index.
+	 * 
+	 * @param path the snapshot file to open
+	 * @param memoryBudget the amount of bytes decoded species may take up
+	 * 		before the least recently used ones are dropped
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the file is not an indexed snapshot
+	 * 		or memoryBudget is negative
+	 */
+	public SnapshotFile(File path, long memoryBudget) throws IOException {
+		if (memoryBudget < 0)
+			throw new IllegalArgumentException("memoryBudget must not be negative");
+		this.memoryBudget = memoryBudget;
+
+		file = new RandomAccessFile(path, "r");
+		channel = file.getChannel();
+		fileSize = channel.size();
+
+		try {
+			ByteBuffer buf = read(0, BinaryWorldSerializer.unflaggedHeaderSize);
+			if (buf.getInt() != BinaryWorldSerializer.MAGIC)
+				throw new IllegalArgumentException("Not a binary world snapshot");
+			int version = buf.getInt();
+			if (version < unflaggedVersion || version > BinaryWorldSerializer.VERSION)
+				throw new IllegalArgumentException("Snapshot version " + version + " has no index");
+
+			width = buf.getInt();
+			height = buf.getInt();
+			seed = buf.getLong();
+			ticks = buf.getLong();
+			int speciesCount = buf.getInt();
+			if (speciesCount < 0)
+				throw new IllegalArgumentException("Invalid species count " + speciesCount);
+
+			specieIds = new long[speciesCount];
+			isPrey = new boolean[speciesCount];
+			spawnBudgets = new double[speciesCount];
+			neuronLayouts = new int[speciesCount][];
+			blobOffsets = new long[speciesCount][];
+
+			long position = BinaryWorldSerializer.unflaggedHeaderSize;
+			int flags = 0;
+			if (version > unflaggedVersion) {
+				flags = read(position, 4).getInt();
+				position += 4;
+			}
+			chromosomeIds = (flags & BinaryWorldSerializer.CHROMOSOME_IDS) != 0;
+			if (chromosomeIds)
+				position += 8;
+
+			for (int i = 0; i < speciesCount; i++) {
+				buf = read(position, BinaryWorldSerializer.specieInfoSize);
+				specieIds[i] = buf.getLong();
+				isPrey[i] = buf.get() != 0;
+				int blobCount = buf.getInt();
+				spawnBudgets[i] = buf.getDouble();
+				int layoutLength = buf.getInt();
+				if (blobCount < 0 || layoutLength < 0)
+					throw new IllegalArgumentException("Invalid species info");
+				position += BinaryWorldSerializer.specieInfoSize;
+
+				buf = read(position, 4 * layoutLength);
+				neuronLayouts[i] = new int[layoutLength];
+				buf.asIntBuffer().get(neuronLayouts[i]);
+				position += 4 * layoutLength;
+
+				blobOffsets[i] = new long[blobCount];
+			}
+
+			for (int i = 0; i < speciesCount; i++) {
+				buf = read(position, 8L * blobOffsets[i].length);
+				buf.asLongBuffer().get(blobOffsets[i]);
+				position += 8L * blobOffsets[i].length;
+			}
+
+			sharedGenes = (flags & BinaryWorldSerializer.SHARED_GENES) != 0;
+			boolean packed = (flags & BinaryWorldSerializer.PACKED_GENES) != 0;
+			long largestEntry = 0;
+			if (sharedGenes) {
+				geneTableCounts = new int[speciesCount];
+				long[] tableLengths = new long[speciesCount];
+				long[] tableOffsets = new long[speciesCount];
+
+				buf = read(position, (long) BinaryWorldSerializer.geneTableInfoSize * speciesCount);
+				position += buf.remaining();
+				for (int i = 0; i < speciesCount; i++) {
+					tableOffsets[i] = buf.getLong();
+					geneTableCounts[i] = buf.getInt();
+					tableLengths[i] = buf.getLong();
+					if (geneTableCounts[i] < 0 || tableLengths[i] < 0 ||
+							tableOffsets[i] < position ||
+							tableOffsets[i] + tableLengths[i] > fileSize ||
+							(packed && tableLengths[i] > Integer.MAX_VALUE))
+						throw new IllegalArgumentException("Invalid gene table");
+				}
+
+				if (packed) {
+					geneBlockOffsets = tableOffsets;
+					geneBlockLengths = new int[speciesCount];
+					for (int i = 0; i < speciesCount; i++)
+						geneBlockLengths[i] = (int) tableLengths[i];
+					geneEntryOffsets = null;
+				} else {
+					geneBlockOffsets = null;
+					geneBlockLengths = null;
+					geneEntryOffsets = new long[speciesCount][];
+					for (int i = 0; i < speciesCount; i++) {
+						geneEntryOffsets[i] = new long[geneTableCounts[i]];
+						buf = read(tableOffsets[i], 8L * geneTableCounts[i]);
+						buf.asLongBuffer().get(geneEntryOffsets[i]);
+						largestEntry = Math.max(largestEntry, getLargestEntrySize(
+								geneEntryOffsets[i], tableOffsets[i], tableLengths[i]));
+					}
+				}
+				for (int i = 0; i < speciesCount; i++)
+					position = Math.max(position, tableOffsets[i] + tableLengths[i]);
+			} else if (packed) {
+				geneTableCounts = null;
+				geneEntryOffsets = null;
+				geneBlockOffsets = new long[speciesCount];
+				geneBlockLengths = new int[speciesCount];
+
+				buf = read(position, (long) BinaryWorldSerializer.geneBlockInfoSize * speciesCount);
+				position += buf.remaining();
+				for (int i = 0; i < speciesCount; i++) {
+					geneBlockOffsets[i] = buf.getLong();
+					geneBlockLengths[i] = buf.getInt();
+					if (geneBlockLengths[i] < 0 || geneBlockOffsets[i] < position ||
+							geneBlockOffsets[i] + geneBlockLengths[i] > fileSize)
+						throw new IllegalArgumentException("Invalid gene block");
+				}
+				for (int i = 0; i < speciesCount; i++)
+					position = Math.max(position, geneBlockOffsets[i] + geneBlockLengths[i]);
+			} else {
+				geneBlockOffsets = null;
+				geneBlockLengths = null;
+				geneTableCounts = null;
+				geneEntryOffsets = null;
+			}
+
+			segmentLength = segmentSize + Math.max(largestEntry, getLargestBlobSize(position));
+			if (segmentLength > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Blobs are too large to be mapped");
+		} catch (IOException ex) {
+			file.close();
+			throw ex;
+		} catch (RuntimeException ex) {
+			file.close();
+			throw ex;
+		}
+
+		segments = new MappedByteBuffer[(int) ((fileSize + segmentSize - 1) / segmentSize)];
+	}
+
+	private long getLargestBlobSize(long blobsStart) {
+		long largest = 0, previous = blobsStart;
+		for (int i = 0; i < blobOffsets.length; i++) {
+			for (int j = 0; j < blobOffsets[i].length; j++) {
+				long offset = blobOffsets[i][j];
+				if (offset < previous || offset > fileSize)
+					throw new IllegalArgumentException("Invalid blob index");
+				largest = Math.max(largest, offset - previous);
+				previous = offset;
+			}
+		}
+		return Math.max(largest, fileSize - previous);
+	}
+
+	/*
+	 * Checks the entry offsets of a gene table and returns the size of its
+	 * largest entry.
+	 */
+	private static long getLargestEntrySize(long[] offsets, long tableOffset, long tableLength) {
+		long largest = 0, previous = tableOffset + 8L * offsets.length;
+		long end = tableOffset + tableLength;
+		for (int i = 0; i < offsets.length; i++) {
+			if (offsets[i] < previous || offsets[i] + 4 > end)
+				throw new IllegalArgumentException("Invalid gene table");
+			largest = Math.max(largest, offsets[i] - previous);
+			previous = offsets[i];
+		}
+		return Math.max(largest, end - previous);
+	}
+
+	private ByteBuffer read(long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE || position + length > fileSize)
+			throw new IllegalArgumentException("Snapshot is truncated");
+
+		ByteBuffer buf = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				throw new IllegalArgumentException("Snapshot is truncated");
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Get the width of the world in the snapshot.
+	 * 
+	 * @return the world's width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Get the height of the world in the snapshot.
+	 * 
+	 * @return the world's height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Get the seed of the world in the snapshot.
+	 * 
+	 * @return the world's seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Get the tick count of the world when the snapshot was taken.
+	 * 
+	 * @return the world's tick count
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Get the amount of species in the snapshot.
+	 * 
+	 * @return the species count
+	 */
+	public int getSpeciesCount() {
+		return specieIds.length;
+	}
+
+	/**
+	 * Get the id of a species.
+	 * 
+	 * @param specie the index of the species
+	 * @return the specie id
+	 */
+	public long getSpecieId(int specie) {
+		return specieIds[specie];
+	}
+
+	/**
+	 * Indicates if a species is prey.
+	 * 
+	 * @param specie the index of the species
+	 * @return true if the species is prey, false if it is a predator
+	 */
+	public boolean isPrey(int specie) {
+		return isPrey[specie];
+	}
+
+	/**
+	 * Get the spawn budget of a species.
+	 * 
+	 * @param specie the index of the species
+	 * @return the blobs the species respawns per tick
+	 */
+	public double getSpawnBudget(int specie) {
+		return spawnBudgets[specie];
+	}
+
+	/**
+	 * Get a copy of the neuron layout of a species.
+	 * 
+	 * @param specie the index of the species
+	 * @return the neuron layout of the species' brains
+	 */
+	public int[] cloneNeuronLayout(int specie) {
+		return neuronLayouts[specie].clone();
+	}
+
+	/**
+	 * Get the amount of blobs a species has, live or dead.
+	 * 
+	 * @param specie the index of the species
+	 * @return the blob count of the species
+	 */
+	public int getBlobCount(int specie) {
+		return blobOffsets[specie].length;
+	}
+
+	/**
+	 * Get the amount of chromosomes the blobs of a species refer to, which is
+	 * a current and a previous chromosome per blob.
+	 * 
+	 * @param specie the index of the species
+	 * @return the chromosome count of the species
+	 */
+	public int getChromosomeCount(int specie) {
+		return 2 * blobOffsets[specie].length;
+	}
+
+	/**
+	 * Get the amount of chromosomes whose genes are stored in the snapshot
+	 * for a species. If the snapshot has gene tables, this is the amount of
+	 * distinct gene arrays of the species. Otherwise every chromosome is
+	 * stored.
+	 * 
+	 * @param specie the index of the species
+	 * @return the stored chromosome count of the species
+	 */
+	public int getStoredChromosomeCount(int specie) {
+		return sharedGenes ? geneTableCounts[specie] : getChromosomeCount(specie);
+	}
+
+	/**
+	 * Get the amount of chromosomes of a species per chromosome stored.
+	 * 
+	 * @param specie the index of the species
+	 * @return the sharing ratio of the species, or one if it has no blobs
+	 */
+	public double getSharingRatio(int specie) {
+		int stored = getStoredChromosomeCount(specie);
+		return stored == 0 ? 1.0 : (double) getChromosomeCount(specie) / stored;
+	}
+
+	/**
+	 * Returns a view of a blob. The body state is read right away, while the
+	 * genes are read from the mapped file when they are requested.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the view of the blob
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 * @throws IllegalArgumentException if the blob refers to a gene table
+	 * 		entry that does not exist
+	 */
+	public BlobView getBlob(int specie, int blobId) throws IOException {
+		ByteBuffer record = map(blobOffsets[specie][blobId]);
+		if (!sharedGenes) {
+			if (geneBlockOffsets == null)
+				return new BlobView(specie, blobId, record, (double[]) null, null, false);
+
+			double[][] genes = getGeneBlock(specie);
+			return new BlobView(specie, blobId, record, genes[2 * blobId], genes[2 * blobId + 1],
+					false);
+		}
+
+		int refStart = BinaryWorldSerializer.blobHeaderSize + 8;
+		int ref = record.getInt(refStart);
+		int oldRef = record.getInt(refStart + (chromosomeIds ?
+				BinaryWorldSerializer.chromoSize : BinaryWorldSerializer.chromoHeaderSize));
+		int count = geneTableCounts[specie];
+		if (ref < 0 || ref >= count || oldRef < 0 || oldRef >= count)
+			throw new IllegalArgumentException("Invalid gene table reference");
+
+		if (geneBlockOffsets != null) {
+			double[][] genes = getGeneBlock(specie);
+			return new BlobView(specie, blobId, record, genes[ref], genes[oldRef],
+					chromosomeIds);
+		}
+
+		long[] entries = geneEntryOffsets[specie];
+		return new BlobView(specie, blobId, record, map(entries[ref]), map(entries[oldRef]),
+				chromosomeIds);
+	}
+
+	/*
+	 * Returns a little-endian view of the mapped file that starts at the
+	 * given offset and holds at least one blob or gene table entry.
+	 */
+	private ByteBuffer map(long offset) throws IOException {
+		int index = (int) (offset / segmentSize);
+		ByteBuffer buf = getSegment(index).duplicate();
+		buf.position((int) (offset - index * segmentSize));
+		return buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private double[][] getGeneBlock(int specie) throws IOException {
+		if (!channel.isOpen())
+			throw new IllegalStateException("Snapshot file is closed");
+
+		CacheEntry entry = cache.get(2 * specie + 1);
+		if (entry != null)
+			return (double[][]) entry.value;
+
+		ByteBuffer buf = read(geneBlockOffsets[specie], geneBlockLengths[specie]);
+		double[][] genes = GeneCodec.decode(buf.array());
+		if (genes.length != getStoredChromosomeCount(specie))
+			throw new IllegalArgumentException("Gene block does not match the blob count");
+
+		long bytes = arrayOverhead * (1 + genes.length);
+		for (int i = 0; i < genes.length; i++)
+			bytes += 8L * genes[i].length;
+		putCached(2 * specie + 1, genes, bytes);
+		return genes;
+	}
+
+	/**
+	 * Get the x coordinate of a blob's center. The first call for a species
+	 * decodes the body state of all its blobs, but none of their genes.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the x coordinate
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 */
+	public double getX(int specie, int blobId) throws IOException {
+		return getBodies(specie).x[blobId];
+	}
+
+	/**
+	 * Get the y coordinate of a blob's center.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the y coordinate
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 * @see #getX(int, int)
+	 */
+	public double getY(int specie, int blobId) throws IOException {
+		return getBodies(specie).y[blobId];
+	}
+
+	/**
+	 * Get the angle a blob is facing.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the angle in radians
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 * @see #getX(int, int)
+	 */
+	public double getAngle(int specie, int blobId) throws IOException {
+		return getBodies(specie).angle[blobId];
+	}
+
+	/**
+	 * Get the energy of a blob. A blob without energy is dead.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the blob's energy
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 * @see #getX(int, int)
+	 */
+	public double getEnergy(int specie, int blobId) throws IOException {
+		return getBodies(specie).energy[blobId];
+	}
+
+	/**
+	 * Get the age of a blob.
+	 * 
+	 * @param specie the index of the species
+	 * @param blobId the id of the blob
+	 * @return the blob's age in ticks
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalStateException if the snapshot file has been closed
+	 * @see #getX(int, int)
+	 */
+	public int getAge(int specie, int blobId) throws IOException {
+		return getBodies(specie).age[blobId];
+	}
+
+	private SpecieBodies getBodies(int specie) throws IOException {
+		if (!channel.isOpen())
+			throw new IllegalStateException("Snapshot file is closed");
+
+		CacheEntry entry = cache.get(2 * specie);
+		if (entry != null)
+			return (SpecieBodies) entry.value;
+
+		int count = blobOffsets[specie].length;
+		SpecieBodies bodies = new SpecieBodies(count);
+		for (int i = 0; i < count; i++) {
+			long offset = blobOffsets[specie][i];
+			int index = (int) (offset / segmentSize);
+			ByteBuffer buf = getSegment(index);
+			int position = (int) (offset - index * segmentSize);
+
+			bodies.x[i] = buf.getDouble(position);
+			bodies.y[i] = buf.getDouble(position + 8);
+			bodies.angle[i] = buf.getDouble(position + 16);
+			bodies.energy[i] = buf.getDouble(position + 24);
+			bodies.age[i] = buf.getInt(position + 32);
+		}
+
+		putCached(2 * specie, bodies, 5 * arrayOverhead + 36L * count);
+		return bodies;
+	}
+
+	/*
+	 * Adds a decoded value to the cache and drops the least recently used
+	 * values until the cache fits into the budget. A value larger than the
+	 * whole budget is not kept at all.
+	 */
+	private void putCached(int key, Object value, long bytes) {
+		if (bytes > memoryBudget)
+			return;
+
+		cache.put(key, new CacheEntry(value, bytes));
+		cachedBytes += bytes;
+
+		Iterator<CacheEntry> it = cache.values().iterator();
+		while (cachedBytes > memoryBudget) {
+			cachedBytes -= it.next().bytes;
+			it.remove();
+		}
+	}
+
+	/**
+	 * Gets the amount of bytes the decoded species kept by the cache take up.
+	 * 
+	 * @return the estimated size of the cache
+	 */
+	public long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	private MappedByteBuffer getSegment(int index) throws IOException {
+		if (!channel.isOpen())
+			throw new IllegalStateException("Snapshot file is closed");
+
+		if (segments[index] == null) {
+			long start = index * segmentSize;
+			long length = Math.min(segmentLength, fileSize - start);
+			segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			segments[index].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return segments[index];
+	}
+
+	/**
+	 * Closes the file. Views that were returned before stay readable until
+	 * they are garbage collected.
+	 * 
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		cache.clear();
+		cachedBytes = 0;
+		file.close();
+	}
+
+	private static final class CacheEntry {
+		private final Object value;
+		private final long bytes;
+
+		CacheEntry(Object value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static final class SpecieBodies {
+		private final double[] x, y, angle, energy;
+		private final int[] age;
+
+		SpecieBodies(int count) {
+			x = new double[count];
+			y = new double[count];
+			angle = new double[count];
+			energy = new double[count];
+			age = new int[count];
+		}
+	}
+}
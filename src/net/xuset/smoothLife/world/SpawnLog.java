@@ -0,0 +1,78 @@
+package net.xuset.smoothLife.world;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Collects the blobs respawned during one tick in the form they are stored
+ * in a run journal. Every spawn is written as the specie id and the blob id,
+ * both as variable length numbers, followed by a 32 bit check of the
+ * location and angle the blob respawned with. Two runs that respawn the
+ * same blobs in the same places produce the same bytes, so a replay is
+ * verified by comparing its log to the journal.
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see RunJournalWriter
+ */
+final class SpawnLog {
+	private static final int maxSpawnSize = 10 + 5 + 4;
+
+	private byte[] bytes = new byte[256];
+	private int size = 0, count = 0;
+
+	/**
+	 * Records a blob that was just respawned.
+	 * 
+	 * @param specieId the specie id of the blob's species
+	 * @param blob the respawned blob
+	 */
+	void record(long specieId, Blob blob) {
+		if (bytes.length - size < maxSpawnSize)
+			bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes, size, bytes.length - size);
+		RunJournalWriter.putVarLong(buf, specieId);
+		RunJournalWriter.putVarLong(buf, blob.getId());
+		buf.putInt(checkLocation(blob.getBody()));
+		size = buf.position();
+		count++;
+	}
+
+	private static int checkLocation(Body body) {
+		long check = Double.doubleToLongBits(body.getX());
+		check = check * 31 + Double.doubleToLongBits(body.getY());
+		check = check * 31 + Double.doubleToLongBits(body.getAngle());
+		return (int) (check ^ (check >>> 32));
+	}
+
+	/**
+	 * Gets the amount of spawns recorded since the log was last cleared.
+	 * 
+	 * @return the spawn count
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * Encodes the recorded spawns as the payload of a journal record, which
+	 * is the spawn count as a variable length number followed by the spawns.
+	 * 
+	 * @return the payload
+	 */
+	byte[] toPayload() {
+		ByteBuffer buf = ByteBuffer.allocate(5 + size);
+		RunJournalWriter.putVarLong(buf, count);
+		buf.put(bytes, 0, size);
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * Removes all recorded spawns.
+	 */
+	void clear() {
+		size = 0;
+		count = 0;
+	}
+}
@@ -3,7 +3,10 @@ package net.xuset.smoothLife.world;
 import java.util.ArrayList;
 import java.util.List;
 
+import net.xuset.smoothLife.nnetwork.Chromosome;
 import net.xuset.smoothLife.nnetwork.GenePool;
+import net.xuset.smoothLife.nnetwork.LineageRecorder;
+import net.xuset.smoothLife.nnetwork.OffspringBreeder;
 
 
 /**
@@ -16,15 +19,18 @@ import net.xuset.smoothLife.nnetwork.GenePool;
  */
 public class Specie {
 
-	private static final int ticksPerSpawn = 50;
+	private static final double creditTolerance = 1e-9;
 
-	private final List<Blob> deadBlobs = new ArrayList<Blob>();
-	private final List<Blob> liveBlobs = new ArrayList<Blob>();
+	private final BlobPool blobs = new BlobPool();
+	private final MortonOrder mortonOrder = new MortonOrder();
+	private final List<Blob> spawning = new ArrayList<Blob>();
 	private final BlobSpawner blobSpawner;
 	private final long specieId;
 	private final boolean isPrey;
+	private final double spawnBudget;
 
-	private int lastSpawnTick = 0;
+	private double spawnCredit = 0.0;
+	private SpawnLog spawnLog = null;
 
 	/**
 	 * Instantiate a new species.
@@ -34,14 +40,69 @@ public class Specie {
 	 * @param blobSpawner the spawner object used to create blobs
 	 * @param isPrey indicates if this species should be prey or predators
 	 * @param initBlobCount the initial amount of blobs to spawn
+	 * @param spawnBudget the amount of dead blobs to respawn per tick. A value
+	 * 		less than one spawns a blob every few ticks.
 	 */
-	Specie(long specieId, BlobSpawner blobSpawner, boolean isPrey, int initBlobCount) {
+	Specie(long specieId, BlobSpawner blobSpawner, boolean isPrey, int initBlobCount,
+			double spawnBudget) {
+
 		this.specieId = specieId;
 		this.blobSpawner = blobSpawner;
 		this.isPrey = isPrey;
+		this.spawnBudget = spawnBudget;
 
-		for (int i = 0; i < initBlobCount; i++)
-			liveBlobs.add(blobSpawner.create(isPrey, specieId));
+		for (int i = 0; i < initBlobCount; i++) {
+			blobs.add(blobSpawner.create(isPrey, specieId, i));
+		}
+	}
+
+	/**
+	 * Restores a species from an image. If the image holds the run state of
+	 * the species, the order of the live and dead blobs and the positions of
+	 * all random number streams are restored as well, so the species
+	 * continues exactly like the species it was captured from. Otherwise
+	 * blobs without energy are added as dead blobs in the order of their ids.
+	 * 
+	 * @param image the image holding the species
+	 * @param index the index of the species in the image
+	 * @param blobSpawner the spawner object used to create blobs
+	 */
+	Specie(WorldImage image, int index, BlobSpawner blobSpawner) {
+		this.specieId = image.specieIds[index];
+		this.blobSpawner = blobSpawner;
+		this.isPrey = image.isPrey[index];
+		this.spawnBudget = image.spawnBudgets[index];
+
+		for (int i = 0; i < image.getBlobCount(index); i++) {
+			Chromosome chromo = image.chromo[index][i];
+			Chromosome oldChromo = image.oldChromo[index][i];
+			chromo.setFitness(image.fitness[index][i]);
+			oldChromo.setFitness(image.oldFitness[index][i]);
+
+			Blob b = blobSpawner.restore(isPrey, specieId, i,
+					image.x[index][i], image.y[index][i], image.angle[index][i],
+					image.energy[index][i], image.age[index][i], chromo, oldChromo);
+
+			if (image.hasRunState())
+				b.getRandom().setCounter(image.randomCounters[index][i]);
+
+			if (b.getEnergy() > 0.0)
+				blobs.add(b);
+			else
+				blobs.addDead(b);
+		}
+
+		if (image.hasRunState()) {
+			spawnCredit = image.spawnCredits[index];
+			blobSpawner.setBreedCounter(image.breedCounters[index]);
+			mortonOrder.restore(image.sortIntervals[index], image.sortTicks[index],
+					image.sortDrifts[index]);
+			blobs.restoreOrder(image.blobOrder[index], image.liveCounts[index]);
+
+			int[] coarse = image.coarseStates[index];
+			for (int i = 0; i < coarse.length; i += 4)
+				getBlobById(coarse[i]).restoreCoarseStep(coarse[i + 1], coarse[i + 2], coarse[i + 3]);
+		}
 	}
 
 	/**
@@ -59,18 +120,96 @@ public class Specie {
 	 * @return the count of all the blobs that are alive
 	 */
 	public int getBlobCount() {
-		return liveBlobs.size();
+		return blobs.getLiveCount();
 	}
 
 	/**
-	 * Returns the blob at the specified index.
+	 * Returns the live blob at the specified index. The order of the live
+	 * blobs changes when blobs die or respawn.
 	 * 
 	 * @param index the index of the blob to return. The index should be >= 0
 	 * and should be < getBlobCount().
 	 * @return the Blob at the specified index
 	 */
 	public Blob getBlob(int index) {
-		return liveBlobs.get(index);
+		return blobs.getLive(index);
+	}
+
+	/**
+	 * Returns the amount of blobs that are alive or dead.
+	 * 
+	 * @return the count of all the blobs in the species
+	 */
+	public int getTotalBlobCount() {
+		return blobs.getSize();
+	}
+
+	/**
+	 * Returns the blob with the given id, whether it is alive or dead.
+	 * 
+	 * @param id the id of the blob. The id should be >= 0 and should be
+	 * 		< getTotalBlobCount().
+	 * @return the Blob with the given id
+	 */
+	public Blob getBlobById(int id) {
+		return blobs.getById(id);
+	}
+
+	/**
+	 * Indicates if the blob with the given id is alive.
+	 * 
+	 * @param id the id of the blob
+	 * @return true if the blob is alive, false if it is waiting to respawn
+	 */
+	public boolean isBlobLive(int id) {
+		return blobs.isLive(id);
+	}
+
+	/**
+	 * Returns the amount of blobs that are waiting to respawn.
+	 * 
+	 * @return the count of the dead blobs
+	 */
+	int getDeadBlobCount() {
+		return blobs.getDeadCount();
+	}
+
+	/**
+	 * Returns the dead blob at the given position in the respawn order.
+	 * 
+	 * @param index the position of the blob. 0 is the blob that is respawned
+	 * 		first. The index should be >= 0 and < getDeadBlobCount().
+	 * @return the dead blob
+	 */
+	Blob getDeadBlob(int index) {
+		return blobs.getDead(index);
+	}
+
+	/**
+	 * Returns the amount of dead blobs the species respawns per tick.
+	 * 
+	 * @return the spawn budget of the species
+	 */
+	public double getSpawnBudget() {
+		return spawnBudget;
+	}
+
+	/**
+	 * Returns the part of a spawn that was saved up over the last ticks.
+	 * 
+	 * @return the spawn credit of the species
+	 */
+	double getSpawnCredit() {
+		return spawnCredit;
+	}
+
+	/**
+	 * Returns the position in the random number stream used for breeding.
+	 * 
+	 * @return the counter of the breeding stream
+	 */
+	long getBreedCounter() {
+		return blobSpawner.getBreedCounter();
 	}
 
 	/**
@@ -82,15 +221,32 @@ public class Specie {
 	}
 
 	/**
-	 * Return a new list of all live and dead blobs.
+	 * Returns the background breeder of the species.
+	 * 
+	 * @return the breeder or null if background breeding is not enabled
+	 */
+	public OffspringBreeder getBreeder() {
+		return blobSpawner.getBreeder();
+	}
+
+	/**
+	 * Returns clones of the fittest chromosomes in the species' genepool.
+	 * 
+	 * @param count the maximum amount of chromosomes to return
+	 * @return the cloned chromosomes ordered from most to least fit
+	 */
+	Chromosome[] cloneFittest(int count) {
+		return blobSpawner.cloneFittest(count);
+	}
+
+	/**
+	 * Places chromosomes that migrated from another world into the species'
+	 * genepool by replacing its least fit chromosomes.
 	 * 
-	 * @return a list of all live and dead blobs.
+	 * @param migrants the chromosomes to place into the genepool
 	 */
-	List<Blob> getAllBlobs() {
-		List<Blob> list = new ArrayList<Blob>();
-		list.addAll(liveBlobs);
-		list.addAll(deadBlobs);
-		return list;
+	void acceptMigrants(Chromosome[] migrants) {
+		blobSpawner.replaceWeakest(migrants);
 	}
 
 	/**
@@ -120,47 +276,130 @@ public class Specie {
 		return specieId;
 	}
 
+	/**
+	 * Sets the breeder used to create the chromosomes of respawned blobs.
+	 * 
+	 * @param breeder the new breeder or null to breed on the simulation thread
+	 * @param tick the current tick of the world
+	 */
+	void setBreeder(OffspringBreeder breeder, long tick) {
+		blobSpawner.setBreeder(breeder, tick);
+	}
+
+	/**
+	 * Sets the recorder used to log the ancestry of the species' chromosomes.
+	 * 
+	 * @param recorder the new recorder or null to stop recording
+	 */
+	void setLineageRecorder(LineageRecorder recorder) {
+		blobSpawner.setLineageRecorder(recorder);
+	}
+
+	/**
+	 * Sets the log the respawned blobs are recorded in.
+	 * 
+	 * @param log the new log or null to stop recording
+	 */
+	void setSpawnLog(SpawnLog log) {
+		spawnLog = log;
+	}
+
 	/**
 	 * Called all all species before updateBlobs is called.
-	 * This method removes any dead blobs and spawns any new blobs.
+	 * This method removes any dead blobs and spawns any new blobs. Every tick
+	 * the spawn budget is added to the spawn credit, and as many dead blobs as
+	 * there are whole credits are bred and respawned together. Credits that
+	 * could not be used because there were not enough dead blobs are dropped.
 	 * The preupdate method is called on all the live blobs.
+	 * 
+	 * @param tick the current tick of the world
 	 */
-	void preupdateBlobs() {
-		for (int i = 0; i < liveBlobs.size(); i++) {
-			Blob b = liveBlobs.get(i);
+	void preupdateBlobs(long tick) {
+		int i = 0;
+		while (i < blobs.getLiveCount()) {
+			Blob b = blobs.getLive(i);
 			b.preupdate();
 
-			if (b.getEnergy() <= 0.0) {
-				deadBlobs.add(b);
-				liveBlobs.remove(i);
-				i--;
-			}
+			//the last live blob takes the place of a dead one, so don't advance
+			if (b.getEnergy() <= 0.0)
+				blobs.kill(i);
+			else
+				i++;
 		}
 
-		if (lastSpawnTick == ticksPerSpawn) {
-			spawnBlob();
-			lastSpawnTick = 0;
+		spawnCredit += spawnBudget;
+		int wholeCredits = (int) (spawnCredit + creditTolerance);
+		if (wholeCredits > 0) {
+			spawnBlobs(wholeCredits, tick);
+			spawnCredit = Math.max(0.0, spawnCredit - wholeCredits);
 		}
+	}
+
+	/**
+	 * Sorts the live blobs along a Z-order curve of their locations if the
+	 * adaptive interval has passed since the last sort. This changes the
+	 * order of getBlob but not the blob ids.
+	 * 
+	 * @param tick the current tick of the world
+	 */
+	void sortBlobsIfDue(long tick) {
+		mortonOrder.sortIfDue(blobs, tick);
+	}
+
+	/**
+	 * Gets the amount of ticks between sorts of the live blobs.
+	 * 
+	 * @return the current sort interval
+	 */
+	int getSortInterval() {
+		return mortonOrder.getInterval();
+	}
 
-		lastSpawnTick++;
+	/**
+	 * Gets the tick at or after which the live blobs are sorted next.
+	 * 
+	 * @return the tick of the next sort
+	 */
+	long getNextSortTick() {
+		return mortonOrder.getNextTick();
+	}
+
+	/**
+	 * Gets the drift of the live blobs measured at the last sort.
+	 * 
+	 * @return the fraction of neighboring live blobs that were out of order
+	 */
+	double getLastSortDrift() {
+		return mortonOrder.getLastDrift();
 	}
 
 	/**
 	 * Calls the update method on the all the live blobs.
+	 * 
+	 * @param ledger the ledger the blobs record energy changes in
 	 */
-	void updateBlobs() {
-		for (int i = 0; i < liveBlobs.size(); i++) {
-			Blob b = liveBlobs.get(i);
-			b.update();
+	void updateBlobs(EnergyLedger ledger) {
+		for (int i = 0; i < blobs.getLiveCount(); i++) {
+			Blob b = blobs.getLive(i);
+			b.update(ledger);
 		}
 	}
 
-	private void spawnBlob() {
-		if (deadBlobs.isEmpty())
+	private void spawnBlobs(int count, long tick) {
+		count = Math.min(count, blobs.getDeadCount());
+		if (count == 0)
 			return;
 
-		Blob b = deadBlobs.remove(0);
-		blobSpawner.respawn(b);
-		liveBlobs.add(b);
+		for (int i = 0; i < count; i++)
+			spawning.add(blobs.getDead(i));
+
+		Chromosome[] chromos = blobSpawner.breed(spawning, tick);
+		for (int i = 0; i < count; i++) {
+			Blob b = blobs.reviveFirstDead();
+			blobSpawner.respawn(b, chromos[i]);
+			if (spawnLog != null)
+				spawnLog.record(specieId, b);
+		}
+		spawning.clear();
 	}
 }
@@ -0,0 +1,351 @@
+package net.xuset.smoothLife.world;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Updates the live blobs of a world in two phases. In the think phase every
+ * blob senses its surroundings and runs its brain. Nothing in the world is
+ * changed during this phase, so all blobs see the same state and the phase is
+ * run in parallel on a ForkJoinPool. The act phase executes the chosen
+ * actions in three steps. First every blob ages and turns. Then the blobs
+ * move, which is done in parallel on a grid of tiles as described below.
+ * Lastly the special actions are executed in parallel. They only record the
+ * energy they move between blobs in an EnergyLedger, which is applied in the
+ * order of the species and their blob ids once all blobs have acted. All of
+ * this keeps the outcome independent of the amount of threads.
+ * 
+ * <p>
+ * For the move step, the live blobs are sorted into a grid of tiles that are
+ * larger than the largest possible collision distance plus twice the longest
+ * possible move. The tiles are colored like a checkerboard with four colors,
+ * so that no two tiles of the same color touch, not even at a corner. The
+ * colors are processed one after another, and all tiles of a color are
+ * processed in parallel. Within a tile the blobs move one at a time in id
+ * order, and a collision test only looks at the tile and its eight
+ * neighbors. Since no neighbor of a tile moves at the same time, every move
+ * sees a stable neighborhood and blobs never end up overlapping, just like
+ * with BlobFinder#getColliding. A blob that crosses into another tile is
+ * sorted into that tile when the grid is rebuilt on the next tick.
+ * </p>
+ * 
+ * <p>
+ * The work of the think phase is split up by ranges of blob ids rather than
+ * by thread, and all random numbers are drawn from per blob and per species
+ * streams. A world with a given seed therefore evolves bit for bit the same
+ * no matter how many threads the engine uses.
+ * </p>
+ * 
+ * <p>
+ * Coarse stepping can be turned on for sparse worlds. A blob with no other
+ * blob within a safety distance then sits out several ticks in a row and
+ * skips the think phase for them. When the step is over, or as soon as
+ * another blob comes within the safety distance, the blob catches up on the
+ * ticks it sat out in one go, repeating the actions it last chose, and is
+ * updated every tick again. The safety distance covers the range of the
+ * special actions plus the distance blobs can move in the meantime, so no
+ * interaction is missed. While a blob sits out ticks, the world sees it at
+ * the location where the step started. Blobs catch up one after another in
+ * id order, and every tick of a catch up is tested for collisions with the
+ * other blobs where they are at that moment, so a blob neither passes
+ * through another blob nor lands on one that caught up before it. Coarse
+ * stepping changes the outcome of a seeded world but keeps it independent
+ * of the amount of threads.
+ * </p>
+ * 
+ * <p>
+ * A world without a tick engine updates each blob completely before moving on
+ * to the next blob. That mode is still used by default and can be used to
+ * compare against.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see World#setTickEngine(TickEngine)
+ */
+public class TickEngine {
+	private static final int minBlobsPerTask = 16;
+	private static final int minTilesPerTask = 8;
+
+	private static final int tileColors = 4;
+
+	private final ForkJoinPool pool;
+	private final BlobGrid tiles = new BlobGrid();
+	private final EnergyLedger ledger = new EnergyLedger();
+	private final BlobGrid neighbors = new BlobGrid();
+	private Blob[] blobs = new Blob[0];
+	private boolean[] isolated = new boolean[0];
+	private int blobCount = 0;
+	private int coarseBlobCount = 0;
+	private double maxRadius = 0.0, maxMove = 0.0;
+
+	private volatile int maxCoarseStep = 1;
+
+	/**
+	 * Instantiate a new tick engine with its own ForkJoinPool.
+	 * 
+	 * @param parallelism the amount of threads used in the think phase
+	 * @throws IllegalArgumentException if parallelism is less than 1
+	 */
+	public TickEngine(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be greater than 0");
+
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Gets the amount of threads used in the think phase.
+	 * 
+	 * @return the parallelism of the engine
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Sets the longest coarse step an isolated blob can take.
+	 * 
+	 * @param maxTicks the most ticks a coarse step can cover, or 1 to update
+	 * 		every blob on every tick
+	 * @throws IllegalArgumentException if maxTicks is less than 1
+	 */
+	public void setMaxCoarseStep(int maxTicks) {
+		if (maxTicks < 1)
+			throw new IllegalArgumentException("maxTicks must be greater than 0");
+
+		maxCoarseStep = maxTicks;
+	}
+
+	/**
+	 * Gets the longest coarse step an isolated blob can take.
+	 * 
+	 * @return the most ticks a coarse step can cover. 1 means coarse stepping
+	 * 		is turned off.
+	 */
+	public int getMaxCoarseStep() {
+		return maxCoarseStep;
+	}
+
+	/**
+	 * Gets the amount of live blobs that sat out the last tick because of
+	 * coarse stepping.
+	 * 
+	 * @return the amount of blobs that were not updated in the last tick
+	 */
+	public int getCoarseBlobCount() {
+		return coarseBlobCount;
+	}
+
+	/**
+	 * Stops the threads used by the engine. The engine should not be used
+	 * afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Runs the think and act phases for all live blobs of the given species.
+	 * 
+	 * @param species the species to update
+	 */
+	void updateBlobs(List<Specie> species) {
+		int coarseStep = maxCoarseStep;
+		gatherBlobs(species);
+		measureBlobs();
+		if (coarseStep > 1)
+			skipCoarseBlobs(coarseStep);
+		else
+			coarseBlobCount = 0;
+
+		if (pool.getParallelism() == 1) {
+			for (int i = 0; i < blobCount; i++)
+				blobs[i].think();
+		} else {
+			pool.invoke(new ThinkTask(0, blobCount));
+		}
+
+		for (int i = 0; i < blobCount; i++)
+			blobs[i].actTurn();
+
+		moveBlobs();
+
+		ledger.reserve(blobCount);
+		if (pool.getParallelism() == 1) {
+			for (int i = 0; i < blobCount; i++)
+				blobs[i].actSpecial(ledger, i);
+		} else {
+			pool.invoke(new SpecialTask(0, blobCount));
+		}
+		ledger.apply();
+
+		if (coarseStep > 1) {
+			for (int i = 0; i < blobCount; i++) {
+				if (isolated[i])
+					blobs[i].startCoarseStep(coarseStep);
+			}
+		}
+	}
+
+	private void measureBlobs() {
+		maxRadius = 0.0;
+		maxMove = 0.0;
+		for (int i = 0; i < blobCount; i++) {
+			maxRadius = Math.max(maxRadius, blobs[i].getBody().getRadius());
+			maxMove = Math.max(maxMove, blobs[i].getMaxMoveDistance());
+		}
+	}
+
+	/*
+	 * Removes the blobs that sit out this tick from the blobs array and lets
+	 * the blobs whose coarse step ended catch up. The safety distance covers
+	 * the special actions, a move by any neighbor during this tick, and the
+	 * catch up of a whole coarse step. The grid reads the bodies where they
+	 * are now rather than where they were sorted in, and its cells are also
+	 * widened by the longest catch up, so a blob that caught up earlier in
+	 * the loop is still found by the searches around its new location.
+	 */
+	private void skipCoarseBlobs(int coarseStep) {
+		double safety = 2 * maxRadius + Blob.getInteractionRange() +
+				(coarseStep + 2) * maxMove;
+		neighbors.rebuild(blobs, blobCount, 2 * maxRadius + safety + coarseStep * maxMove);
+
+		if (isolated.length < blobCount)
+			isolated = new boolean[blobs.length];
+
+		int awake = 0;
+		for (int i = 0; i < blobCount; i++) {
+			Blob b = blobs[i];
+			boolean alone = !neighbors.hasNeighborWithin(b.getBody(), safety);
+
+			if (b.isCoarse()) {
+				if (alone && b.skipCoarseTick())
+					continue;
+				b.finishCoarseStep(neighbors);
+			}
+
+			isolated[awake] = alone;
+			blobs[awake++] = b;
+		}
+
+		coarseBlobCount = blobCount - awake;
+		blobCount = awake;
+	}
+
+	private void moveBlobs() {
+		tiles.rebuild(blobs, blobCount, 2 * maxRadius + 2 * maxMove + 1.0);
+
+		for (int color = 0; color < tileColors; color++) {
+			int tileCount = getTileCount(color);
+			if (pool.getParallelism() == 1) {
+				for (int i = 0; i < tileCount; i++)
+					moveTile(color, i);
+			} else {
+				pool.invoke(new MoveTask(color, 0, tileCount));
+			}
+		}
+	}
+
+	private int getTileCount(int color) {
+		int columns = (tiles.getColumnCount() - (color & 1) + 1) / 2;
+		int rows = (tiles.getRowCount() - (color >> 1) + 1) / 2;
+		return columns * rows;
+	}
+
+	private void moveTile(int color, int index) {
+		int columns = (tiles.getColumnCount() - (color & 1) + 1) / 2;
+		int column = (color & 1) + 2 * (index % columns);
+		int row = (color >> 1) + 2 * (index / columns);
+		int cell = tiles.getCell(column, row);
+
+		for (int i = tiles.getCellStart(cell); i < tiles.getCellEnd(cell); i++)
+			tiles.getBlob(i).actMove(tiles);
+	}
+
+	private void gatherBlobs(List<Specie> species) {
+		int count = 0;
+		for (int i = 0; i < species.size(); i++)
+			count += species.get(i).getBlobCount();
+
+		if (blobs.length < count)
+			blobs = new Blob[count];
+
+		blobCount = 0;
+		for (int i = 0; i < species.size(); i++) {
+			Specie sp = species.get(i);
+			for (int id = 0; id < sp.getTotalBlobCount(); id++) {
+				if (sp.isBlobLive(id))
+					blobs[blobCount++] = sp.getBlobById(id);
+			}
+		}
+	}
+
+	private final class MoveTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int color, start, end;
+
+		MoveTask(int color, int start, int end) {
+			this.color = color;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= minTilesPerTask) {
+				for (int i = start; i < end; i++)
+					moveTile(color, i);
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new MoveTask(color, start, middle), new MoveTask(color, middle, end));
+		}
+	}
+
+	private final class SpecialTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start, end;
+
+		SpecialTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= minBlobsPerTask) {
+				for (int i = start; i < end; i++)
+					blobs[i].actSpecial(ledger, i);
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new SpecialTask(start, middle), new SpecialTask(middle, end));
+		}
+	}
+
+	private final class ThinkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start, end;
+
+		ThinkTask(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= minBlobsPerTask) {
+				for (int i = start; i < end; i++)
+					blobs[i].think();
+				return;
+			}
+
+			int middle = (start + end) >>> 1;
+			invokeAll(new ThinkTask(start, middle), new ThinkTask(middle, end));
+		}
+	}
+}
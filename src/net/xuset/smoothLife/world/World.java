@@ -1,9 +1,17 @@
 package net.xuset.smoothLife.world;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import net.xuset.smoothLife.nnetwork.Brain;
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.ChromosomeIds;
+import net.xuset.smoothLife.nnetwork.CounterRandom;
 import net.xuset.smoothLife.nnetwork.GenePool;
+import net.xuset.smoothLife.nnetwork.LineageRecorder;
+import net.xuset.smoothLife.nnetwork.OffspringBreeder;
 import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
 import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
 
@@ -15,9 +23,22 @@ import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
  * @since 1.0
  */
 public class World {
+	//blob streams are keyed by blob ids, which are never negative
+	private static final long breederStreamId = -1L;
 
 	private final ArrayList<Specie> species = new ArrayList<Specie>(2);
 	private final int worldWidth, worldHeight;
+	private final long seed;
+	private final BlobFinder blobFinder;
+	private final ChromosomeIds chromosomeIds;
+
+	private ExecutorService breederExecutor = null;
+	private final EnergyLedger ledger = new EnergyLedger();
+	private TickEngine tickEngine = null;
+	private RunJournalWriter journal = null;
+	private boolean gridFinder = false;
+	private boolean sortBlobs = false;
+	private long ticks = 0L;
 
 	/**
 	 * Create a new world based on the given world info.
@@ -27,21 +48,54 @@ public class World {
 	World(WorldInfo worldInfo) {
 		worldWidth = worldInfo.worldWidth;
 		worldHeight = worldInfo.worldHeight;
+		seed = worldInfo.seed;
+		chromosomeIds = new ChromosomeIds();
 
-		BlobFinder blobFinder = new BlobFinder(species);
+		blobFinder = new BlobFinder(species);
 		SpecieInfo[] speciesInfo = worldInfo.speciesInfos;
 
 		for (int i = 0; i < speciesInfo.length; i++) {
 			SpecieInfo info = speciesInfo[i];
-			int weightCount = Brain.getWeightCount(info.neuronLayout);
-			GenePool genePool = new GenePool(weightCount);
-			BlobSpawner spawner = new BlobSpawner(genePool, blobFinder, worldWidth,
-					worldHeight, info.neuronLayout);
+			BlobSpawner spawner = createSpawner(info.specieId, info.neuronLayout);
 			species.add(new Specie(info.specieId, spawner, info.isPrey,
-					info.initBlobCount));
+					info.initBlobCount, info.spawnBudget));
+		}
+	}
+
+	/**
+	 * Restores a world straight from an image. Unlike creating a new world,
+	 * no random chromosomes are created and no spawn locations are searched.
+	 * Every blob is set up once with the state in the image, blobs without
+	 * energy are put back as dead blobs, and the gene pools are filled with
+	 * the previous chromosomes of the blobs. The chromosomes of the image
+	 * are used directly and get their fitness from the image, so they must
+	 * not belong to another world. New chromosomes continue the id sequence
+	 * saved in the image.
+	 * 
+	 * @param image the image to restore
+	 */
+	World(WorldImage image) {
+		worldWidth = image.width;
+		worldHeight = image.height;
+		seed = image.seed;
+		ticks = image.ticks;
+		chromosomeIds = new ChromosomeIds(image.nextChromosomeId);
+
+		blobFinder = new BlobFinder(species);
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
+			BlobSpawner spawner = createSpawner(image.specieIds[i], image.neuronLayouts[i]);
+			species.add(new Specie(image, i, spawner));
 		}
 	}
 
+	private BlobSpawner createSpawner(long specieId, int[] neuronLayout) {
+		int weightCount = Brain.getWeightCount(neuronLayout);
+		GenePool genePool = new GenePool(weightCount);
+		long streamKey = CounterRandom.deriveKey(seed, specieId);
+		return new BlobSpawner(genePool, blobFinder, worldWidth,
+				worldHeight, neuronLayout, streamKey, chromosomeIds);
+	}
+
 	/**
 	 * Get the total number of species.
 	 * 
@@ -80,20 +134,296 @@ public class World {
 		return worldHeight;
 	}
 
+	/**
+	 * Get the seed all random numbers of the world are derived from.
+	 * 
+	 * @return the world's seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Get the amount of times updateBlobs has been called on this world.
+	 * 
+	 * @return the tick count of the world
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Gets the sequence the ids of the world's new chromosomes are taken
+	 * from.
+	 * 
+	 * @return the world's chromosome id sequence
+	 */
+	ChromosomeIds getChromosomeIds() {
+		return chromosomeIds;
+	}
+
+	/**
+	 * Enables breeding the chromosomes of respawned blobs on a background
+	 * thread. Each species keeps a queue of ready-made offspring that is
+	 * refilled from a snapshot of the species' gene pool. This method should
+	 * be called from the thread that updates the world. The random numbers of
+	 * each breeder are derived from the world's seed, the specie id and the
+	 * current tick. Because which offspring a blob receives still depends on
+	 * the timing of the background thread, a world with background breeding
+	 * is no longer reproducible from its seed.
+	 * 
+	 * @param queueSize the amount of offspring each species keeps ready
+	 * @throws IllegalArgumentException if queueSize is less than 1
+	 * @throws IllegalStateException if a run journal is attached
+	 */
+	public void enableBackgroundBreeding(int queueSize) {
+		if (journal != null)
+			throw new IllegalStateException("A journaled world cannot breed in the background");
+
+		if (breederExecutor == null)
+			breederExecutor = Executors.newSingleThreadExecutor(new BreederThreadFactory());
+
+		for (int i = 0; i < species.size(); i++) {
+			Specie specie = species.get(i);
+			long specieKey = CounterRandom.deriveKey(seed, specie.getSpecieId());
+			long breederKey = CounterRandom.deriveKey(
+					CounterRandom.deriveKey(specieKey, breederStreamId), ticks);
+			OffspringBreeder breeder = new OffspringBreeder(queueSize, breederExecutor,
+					chromosomeIds, breederKey);
+			specie.setBreeder(breeder, ticks);
+		}
+	}
+
+	/**
+	 * Sets the recorder used to log the ancestry of every chromosome that is
+	 * retired when a blob respawns. The recorder must only be used by the
+	 * thread that updates this world. Chromosome ids are only unique within
+	 * a world, so worlds should not share a recorder.
+	 * 
+	 * @param recorder the new recorder or null to stop recording
+	 */
+	public void setLineageRecorder(LineageRecorder recorder) {
+		for (int i = 0; i < species.size(); i++)
+			species.get(i).setLineageRecorder(recorder);
+	}
+
+	/**
+	 * Attaches a journal that records this world's run, starting with a
+	 * keyframe of the current state. Any later tick of the run can then be
+	 * reproduced with RunJournalReader. The journal must only be used by the
+	 * thread that updates this world, and migrants must be placed with
+	 * acceptMigrants so they are recorded. Detaching the journal does not
+	 * close it.
+	 * 
+	 * @param newJournal the journal to attach or null to stop recording
+	 * @throws IllegalStateException if background breeding is enabled, whose
+	 * 		offspring cannot be reproduced
+	 */
+	public void setRunJournal(RunJournalWriter newJournal) {
+		if (newJournal != null) {
+			for (int i = 0; i < species.size(); i++) {
+				if (species.get(i).getBreeder() != null)
+					throw new IllegalStateException("Background breeding cannot be journaled");
+			}
+			newJournal.start(this);
+		}
+
+		journal = newJournal;
+		setSpawnLog(newJournal == null ? null : newJournal.getSpawnLog());
+	}
+
+	/**
+	 * Sets the log the respawned blobs of every species are recorded in.
+	 * 
+	 * @param log the new log or null to stop recording
+	 */
+	void setSpawnLog(SpawnLog log) {
+		for (int i = 0; i < species.size(); i++)
+			species.get(i).setSpawnLog(log);
+	}
+
+	/**
+	 * Places chromosomes that migrated from another world into the gene pool
+	 * of a species by replacing its least fit chromosomes. If a run journal
+	 * is attached the migrants are recorded. This should be called from the
+	 * thread that updates the world, between ticks. The gene pool gets
+	 * copies of the migrants with new ids from this world's sequence and
+	 * the fitness of the migrants. The parents of a migrant belong to
+	 * another world, so the copies have no parents.
+	 * 
+	 * @param specie the index of the species
+	 * @param migrants the chromosomes to place into the gene pool
+	 */
+	public void acceptMigrants(int specie, Chromosome[] migrants) {
+		if (journal != null)
+			journal.recordMigrants(this, specie, migrants);
+
+		Chromosome[] placed = new Chromosome[migrants.length];
+		for (int i = 0; i < migrants.length; i++) {
+			placed[i] = new Chromosome(migrants[i].copyAllGenes(), chromosomeIds.next());
+			placed[i].setFitness(migrants[i].getFitness());
+		}
+		species.get(specie).acceptMigrants(placed);
+	}
+
+	/**
+	 * Sets the engine used to update the live blobs. With a tick engine the
+	 * blobs decide their actions in parallel before any actions are executed.
+	 * 
+	 * @param engine the new tick engine or null to update the blobs one after
+	 * 		another on the calling thread
+	 */
+	public void setTickEngine(TickEngine engine) {
+		tickEngine = engine;
+		if (journal != null)
+			journal.recordSettings(this);
+	}
+
+	/**
+	 * Gets the engine used to update the live blobs.
+	 * 
+	 * @return the tick engine or null if the blobs are updated one after
+	 * 		another on the calling thread
+	 */
+	public TickEngine getTickEngine() {
+		return tickEngine;
+	}
+
+	/**
+	 * Sets whether blob searches use a grid per species instead of looking at
+	 * every live blob. The grid is rebuilt every tick after the blobs have
+	 * respawned. The searches find the same blobs either way.
+	 * 
+	 * @param enabled true to back the searches with a grid
+	 */
+	public void setGridFinder(boolean enabled) {
+		gridFinder = enabled;
+		if (journal != null)
+			journal.recordSettings(this);
+	}
+
+	/**
+	 * Indicates if blob searches are backed by a grid.
+	 * 
+	 * @return true if the searches use a grid
+	 */
+	boolean isGridFinder() {
+		return gridFinder;
+	}
+
+	/**
+	 * Sets whether the live blobs of every species are sorted from time to
+	 * time along a Z-order curve of their locations, so blobs that are close
+	 * in the world are stored close together. Blob ids are not changed, but
+	 * the order of Specie#getBlob and with it the outcome of a seeded world
+	 * is.
+	 * 
+	 * @param enabled true to sort the live blobs
+	 */
+	public void setBlobSorting(boolean enabled) {
+		sortBlobs = enabled;
+		if (journal != null)
+			journal.recordSettings(this);
+	}
+
+	/**
+	 * Indicates if the live blobs are sorted along a Z-order curve.
+	 * 
+	 * @return true if the live blobs are sorted
+	 */
+	boolean isBlobSorting() {
+		return sortBlobs;
+	}
+
 	/**
 	 * Updates the blobs.
-	 * The preupdateBlobs method is called on the species then the updateBlobs
-	 * method is called on the species.
+	 * The preupdateBlobs method is called on the species then the blobs are
+	 * updated either by the tick engine or by calling the updateBlobs method
+	 * on the species. Energy moved between blobs is applied after all blobs
+	 * have been updated. If a run journal is attached, the tick is recorded
+	 * in it afterwards.
 	 */
 	public void updateBlobs() {
+		if (journal != null)
+			journal.beginTick(this);
+
 		for (int i = 0; i < species.size(); i++) {
 			Specie sp = species.get(i);
-			sp.preupdateBlobs();
+			sp.preupdateBlobs(ticks);
+			if (sortBlobs)
+				sp.sortBlobsIfDue(ticks);
+		}
+
+		if (gridFinder) {
+			//a coarse step lets a blob catch up on several moves at once
+			int moves = tickEngine == null ? 1 : 1 + tickEngine.getMaxCoarseStep();
+			blobFinder.rebuildGrid(moves);
 		}
 
+		if (tickEngine != null) {
+			tickEngine.updateBlobs(species);
+		} else {
+			for (int i = 0; i < species.size(); i++) {
+				Specie sp = species.get(i);
+				sp.updateBlobs(ledger);
+			}
+			ledger.apply();
+		}
+		blobFinder.invalidateGrid();
+
+		ticks++;
+		if (journal != null)
+			journal.endTick(this);
+	}
+
+	/**
+	 * Computes a hash of the complete state of the world. The hash covers the
+	 * location, angle, energy, age and chromosomes of every blob, visited in
+	 * the order of the species and blob ids. Two worlds with the same hash
+	 * are, for all practical purposes, identical.
+	 * 
+	 * @return the hash of the world's state
+	 */
+	public long computeStateHash() {
+		long hash = 17L;
+		hash = hashLong(hash, ticks);
 		for (int i = 0; i < species.size(); i++) {
 			Specie sp = species.get(i);
-			sp.updateBlobs();
+			for (int j = 0; j < sp.getTotalBlobCount(); j++) {
+				Blob b = sp.getBlobById(j);
+				hash = hashDouble(hash, b.getBody().getX());
+				hash = hashDouble(hash, b.getBody().getY());
+				hash = hashDouble(hash, b.getBody().getAngle());
+				hash = hashDouble(hash, b.getEnergy());
+				hash = hashLong(hash, b.getAge());
+				hash = hashChromosome(hash, b.getChromosome());
+				hash = hashChromosome(hash, b.getChromosomeInGenePool());
+			}
+		}
+		return hash;
+	}
+
+	private static long hashChromosome(long hash, Chromosome chromo) {
+		hash = hashDouble(hash, chromo.getFitness());
+		for (int i = 0; i < chromo.getGeneCount(); i++)
+			hash = hashDouble(hash, chromo.getGene(i));
+		return hash;
+	}
+
+	private static long hashDouble(long hash, double value) {
+		return hashLong(hash, Double.doubleToLongBits(value));
+	}
+
+	private static long hashLong(long hash, long value) {
+		return (hash ^ value) * 0x100000001B3L + (hash >>> 29);
+	}
+
+	private static final class BreederThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "SmoothLife-breeder");
+			t.setDaemon(true);
+			return t;
 		}
 	}
 }
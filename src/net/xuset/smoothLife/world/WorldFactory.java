@@ -1,5 +1,7 @@
 package net.xuset.smoothLife.world;
 
+import java.util.Random;
+
 import net.xuset.objectIO.markupMsg.MarkupMsg;
 
 /**
@@ -15,6 +17,7 @@ public class WorldFactory {
 	private static final int defaultWidth = 800, defaultHeight = 600;
 	private static final int defaultSpeciesCount = 2;
 	private static final int defaultInitBlobCount = 20;
+	private static final double defaultSpawnBudget = 1.0 / 50;
 	private static final int[] defaultNeuronLayout =
 		{ BrainInterface.EXPECTED_INPUT, 20, 20, BrainInterface.EXPECTED_OUTPUT };
 
@@ -91,15 +94,36 @@ public class WorldFactory {
 		final SpecieInfo[] speciesInfos;
 
 		/**
-		 * Instantiate a new instance.
+		 * The seed all random numbers of the world are derived from.
+		 */
+		final long seed;
+
+		/**
+		 * Instantiate a new instance with a random seed.
 		 * @param specieInfos the species info used to create the species
 		 * @param worldWidth the width of the world
 		 * @param worldHeight the height of the world
 		 */
 		public WorldInfo(SpecieInfo[] specieInfos, int worldWidth, int worldHeight) {
+			this(specieInfos, worldWidth, worldHeight, new Random().nextLong());
+		}
+
+		/**
+		 * Instantiate a new instance. Two worlds created from world infos with
+		 * the same values and seed evolve exactly the same way, as long as
+		 * background breeding is not enabled.
+		 * @param specieInfos the species info used to create the species
+		 * @param worldWidth the width of the world
+		 * @param worldHeight the height of the world
+		 * @param seed the seed all random numbers of the world are derived from
+		 */
+		public WorldInfo(SpecieInfo[] specieInfos, int worldWidth, int worldHeight,
+				long seed) {
+
 			this.speciesInfos = specieInfos;
 			this.worldWidth = worldWidth;
 			this.worldHeight = worldHeight;
+			this.seed = seed;
 		}
 	}
 
@@ -131,7 +155,13 @@ public class WorldFactory {
 		final int initBlobCount;
 
 		/**
-		 * Instantiate a new species info object.
+		 * The amount of dead blobs to respawn per tick.
+		 */
+		final double spawnBudget;
+
+		/**
+		 * Instantiate a new species info object with the default spawn budget
+		 * of one blob every fifty ticks.
 		 * 
 		 * @param isPrey indicates if the species should be prey or predators
 		 * @param specieId the species id of the species
@@ -141,10 +171,31 @@ public class WorldFactory {
 		public SpecieInfo(boolean isPrey, long specieId,
 				int[] neuronLayout, int initBlobCount) {
 
+			this(isPrey, specieId, neuronLayout, initBlobCount, defaultSpawnBudget);
+		}
+
+		/**
+		 * Instantiate a new species info object.
+		 * 
+		 * @param isPrey indicates if the species should be prey or predators
+		 * @param specieId the species id of the species
+		 * @param neuronLayout the layout of neurons in this species' blobs
+		 * @param initBlobCount the initial amount of blobs to spawn
+		 * @param spawnBudget the amount of dead blobs to respawn per tick. Values
+		 * 		less than one spawn a blob every few ticks.
+		 * @throws IllegalArgumentException if spawnBudget is less than zero
+		 */
+		public SpecieInfo(boolean isPrey, long specieId,
+				int[] neuronLayout, int initBlobCount, double spawnBudget) {
+
+			if (spawnBudget < 0.0)
+				throw new IllegalArgumentException("spawnBudget must not be negative");
+
 			this.isPrey = isPrey;
 			this.specieId = specieId;
 			this.neuronLayout = neuronLayout;
 			this.initBlobCount = initBlobCount;
+			this.spawnBudget = spawnBudget;
 		}
 	}
 }
@@ -0,0 +1,411 @@
+package net.xuset.smoothLife.world;
+
+import java.util.Arrays;
+
+import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.ChromosomeStore;
+import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
+import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
+
+/**
+ * A copy of the state of a world that can be encoded while the world keeps
+ * running. Capturing an image copies the location, angle, energy and age of
+ * every blob into flat arrays, one per value and species. The genes of a
+ * chromosome never change after it is created, so the image only keeps
+ * references to the chromosomes and copies their fitness, which is the one
+ * part of a chromosome that does change. Capturing an image is therefore a
+ * single pass over the blobs that does not touch any genes.
+ * 
+ * <p>
+ * An image of a world also holds the run state of every species: the spawn
+ * credit, the order of the live and dead blobs, the state of the blob
+ * sorting and the positions of the random number streams. With the run
+ * state a restored world continues exactly like the captured one. The run
+ * state also holds the blobs that are in the middle of a coarse step of a
+ * tick engine, with the length of the step, the ticks they sat out and the
+ * actions they catch up with. The image
+ * also holds the next id of the world's chromosome id sequence, so the ids
+ * of a restored world stay unique.
+ * </p>
+ * 
+ * <p>
+ * Writers store the genes of each species once per distinct gene array.
+ * The gene tables are built the first time they are requested, which
+ * happens on the thread encoding the image rather than the one capturing
+ * it.
+ * </p>
+ * 
+ * <p>
+ * Readers of snapshots fill an empty image instead and restore the world
+ * from it in one step with World(WorldImage). Older snapshots have no run
+ * state, in which case the restored world starts its random number streams
+ * over.
+ * </p>
+ * 
+ * @author xuset
+ * @since 1.0
+ * @see BinaryWorldSerializer
+ * @see CheckpointService
+ */
+final class WorldImage {
+	final int width, height;
+	final long seed, ticks;
+	long nextChromosomeId;
+
+	final long[] specieIds;
+	final boolean[] isPrey;
+	final double[] spawnBudgets;
+	final int[][] neuronLayouts;
+
+	final double[][] x, y, angle, energy;
+	final int[][] age;
+	final Chromosome[][] chromo, oldChromo;
+	final double[][] fitness, oldFitness;
+
+	final double[] spawnCredits, sortDrifts;
+	final long[] breedCounters, sortTicks;
+	final int[] sortIntervals, liveCounts;
+	final int[][] blobOrder;
+	final long[][] randomCounters;
+	final int[][] coarseStates;
+	private boolean runState;
+
+	private ChromosomeStore[] geneTables;
+	private int[][] chromoRefs, oldChromoRefs;
+
+	/**
+	 * Captures the state of the given world. This must be called from the
+	 * thread that updates the world, between ticks.
+	 * 
+	 * @param world the world to capture
+	 */
+	WorldImage(World world) {
+		width = world.getWidth();
+		height = world.getHeight();
+		seed = world.getSeed();
+		ticks = world.getTicks();
+		nextChromosomeId = world.getChromosomeIds().getNext();
+
+		int speciesCount = world.getSpeciesCount();
+		specieIds = new long[speciesCount];
+		isPrey = new boolean[speciesCount];
+		spawnBudgets = new double[speciesCount];
+		neuronLayouts = new int[speciesCount][];
+		x = new double[speciesCount][];
+		y = new double[speciesCount][];
+		angle = new double[speciesCount][];
+		energy = new double[speciesCount][];
+		age = new int[speciesCount][];
+		chromo = new Chromosome[speciesCount][];
+		oldChromo = new Chromosome[speciesCount][];
+		fitness = new double[speciesCount][];
+		oldFitness = new double[speciesCount][];
+		spawnCredits = new double[speciesCount];
+		sortDrifts = new double[speciesCount];
+		breedCounters = new long[speciesCount];
+		sortTicks = new long[speciesCount];
+		sortIntervals = new int[speciesCount];
+		liveCounts = new int[speciesCount];
+		blobOrder = new int[speciesCount][];
+		randomCounters = new long[speciesCount][];
+		coarseStates = new int[speciesCount][];
+		runState = true;
+
+		for (int i = 0; i < speciesCount; i++) {
+			Specie specie = world.getSpecie(i);
+			specieIds[i] = specie.getSpecieId();
+			isPrey[i] = specie.isPrey();
+			spawnBudgets[i] = specie.getSpawnBudget();
+			neuronLayouts[i] = specie.cloneNeuronLayout();
+
+			int count = specie.getTotalBlobCount();
+			x[i] = new double[count];
+			y[i] = new double[count];
+			angle[i] = new double[count];
+			energy[i] = new double[count];
+			age[i] = new int[count];
+			chromo[i] = new Chromosome[count];
+			oldChromo[i] = new Chromosome[count];
+			fitness[i] = new double[count];
+			oldFitness[i] = new double[count];
+			randomCounters[i] = new long[count];
+			int[] coarse = new int[0];
+			int coarseCount = 0;
+
+			for (int j = 0; j < count; j++) {
+				Blob b = specie.getBlobById(j);
+				Body body = b.getBody();
+				x[i][j] = body.getX();
+				y[i][j] = body.getY();
+				angle[i][j] = body.getAngle();
+				energy[i][j] = b.getEnergy();
+				age[i][j] = b.getAge();
+
+				Chromosome c = b.getChromosome();
+				chromo[i][j] = c;
+				fitness[i][j] = c.getFitness();
+				c = b.getChromosomeInGenePool();
+				oldChromo[i][j] = c;
+				oldFitness[i][j] = c.getFitness();
+				randomCounters[i][j] = b.getRandom().getCounter();
+
+				if (b.isCoarse()) {
+					if (coarse.length == coarseCount)
+						coarse = Arrays.copyOf(coarse, Math.max(16, 2 * coarse.length));
+					coarse[coarseCount++] = j;
+					coarse[coarseCount++] = b.getCoarseStep();
+					coarse[coarseCount++] = b.getCoarseTicks();
+					coarse[coarseCount++] = b.getActionBits();
+				}
+			}
+			coarseStates[i] = Arrays.copyOf(coarse, coarseCount);
+
+			spawnCredits[i] = specie.getSpawnCredit();
+			breedCounters[i] = specie.getBreedCounter();
+			sortIntervals[i] = specie.getSortInterval();
+			sortTicks[i] = specie.getNextSortTick();
+			sortDrifts[i] = specie.getLastSortDrift();
+			liveCounts[i] = specie.getBlobCount();
+			blobOrder[i] = new int[count];
+			for (int j = 0; j < liveCounts[i]; j++)
+				blobOrder[i][j] = specie.getBlob(j).getId();
+			for (int j = liveCounts[i]; j < count; j++)
+				blobOrder[i][j] = specie.getDeadBlob(j - liveCounts[i]).getId();
+		}
+	}
+
+	/**
+	 * Creates an empty image for the given world and species infos. The blob
+	 * arrays are sized by the initial blob counts of the infos and are meant
+	 * to be filled in by a reader before the image is restored with
+	 * World(WorldImage).
+	 * 
+	 * @param worldInfo the size, seed and species of the world
+	 * @param ticks the tick count of the world
+	 */
+	WorldImage(WorldInfo worldInfo, long ticks) {
+		width = worldInfo.worldWidth;
+		height = worldInfo.worldHeight;
+		seed = worldInfo.seed;
+		this.ticks = ticks;
+
+		SpecieInfo[] infos = worldInfo.speciesInfos;
+		specieIds = new long[infos.length];
+		isPrey = new boolean[infos.length];
+		spawnBudgets = new double[infos.length];
+		neuronLayouts = new int[infos.length][];
+		x = new double[infos.length][];
+		y = new double[infos.length][];
+		angle = new double[infos.length][];
+		energy = new double[infos.length][];
+		age = new int[infos.length][];
+		chromo = new Chromosome[infos.length][];
+		oldChromo = new Chromosome[infos.length][];
+		fitness = new double[infos.length][];
+		oldFitness = new double[infos.length][];
+		spawnCredits = new double[infos.length];
+		sortDrifts = new double[infos.length];
+		breedCounters = new long[infos.length];
+		sortTicks = new long[infos.length];
+		sortIntervals = new int[infos.length];
+		liveCounts = new int[infos.length];
+		blobOrder = new int[infos.length][];
+		randomCounters = new long[infos.length][];
+		coarseStates = new int[infos.length][];
+		runState = false;
+
+		for (int i = 0; i < infos.length; i++) {
+			specieIds[i] = infos[i].specieId;
+			isPrey[i] = infos[i].isPrey;
+			spawnBudgets[i] = infos[i].spawnBudget;
+			neuronLayouts[i] = infos[i].neuronLayout;
+
+			int count = infos[i].initBlobCount;
+			x[i] = new double[count];
+			y[i] = new double[count];
+			angle[i] = new double[count];
+			energy[i] = new double[count];
+			age[i] = new int[count];
+			chromo[i] = new Chromosome[count];
+			oldChromo[i] = new Chromosome[count];
+			fitness[i] = new double[count];
+			oldFitness[i] = new double[count];
+			randomCounters[i] = new long[count];
+			coarseStates[i] = new int[0];
+		}
+	}
+
+	/**
+	 * Sets the state of a blob in an image created for a reader.
+	 * 
+	 * @param specie the index of the species
+	 * @param id the id of the blob
+	 * @param x the x location of the blob
+	 * @param y the y location of the blob
+	 * @param angle the angle of the blob
+	 * @param energy the energy of the blob
+	 * @param age the age of the blob
+	 * @param chromo the current chromosome of the blob, holding its fitness
+	 * @param oldChromo the previous chromosome of the blob, holding its
+	 * 		fitness
+	 */
+	void setBlob(int specie, int id, double x, double y, double angle, double energy,
+			int age, Chromosome chromo, Chromosome oldChromo) {
+
+		this.x[specie][id] = x;
+		this.y[specie][id] = y;
+		this.angle[specie][id] = angle;
+		this.energy[specie][id] = energy;
+		this.age[specie][id] = age;
+		this.chromo[specie][id] = chromo;
+		this.oldChromo[specie][id] = oldChromo;
+		fitness[specie][id] = chromo.getFitness();
+		oldFitness[specie][id] = oldChromo.getFitness();
+	}
+
+	/**
+	 * Assigns an id to a chromosome read from a snapshot that did not save
+	 * the ids of its chromosomes. The ids are assigned in the order the
+	 * chromosomes are read, and the next id of the image is moved past them.
+	 * 
+	 * @return the id for the chromosome
+	 */
+	long assignChromosomeId() {
+		return nextChromosomeId++;
+	}
+
+	/**
+	 * Sets the run state of a species in an image created for a reader. The
+	 * image only counts as having a run state once it was set for every
+	 * species, which the reader confirms with setRunStateComplete.
+	 * 
+	 * @param specie the index of the species
+	 * @param spawnCredit the spawn credit of the species
+	 * @param breedCounter the counter of the species' breeding stream
+	 * @param sortInterval the interval between sorts of the live blobs
+	 * @param sortTick the tick of the next sort
+	 * @param sortDrift the drift measured at the last sort
+	 * @param order the ids of the live blobs in order, followed by the ids
+	 * 		of the dead blobs in respawn order
+	 * @param liveCount the amount of live blobs
+	 * @param counters the counter of every blob's stream, indexed by blob id
+	 */
+	void setRunState(int specie, double spawnCredit, long breedCounter, int sortInterval,
+			long sortTick, double sortDrift, int[] order, int liveCount, long[] counters) {
+
+		spawnCredits[specie] = spawnCredit;
+		breedCounters[specie] = breedCounter;
+		sortIntervals[specie] = sortInterval;
+		sortTicks[specie] = sortTick;
+		sortDrifts[specie] = sortDrift;
+		blobOrder[specie] = order;
+		liveCounts[specie] = liveCount;
+		randomCounters[specie] = counters;
+	}
+
+	/**
+	 * Sets the blobs of a species that are in a coarse step in an image
+	 * created for a reader. This is part of the run state.
+	 * 
+	 * @param specie the index of the species
+	 * @param states the id, step length, ticks sat out and action bits of
+	 * 		every blob in a coarse step, four ints per blob
+	 * @see Blob#restoreCoarseStep(int, int, int)
+	 */
+	void setCoarseStates(int specie, int[] states) {
+		coarseStates[specie] = states;
+	}
+
+	/**
+	 * Marks the run state of every species as set.
+	 */
+	void setRunStateComplete() {
+		runState = true;
+	}
+
+	/**
+	 * Indicates if the image holds the run state of its species.
+	 * 
+	 * @return true if a restored world continues exactly like the captured
+	 * 		one
+	 */
+	boolean hasRunState() {
+		return runState;
+	}
+
+	/**
+	 * Gets the table of distinct genes of a species. The entry each current
+	 * and previous chromosome refers to is given by getChromoRef and
+	 * getOldChromoRef. The tables of all species are built by the first call.
+	 * 
+	 * @param specie the index of the species
+	 * @return the gene table of the species
+	 */
+	ChromosomeStore getGeneTable(int specie) {
+		buildGeneTables();
+		return geneTables[specie];
+	}
+
+	/**
+	 * Gets the gene table entry of a blob's current chromosome.
+	 * 
+	 * @param specie the index of the species
+	 * @param id the id of the blob
+	 * @return the index of the entry in the species' gene table
+	 */
+	int getChromoRef(int specie, int id) {
+		buildGeneTables();
+		return chromoRefs[specie][id];
+	}
+
+	/**
+	 * Gets the gene table entry of a blob's previous chromosome.
+	 * 
+	 * @param specie the index of the species
+	 * @param id the id of the blob
+	 * @return the index of the entry in the species' gene table
+	 */
+	int getOldChromoRef(int specie, int id) {
+		buildGeneTables();
+		return oldChromoRefs[specie][id];
+	}
+
+	private void buildGeneTables() {
+		if (geneTables != null)
+			return;
+
+		ChromosomeStore[] tables = new ChromosomeStore[getSpeciesCount()];
+		chromoRefs = new int[tables.length][];
+		oldChromoRefs = new int[tables.length][];
+		for (int i = 0; i < tables.length; i++) {
+			int count = getBlobCount(i);
+			tables[i] = new ChromosomeStore(2 * count);
+			chromoRefs[i] = new int[count];
+			oldChromoRefs[i] = new int[count];
+			for (int j = 0; j < count; j++) {
+				chromoRefs[i][j] = tables[i].add(chromo[i][j]);
+				oldChromoRefs[i][j] = tables[i].add(oldChromo[i][j]);
+			}
+		}
+		geneTables = tables;
+	}
+
+	/**
+	 * Get the amount of species in the image.
+	 * 
+	 * @return the species count
+	 */
+	int getSpeciesCount() {
+		return specieIds.length;
+	}
+
+	/**
+	 * Get the amount of blobs of a species, live or dead.
+	 * 
+	 * @param specie the index of the species
+	 * @return the blob count of the species
+	 */
+	int getBlobCount(int specie) {
+		return x[specie].length;
+	}
+}
@@ -1,10 +1,15 @@
 package net.xuset.smoothLife.world;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 
 import net.xuset.objectIO.markupMsg.MarkupMsg;
+import net.xuset.objectIO.markupMsg.MsgAttribute;
 import net.xuset.smoothLife.nnetwork.Chromosome;
+import net.xuset.smoothLife.nnetwork.ChromosomeStore;
+import net.xuset.smoothLife.nnetwork.GeneCodec;
 import net.xuset.smoothLife.world.WorldFactory.SpecieInfo;
 import net.xuset.smoothLife.world.WorldFactory.WorldInfo;
 
@@ -28,14 +33,25 @@ public class WorldSerializer{
 	private static final String geneAttribute = "genes";
 	private static final String chromoName = "chromo";
 	private static final String oldChromoName = "oldChromo";
+	private static final String packedGenesAttribute = "packedGenes";
+	private static final String geneRefAttribute = "geneRef";
+	private static final String packedGeneTableAttribute = "packedGeneTable";
+	private static final String idAttribute = "id";
+	private static final String parentAAttribute = "parentA";
+	private static final String parentBAttribute = "parentB";
+	private static final String crossOverStartAttribute = "crossOverStart";
+	private static final String crossOverEndAttribute = "crossOverEnd";
+	private static final String nextIdAttribute = "nextChromosomeId";
 
 	private static final String initBlobsAttribute = "initBlobCount";
 	private static final String isPreyAttribute = "isPrey";
 	private static final String specieIdAttribute = "specieId";
 	private static final String nnLayoutAttribute = "neuronLayout";
+	private static final String spawnBudgetAttribute = "spawnBudget";
 
 	private static final String worldWidthAttribute = "worldWidth";
 	private static final String worldHeightAttribute = "worldHeight";
+	private static final String seedAttribute = "seed";
 
 	///////Begin World serialize////////
 
@@ -46,11 +62,30 @@ public class WorldSerializer{
 	 * @return the message object containing the serialized world
 	 */
 	public static MarkupMsg serializeWorld(World world) {
+		return serializeWorld(world, false);
+	}
+
+	/**
+	 * Serialize the given world into a MarkupMsg object. The genes of each
+	 * distinct gene array of a species are only stored once. The first
+	 * chromosome with the genes holds them, and later chromosomes with equal
+	 * genes refer to it by its index among the distinct gene arrays. If the
+	 * genes are packed, the distinct gene arrays of each species are encoded
+	 * with GeneCodec and stored in one Base64 attribute of the species, and
+	 * every chromosome refers to its genes by index. Every chromosome also
+	 * holds its id and, if it was bred, its parents, and the world state
+	 * holds the next id of the world's id sequence.
+	 * 
+	 * @param world the world to serialized
+	 * @param packGenes true to pack the genes
+	 * @return the message object containing the serialized world
+	 */
+	public static MarkupMsg serializeWorld(World world, boolean packGenes) {
 		MarkupMsg mainMsg = new MarkupMsg();
 		mainMsg.setName(mainMsgName);
 
 		MarkupMsg worldInfoMsg = serializeWorldInfo(world);
-		MarkupMsg worldStateMsg = serializeWorldState(world);
+		MarkupMsg worldStateMsg = serializeWorldState(world, packGenes);
 
 		mainMsg.addNested(worldInfoMsg);
 		mainMsg.addNested(worldStateMsg);
@@ -63,15 +98,17 @@ public class WorldSerializer{
 		worldInfoMsg.setName(worldInfoName);
 		worldInfoMsg.setAttribute(worldWidthAttribute, world.getWidth());
 		worldInfoMsg.setAttribute(worldHeightAttribute, world.getHeight());
+		worldInfoMsg.setAttribute(seedAttribute, world.getSeed());
 
 		for (int i = 0; i < world.getSpeciesCount(); i++) {
 			Specie specie = world.getSpecie(i);
 			MarkupMsg specieInfoMsg = new MarkupMsg();
 			specieInfoMsg.setAttribute(specieIdAttribute, specie.getSpecieId());
 			specieInfoMsg.setAttribute(isPreyAttribute, specie.isPrey());
-			specieInfoMsg.setAttribute(initBlobsAttribute, specie.getAllBlobs().size());
+			specieInfoMsg.setAttribute(initBlobsAttribute, specie.getTotalBlobCount());
 			specieInfoMsg.setAttribute(nnLayoutAttribute,
 					Arrays.toString(specie.cloneNeuronLayout()));
+			specieInfoMsg.setAttribute(spawnBudgetAttribute, specie.getSpawnBudget());
 
 			worldInfoMsg.addNested(specieInfoMsg);
 		}
@@ -79,30 +116,40 @@ public class WorldSerializer{
 		return worldInfoMsg;
 	}
 
-	private static MarkupMsg serializeWorldState(World world) {
+	private static MarkupMsg serializeWorldState(World world, boolean packGenes) {
 		MarkupMsg worldStateMsg = new MarkupMsg();
 		worldStateMsg.setName(worldStateName);
+		worldStateMsg.setAttribute(nextIdAttribute, world.getChromosomeIds().getNext());
 
 		for (int i = 0; i < world.getSpeciesCount(); i++) {
 			Specie specie = world.getSpecie(i);
 			MarkupMsg specieMsg = new MarkupMsg();
 			worldStateMsg.addNested(specieMsg);
 
-			List<Blob> allBlobs = specie.getAllBlobs();
-			for (Blob b : allBlobs)
-				specieMsg.addNested(serializeBlob(b));
+			ChromosomeStore geneTable = new ChromosomeStore(2 * specie.getTotalBlobCount());
+			for (int j = 0; j < specie.getTotalBlobCount(); j++) {
+				specieMsg.addNested(
+						serializeBlob(specie.getBlobById(j), geneTable, packGenes));
+			}
+
+			if (packGenes) {
+				specieMsg.setAttribute(packedGeneTableAttribute, Base64.getEncoder().
+						encodeToString(GeneCodec.encode(geneTable.toArray())));
+			}
 		}
 
 		return worldStateMsg;
 	}
 
-	private static MarkupMsg serializeBlob(Blob b) {
+	private static MarkupMsg serializeBlob(Blob b, ChromosomeStore geneTable,
+			boolean packGenes) {
+
 		MarkupMsg blobMsg = new MarkupMsg();
 
-		blobMsg.addNested(
-				serializeChromosome(b.cloneChromosome(), chromoName));
-		blobMsg.addNested(
-				serializeChromosome(b.cloneOldChromosome(), oldChromoName));
+		blobMsg.addNested(serializeChromosome(
+				b.getChromosome(), chromoName, geneTable, packGenes));
+		blobMsg.addNested(serializeChromosome(
+				b.getChromosomeInGenePool(), oldChromoName, geneTable, packGenes));
 
 		blobMsg.addAttribute(xLocationAttribute, b.getBody().getX());
 		blobMsg.addAttribute(yLocationAttribute, b.getBody().getY());
@@ -113,13 +160,28 @@ public class WorldSerializer{
 		return blobMsg;
 	}
 
-	private static MarkupMsg serializeChromosome(Chromosome chromo, String msgName) {
+	private static MarkupMsg serializeChromosome(Chromosome chromo, String msgName,
+			ChromosomeStore geneTable, boolean packGenes) {
+
 		MarkupMsg chromoMsg = new MarkupMsg();
 		chromoMsg.setName(msgName);
 
 		chromoMsg.addAttribute(fitnessAttribute, chromo.getFitness());
-		chromoMsg.addAttribute(geneAttribute,
-				Arrays.toString(chromo.copyAllGenes()));
+		chromoMsg.addAttribute(idAttribute, chromo.getId());
+		if (chromo.getParentIdA() != Chromosome.NO_PARENT) {
+			chromoMsg.addAttribute(parentAAttribute, chromo.getParentIdA());
+			chromoMsg.addAttribute(parentBAttribute, chromo.getParentIdB());
+			chromoMsg.addAttribute(crossOverStartAttribute, chromo.getCrossOverStart());
+			chromoMsg.addAttribute(crossOverEndAttribute, chromo.getCrossOverEnd());
+		}
+		int entryCount = geneTable.size();
+		int ref = geneTable.add(chromo);
+		if (packGenes || ref != entryCount) {
+			chromoMsg.addAttribute(geneRefAttribute, ref);
+		} else {
+			chromoMsg.addAttribute(geneAttribute,
+					Arrays.toString(chromo.copyAllGenes()));
+		}
 
 		return chromoMsg;
 	}
@@ -142,9 +204,9 @@ public class WorldSerializer{
 			throw new IllegalArgumentException("Supplied message is invalid");
 
 		WorldInfo worldInfo = deserializeWorldInfo(worldMsg.getNested(worldInfoName));
-		World world = new World(worldInfo);
-		recreateWorldState(world, worldMsg.getNested(worldStateName));
-		return world;
+		WorldImage image = new WorldImage(worldInfo, 0);
+		recreateWorldState(image, worldMsg.getNested(worldStateName));
+		return new World(image);
 	}
 
 	private static WorldInfo deserializeWorldInfo(MarkupMsg worldInfoMsg) {
@@ -158,52 +220,114 @@ public class WorldSerializer{
 			String strNeuronLayout = infoMsg.getAttribute(nnLayoutAttribute).getString();
 			int[] neuronLayout = stringToIntArray(strNeuronLayout);
 
-			specieInfos[i] = new SpecieInfo(isPrey, specieId, neuronLayout,
-					initBlobCount);
+			MsgAttribute budgetAttrib = infoMsg.getAttribute(spawnBudgetAttribute);
+
+			specieInfos[i] = budgetAttrib == null ?
+					new SpecieInfo(isPrey, specieId, neuronLayout, initBlobCount) :
+					new SpecieInfo(isPrey, specieId, neuronLayout, initBlobCount,
+							budgetAttrib.getDouble());
 		}
 
 		int worldWidth = worldInfoMsg.getAttribute(worldWidthAttribute).getInt();
 		int worldHeight = worldInfoMsg.getAttribute(worldHeightAttribute).getInt();
-		return new WorldInfo(specieInfos, worldWidth, worldHeight);
+		MsgAttribute seedAttrib = worldInfoMsg.getAttribute(seedAttribute);
+
+		if (seedAttrib == null)
+			return new WorldInfo(specieInfos, worldWidth, worldHeight);
+		return new WorldInfo(specieInfos, worldWidth, worldHeight, seedAttrib.getLong());
 	}
 
-	private static void recreateWorldState(World world, MarkupMsg stateMsg) {
-		for (int i = 0; i < world.getSpeciesCount(); i++) {
+	private static void recreateWorldState(WorldImage image, MarkupMsg stateMsg) {
+		//older messages have no ids, so their chromosomes are given new ones
+		MsgAttribute nextIdAttrib = stateMsg.getAttribute(nextIdAttribute);
+		if (nextIdAttrib != null)
+			image.nextChromosomeId = nextIdAttrib.getLong();
+
+		for (int i = 0; i < image.getSpeciesCount(); i++) {
 			MarkupMsg specieMsg = stateMsg.getNestedMsgs().get(i);
-			Specie specie = world.getSpecie(i);
+			int blobCount = image.getBlobCount(i);
 
-			if (specieMsg.getNestedMsgs().size() != specie.getBlobCount())
+			if (specieMsg.getNestedMsgs().size() != blobCount)
 				throw new IllegalStateException("Blob counts do not match");
 
-			for (int j = 0; j < specie.getBlobCount(); j++) {
-				Blob blob = specie.getBlob(j);
+			double[][] packedGenes = null;
+			MsgAttribute packedAttrib = specieMsg.getAttribute(packedGenesAttribute);
+			if (packedAttrib != null) {
+				packedGenes = GeneCodec.decode(
+						Base64.getDecoder().decode(packedAttrib.getString()));
+				if (packedGenes.length != 2 * blobCount)
+					throw new IllegalArgumentException("Packed genes do not match the blob count");
+			}
+
+			//the distinct gene arrays, either packed or in the order they first appear
+			List<double[]> geneTable = new ArrayList<double[]>();
+			MsgAttribute tableAttrib = specieMsg.getAttribute(packedGeneTableAttribute);
+			if (tableAttrib != null) {
+				geneTable.addAll(Arrays.asList(GeneCodec.decode(
+						Base64.getDecoder().decode(tableAttrib.getString()))));
+			}
+
+			for (int j = 0; j < blobCount; j++) {
 				MarkupMsg blobMsg = specieMsg.getNestedMsgs().get(j);
 
-				recreateBlob(blob, blobMsg);
+				if (packedGenes == null)
+					recreateBlob(image, i, j, blobMsg, null, null, geneTable);
+				else
+					recreateBlob(image, i, j, blobMsg, packedGenes[2 * j], packedGenes[2 * j + 1],
+							geneTable);
 			}
 		}
 	}
 
-	private static void recreateBlob(Blob blob, MarkupMsg blobMsg) {
-		blob.reset(
+	private static void recreateBlob(WorldImage image, int specie, int id, MarkupMsg blobMsg,
+			double[] packedGenes, double[] packedOldGenes, List<double[]> geneTable) {
+
+		image.setBlob(specie, id,
 				blobMsg.getAttribute(xLocationAttribute).getDouble(), //x
 				blobMsg.getAttribute(yLocationAttribute).getDouble(), //y
-				createChromosome(blobMsg.getNested(oldChromoName)));  //oldChromo
-
-		blob.reset(
-				blob.getBody().getX(), blob.getBody().getY(),         //x, y
 				blobMsg.getAttribute(angleAttribute).getDouble(),     //angle
 				blobMsg.getAttribute(energyAttribute).getDouble(),    //energy
 				blobMsg.getAttribute(ageAttribute).getInt(),          //age
-				createChromosome(blobMsg.getNested(chromoName)));     //newChromo
+				createChromosome(image, blobMsg.getNested(chromoName), packedGenes, geneTable),
+				createChromosome(image, blobMsg.getNested(oldChromoName), packedOldGenes,
+						geneTable));
 	}
 
-	private static Chromosome createChromosome(MarkupMsg chromoMsg) {
-		String strGenes = chromoMsg.getAttribute(geneAttribute).getString();
-		double[] genes = stringToDoubleArray(strGenes);
+	private static Chromosome createChromosome(WorldImage image, MarkupMsg chromoMsg,
+			double[] packedGenes, List<double[]> geneTable) {
+
+		MsgAttribute geneAttrib = chromoMsg.getAttribute(geneAttribute);
+		MsgAttribute refAttrib = chromoMsg.getAttribute(geneRefAttribute);
+		double[] genes = packedGenes;
+		if (geneAttrib != null) {
+			genes = stringToDoubleArray(geneAttrib.getString());
+			geneTable.add(genes);
+		} else if (refAttrib != null) {
+			int ref = refAttrib.getInt();
+			if (ref < 0 || ref >= geneTable.size())
+				throw new IllegalArgumentException("Invalid gene reference " + ref);
+			//the genes never change, so chromosomes with equal genes share the
+			//array, while each keeps its own id and fitness
+			genes = geneTable.get(ref);
+		}
+		if (genes == null)
+			throw new IllegalArgumentException("Chromosome has no genes");
+
 		double fitness = chromoMsg.getAttribute(fitnessAttribute).getDouble();
 
-		Chromosome chromo = new Chromosome(genes);
+		Chromosome chromo;
+		MsgAttribute idAttrib = chromoMsg.getAttribute(idAttribute);
+		MsgAttribute parentAttrib = chromoMsg.getAttribute(parentAAttribute);
+		if (idAttrib == null) {
+			chromo = new Chromosome(genes, image.assignChromosomeId());
+		} else if (parentAttrib == null) {
+			chromo = new Chromosome(genes, idAttrib.getLong());
+		} else {
+			chromo = new Chromosome(genes, idAttrib.getLong(), parentAttrib.getLong(),
+					chromoMsg.getAttribute(parentBAttribute).getLong(),
+					chromoMsg.getAttribute(crossOverStartAttribute).getInt(),
+					chromoMsg.getAttribute(crossOverEndAttribute).getInt());
+		}
 		chromo.setFitness(fitness);
 		return chromo;
 	}